@@ -50,6 +50,8 @@ public class CommandLineArgs {
     public static final String OPT_CONFIG_INI = "c";
     public static final String OPT_MEDIA_DIR = "m";
     public static final String OPT_STATS_PATH = "a";    // can't be s/stats
+    public static final String OPT_JFR_PATH = "j";
+    public static final String DEFAULT_JFR_PATH = "train-motion.jfr";
 
     private final ILogger mLogger;
     private final Options mOptions = new Options();
@@ -99,6 +101,14 @@ public class CommandLineArgs {
                 .argName("stats.json")
                 .desc("Path for JSON stats output (.json or .json.gz). Also enables stats collection.")
                 .build());
+        mOptions.addOption(Option.builder(OPT_JFR_PATH)
+                .longOpt("jfr")
+                .hasArg()
+                .optionalArg(true)
+                .argName("recording.jfr")
+                .desc("Continuous Java Flight Recorder recording, written on exit (default: "
+                        + DEFAULT_JFR_PATH + ").")
+                .build());
         Stream.of(1, 2, 3).forEach(i ->
                 mOptions.addOption(Option.builder(Integer.toString(i))
                         .longOpt("pass" + i)
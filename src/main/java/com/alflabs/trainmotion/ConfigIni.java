@@ -48,8 +48,16 @@ public class ConfigIni {
     private static final String KEY_CAM_URL = "cam%d_url";
     private static final String KEY_CAM_THRESHOLD = "cam%d_threshold";
     private static final String KEY_SPIKE_THRESHOLD = "spike_threshold";
+    private static final String KEY_CAM_STALL_SEC = "cam_stall_sec";
+    private static final String KEY_ANALYZER_FPS = "analyzer_fps";
+    private static final String KEY_ANALYZER_FPS_IDLE = "analyzer_fps_idle";
+    private static final String KEY_ANALYZER_FPS_ACTIVE = "analyzer_fps_active";
+    private static final String KEY_ANALYZER_IDLE_SEC = "analyzer_idle_sec";
+    private static final String KEY_ANALYZER_BUDGET_PCT = "analyzer_budget_pct";
+    private static final String KEY_CPU_BUDGET_PCT = "cpu_budget_pct";
     private static final String KEY_PlAYLIST_ID = "playlist_id";
     private static final String KEY_PlAYLIST_DIR = "playlist_dir";
+    private static final String KEY_PLAYLIST_NO_REPEAT = "playlist_no_repeat";
     private static final String KEY_VOLUME_PERCENT = "volume_pct";
     private static final String KEY_WINDOW_TITLE = "window_title";
     private static final String KEY_WINDOW_MAXIMIZE = "window_maximize";
@@ -58,6 +66,12 @@ public class ConfigIni {
     private static final String KEY_DISPLAY_OFF_HHMM = "display_off_hhmm";
     private static final String KEY_DISPLAY_ON_HHMM = "display_on_hhmm";
     private static final String KEY_KV_HOST_PORT = "kv_host_port";
+    private static final String KEY_LOG_FILE = "log_file";
+    private static final String KEY_LOG_STDOUT = "log_stdout";
+    private static final String KEY_VIRTUAL_THREADS = "virtual_threads";
+    private static final String KEY_STATUS_PORT = "status_port";
+    private static final String KEY_STATUS_HOST = "status_host";
+    private static final String KEY_PREVIEW_PORT = "preview_port";
 
     private final ILogger mLogger;
     private final FileOps mFileOps;
@@ -127,6 +141,53 @@ public class ConfigIni {
         return defaultThreshold;
     }
 
+    /** Returns the number of seconds without any camera frame before restarting its player. */
+    public double getCamStallSec(double defaultValue) {
+        return parseDouble(KEY_CAM_STALL_SEC, defaultValue);
+    }
+
+    /** Returns the analyzer frame rate when the scene is neither active nor idle. */
+    public double getAnalyzerFps(double defaultValue) {
+        return parseDouble(KEY_ANALYZER_FPS, defaultValue);
+    }
+
+    /** Returns the analyzer frame rate once the scene has been static for a while. */
+    public double getAnalyzerFpsIdle(double defaultValue) {
+        return parseDouble(KEY_ANALYZER_FPS_IDLE, defaultValue);
+    }
+
+    /** Returns the analyzer frame rate while the noise level rises or motion is detected. */
+    public double getAnalyzerFpsActive(double defaultValue) {
+        return parseDouble(KEY_ANALYZER_FPS_ACTIVE, defaultValue);
+    }
+
+    /** Returns the number of seconds without noise after which the analyzer is idle. */
+    public double getAnalyzerIdleSec(double defaultValue) {
+        return parseDouble(KEY_ANALYZER_IDLE_SEC, defaultValue);
+    }
+
+    /** Returns the budget of all analyzers compute time, as a percentage of one CPU core. */
+    public double getAnalyzerBudgetPct(double defaultValue) {
+        return parseDouble(KEY_ANALYZER_BUDGET_PCT, defaultValue);
+    }
+
+    /** Returns the budget of the process CPU load, as a percentage of all CPU cores. */
+    public double getCpuBudgetPct(double defaultValue) {
+        return parseDouble(KEY_CPU_BUDGET_PCT, defaultValue);
+    }
+
+    private double parseDouble(@Nonnull String key, double defaultValue) {
+        String value = mProps.getProperty(key, "").trim();
+        if (!Strings.isNullOrEmpty(value)) {
+            try {
+                return Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                mLogger.log(TAG, "Failed to parse value '" + value + "' for '" + key + "'");
+            }
+        }
+        return defaultValue;
+    }
+
     /** Returns the playlist_id or empty string if missing. */
     @Nonnull
     public String getPlaylistId() {
@@ -139,6 +200,19 @@ public class ConfigIni {
         return mProps.getProperty(KEY_PlAYLIST_DIR, "");
     }
 
+    /** Returns the number of recent videos not to repeat when shuffling, or the default value. */
+    public int getPlaylistNoRepeat(int defaultValue) {
+        String value = mProps.getProperty(KEY_PLAYLIST_NO_REPEAT, "");
+        if (!Strings.isNullOrEmpty(value)) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                mLogger.log(TAG, "Failed to parse value '" + value + "' for '" + KEY_PLAYLIST_NO_REPEAT + "'");
+            }
+        }
+        return defaultValue;
+    }
+
     /** Returns the volume percentage or the default value. */
     public int getVolumePct(int defaultValue) {
         String volPct = mProps.getProperty(KEY_VOLUME_PERCENT, "");
@@ -175,6 +249,49 @@ public class ConfigIni {
         return mProps.getProperty(KEY_DISPLAY_SCRIPT, "").trim();
     }
 
+    /** Returns the status server port, 0 for any free port, or -1 when the server is disabled. */
+    public int getStatusPort() {
+        return parsePort(KEY_STATUS_PORT);
+    }
+
+    /** Returns the preview server port, 0 for any free port, or -1 when the server is disabled. */
+    public int getPreviewPort() {
+        return parsePort(KEY_PREVIEW_PORT);
+    }
+
+    private int parsePort(@Nonnull String key) {
+        String value = mProps.getProperty(key, "").trim();
+        if (!Strings.isNullOrEmpty(value)) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                mLogger.log(TAG, "Failed to parse value '" + value + "' for '" + key + "'");
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the address the status and preview servers listen on. Defaults to the loopback address. */
+    @Nonnull
+    public String getStatusHost() {
+        return mProps.getProperty(KEY_STATUS_HOST, "127.0.0.1").trim();
+    }
+
+    /** Returns the path of the log file, or an empty string to not log to a file. */
+    @Nonnull
+    public String getLogFile() {
+        return mProps.getProperty(KEY_LOG_FILE, "").trim();
+    }
+
+    public boolean getLogStdout() {
+        return Boolean.parseBoolean(mProps.getProperty(KEY_LOG_STDOUT, "true").trim());
+    }
+
+    /** Whether the thread loops should run on virtual threads, when available. Defaults to true. */
+    public boolean getVirtualThreads() {
+        return Boolean.parseBoolean(mProps.getProperty(KEY_VIRTUAL_THREADS, "true").trim());
+    }
+
     /** Returns the display off <em>local</em> time, if the value can be parsed. */
     @Nonnull
     public Optional<LocalTime> getDisplayOffTime() {
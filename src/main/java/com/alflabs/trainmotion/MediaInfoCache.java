@@ -0,0 +1,395 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion;
+
+import com.alflabs.trainmotion.util.ILogger;
+import com.alflabs.trainmotion.util.IStartStop;
+import com.alflabs.utils.FileOps;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.FrameGrabber;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_get_name;
+
+/**
+ * Persistent cache of the playlist media metadata (duration, dimensions, codec, loudness).
+ * <p/>
+ * The cache is stored as JSON in the playlist directory and is reused across restarts.
+ * Each entry is keyed by the file name and is only valid if the file size and last modified
+ * time still match. These are checked when {@link #start()} or {@link #update(List)} is called,
+ * which both run off the UI thread: stale entries are dropped, and missing entries are probed
+ * in the background by a small pool of threads. {@link #get(File)} is then a plain lookup, and
+ * the playback never waits for the file system nor for the probing.
+ */
+@Singleton
+public class MediaInfoCache implements IStartStop {
+    private static final String TAG = MediaInfoCache.class.getSimpleName();
+    static final String CACHE = "_media_cache.json";
+
+    /** Only measure the loudness on the first N seconds of audio. */
+    private static final int LOUDNESS_SAMPLE_SEC = 60;
+    /** Loudness value for silence or when the media has no audio. */
+    public static final double LOUDNESS_NONE = -100;
+
+    private final ILogger mLogger;
+    private final FileOps mFileOps;
+    private final ObjectMapper mJsonMapper;
+    private final Map<String, MediaInfo> mInfos = new ConcurrentHashMap<>();
+    private final List<File> mFiles = new ArrayList<>();
+    private final AtomicBoolean mDirty = new AtomicBoolean();
+    private File mCacheFile;
+    private ExecutorService mProbeExecutor;
+    private volatile boolean mStarted;
+
+    @Inject
+    public MediaInfoCache(
+            ILogger logger,
+            FileOps fileOps,
+            ObjectMapper jsonMapper) {
+        mLogger = logger;
+        mFileOps = fileOps;
+        mJsonMapper = jsonMapper;
+    }
+
+    /** Loads the cache for the given playlist directory. Does not probe anything yet. */
+    public void initialize(@Nonnull File playlistDir, @Nonnull List<File> files) {
+        mCacheFile = new File(playlistDir, CACHE);
+        mFiles.clear();
+        mFiles.addAll(files);
+        mInfos.clear();
+        if (mFileOps.isFile(mCacheFile)) {
+            try {
+                byte[] content = mFileOps.readBytes(mCacheFile);
+                TypeReference<TreeMap<String, MediaInfo>> mapTypeRef =
+                        new TypeReference<TreeMap<String, MediaInfo>>() { };
+                mInfos.putAll(mJsonMapper.readValue(content, mapTypeRef));
+                mLogger.log(TAG, "Loaded " + mInfos.size() + " entries from " + mCacheFile.getAbsolutePath());
+            } catch (IOException e) {
+                mLogger.log(TAG, "Invalid media cache, ignoring: " + mCacheFile.getAbsolutePath());
+            }
+        }
+    }
+
+    /** Probes all the missing or stale entries in the background. */
+    @Override
+    public void start() {
+        mStarted = true;
+        probeMissing();
+    }
+
+    /**
+     * Replaces the list of files tracked by the cache, e.g. when the playlist index is reloaded,
+     * and probes any new or stale entries in the background if the cache has been started.
+     */
+    public void update(@Nonnull List<File> files) {
+        synchronized (mFiles) {
+            mFiles.clear();
+            mFiles.addAll(files);
+        }
+        if (mStarted) {
+            probeMissing();
+        }
+    }
+
+    private synchronized void probeMissing() {
+        List<File> toProbe = new ArrayList<>();
+        int numFiles;
+        synchronized (mFiles) {
+            numFiles = mFiles.size();
+            for (File file : mFiles) {
+                MediaInfo info = mInfos.get(file.getName());
+                if (info == null || !info.matches(mFileOps, file)) {
+                    mInfos.remove(file.getName());
+                    toProbe.add(file);
+                }
+            }
+        }
+        if (toProbe.isEmpty()) {
+            mLogger.log(TAG, "All " + numFiles + " entries are up to date");
+            return;
+        }
+
+        if (mProbeExecutor == null) {
+            mProbeExecutor = createProbeExecutor();
+        }
+        mLogger.log(TAG, "Probing " + toProbe.size() + " files");
+        AtomicInteger remaining = new AtomicInteger(toProbe.size());
+        for (File file : toProbe) {
+            mProbeExecutor.execute(() -> {
+                MediaInfo info = probe(file);
+                if (info != null) {
+                    mInfos.put(file.getName(), info);
+                    mDirty.set(true);
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    mLogger.log(TAG, "Probing done");
+                    save();
+                }
+            });
+        }
+    }
+
+    @VisibleForTesting
+    @Nonnull
+    ExecutorService createProbeExecutor() {
+        int numThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(numThreads, r -> {
+            Thread t = new Thread(r, "Thread-MediaProbe-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+    }
+
+    @Override
+    public void stop() throws Exception {
+        ExecutorService executor;
+        synchronized (this) {
+            mStarted = false;
+            executor = mProbeExecutor;
+            mProbeExecutor = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        save();
+    }
+
+    /**
+     * Returns the media info for the given file, if known and valid as of the last check.
+     * This does not access the file system and can be used on the UI thread.
+     */
+    @Nonnull
+    public Optional<MediaInfo> get(@Nonnull File file) {
+        return Optional.ofNullable(mInfos.get(file.getName()));
+    }
+
+    private synchronized void save() {
+        if (mCacheFile == null || !mDirty.getAndSet(false)) {
+            return;
+        }
+        try {
+            byte[] content = mJsonMapper.writeValueAsBytes(new TreeMap<>(mInfos));
+            mFileOps.writeBytes(content, mCacheFile);
+            mLogger.log(TAG, "Saved " + mInfos.size() + " entries to " + mCacheFile.getAbsolutePath());
+        } catch (IOException e) {
+            mLogger.log(TAG, "Failed to save media cache: " + e);
+        }
+    }
+
+    /**
+     * Must be executed in a background thread.
+     * <p/>
+     * Returns null if the probe could not complete for reasons unrelated to the media itself,
+     * e.g. the natives failed to load or the probe was interrupted. Such files are not cached
+     * and are probed again on the next pass, whereas a media that FFmpeg cannot open or decode
+     * is cached as not decodable until the file changes.
+     */
+    @Nullable
+    private MediaInfo probe(@Nonnull File file) {
+        MediaInfo info = new MediaInfo(mFileOps.length(file), mFileOps.lastModified(file));
+        FFmpegFrameGrabber grabber = null;
+        try {
+            grabber = createGrabber(file);
+            grabber.start();
+            info.durationMs = grabber.getLengthInTime() / 1000;
+            info.width = grabber.getImageWidth();
+            info.height = grabber.getImageHeight();
+            info.codec = avcodec_get_name(grabber.getVideoCodec()).getString();
+
+            // A media is only considered playable if we can decode at least one image.
+            Frame image = grabber.grabImage();
+            info.decodable = image != null && image.image != null;
+
+            info.loudness = measureLoudness(grabber);
+            grabber.stop();
+            mLogger.log(TAG, "Probed " + file.getName() + ": " + info);
+        } catch (FrameGrabber.Exception e) {
+            if (Thread.currentThread().isInterrupted()) {
+                mLogger.log(TAG, "Interrupted probing " + file.getName());
+                return null;
+            }
+            // FFmpeg could not open or read the media: it stays not decodable unless an image
+            // was already decoded, until the file changes.
+            mLogger.log(TAG, "Failed to decode " + file.getName() + ": " + e);
+        } catch (Throwable t) {
+            mLogger.log(TAG, "Failed to probe " + file.getName() + ", will retry: " + t);
+            return null;
+        } finally {
+            if (grabber != null) {
+                try {
+                    grabber.release();
+                } catch (Exception ignore) {}
+            }
+        }
+        return info;
+    }
+
+    @VisibleForTesting
+    @Nonnull
+    FFmpegFrameGrabber createGrabber(@Nonnull File file) throws FrameGrabber.Exception {
+        return new FFmpegFrameGrabber(file);
+    }
+
+    /** Returns the RMS level of the first seconds of audio, in dBFS. */
+    private double measureLoudness(@Nonnull FFmpegFrameGrabber grabber) throws Exception {
+        double sumSquares = 0;
+        long count = 0;
+        long maxCount = -1;
+        Frame frame;
+        while ((frame = grabber.grabSamples()) != null) {
+            if (frame.samples == null || frame.samples.length == 0) continue;
+            if (maxCount < 0) {
+                maxCount = (long) LOUDNESS_SAMPLE_SEC * frame.sampleRate * Math.max(1, frame.audioChannels);
+            }
+            // Only look at the first plane; for planar formats that's the first channel.
+            Buffer buffer = frame.samples[0];
+            if (buffer instanceof ShortBuffer) {
+                ShortBuffer sb = (ShortBuffer) buffer;
+                for (int i = sb.position(), n = sb.limit(); i < n; i++) {
+                    double v = sb.get(i) / 32768.0;
+                    sumSquares += v * v;
+                }
+                count += sb.remaining();
+            } else if (buffer instanceof FloatBuffer) {
+                FloatBuffer fb = (FloatBuffer) buffer;
+                for (int i = fb.position(), n = fb.limit(); i < n; i++) {
+                    double v = fb.get(i);
+                    sumSquares += v * v;
+                }
+                count += fb.remaining();
+            }
+            if (count >= maxCount) {
+                break;
+            }
+        }
+        if (count == 0 || sumSquares == 0) {
+            return LOUDNESS_NONE;
+        }
+        return Math.max(LOUDNESS_NONE, 10 * Math.log10(sumSquares / count));
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class MediaInfo {
+        /** File size in bytes, used to validate the cache entry. */
+        private long size;                  // JSON field name
+        /** File last modified timestamp in ms, used to validate the cache entry. */
+        private long mtime;                 // JSON field name
+        /** Media duration in milliseconds. 0 if unknown. */
+        private long durationMs;            // JSON field name
+        /** Video width in pixels. 0 if unknown. */
+        private int width;                  // JSON field name
+        /** Video height in pixels. 0 if unknown. */
+        private int height;                 // JSON field name
+        /** Video codec name. Empty if unknown. */
+        private String codec = "";          // JSON field name
+        /** RMS loudness of the audio in dBFS. {@link #LOUDNESS_NONE} if unknown or silent. */
+        private double loudness = LOUDNESS_NONE; // JSON field name
+        /** Whether at least one video frame could be decoded. */
+        private boolean decodable;          // JSON field name
+
+        @SuppressWarnings("unused")
+        public MediaInfo() {}               // JSON constructor
+
+        public MediaInfo(long size, long mtime) {
+            this.size = size;
+            this.mtime = mtime;
+        }
+
+        boolean matches(@Nonnull FileOps fileOps, @Nonnull File file) {
+            return size == fileOps.length(file) && mtime == fileOps.lastModified(file);
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getMtime() {
+            return mtime;
+        }
+
+        /** Media duration in milliseconds. 0 if unknown. */
+        public long getDurationMs() {
+            return durationMs;
+        }
+
+        /** Video width in pixels. 0 if unknown. */
+        public int getWidth() {
+            return width;
+        }
+
+        /** Video height in pixels. 0 if unknown. */
+        public int getHeight() {
+            return height;
+        }
+
+        /** Video codec name. Empty if unknown. */
+        public String getCodec() {
+            return codec;
+        }
+
+        /** RMS loudness of the audio in dBFS. {@link #LOUDNESS_NONE} if unknown or silent. */
+        public double getLoudness() {
+            return loudness;
+        }
+
+        /** Whether at least one video frame could be decoded. */
+        public boolean isDecodable() {
+            return decodable;
+        }
+
+        @Override
+        public String toString() {
+            return "MediaInfo{" +
+                    durationMs + " ms, " +
+                    width + "x" + height +
+                    ", " + codec +
+                    ", " + String.format("%.1f dB", loudness) +
+                    (decodable ? "" : ", not decodable") +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion;
+
+import com.alflabs.trainmotion.util.ILogger;
+import com.alflabs.utils.IClock;
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.global.opencv_imgproc;
+import org.bytedeco.opencv.global.opencv_video;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Loads the OpenCV native libraries ahead of their first use.
+ * <p/>
+ * Otherwise OpenCV is loaded when the camera analyzers start. Right after a reboot, reading
+ * these libraries from disk takes a while, which this does in the background while the kiosk
+ * window is being created. Loading is idempotent, so the analyzers simply find the libraries
+ * already loaded.
+ * <p/>
+ * libvlc is not preloaded: the kiosk window creates all the players, so it is the first user
+ * and preloading would only initialize a second libvlc instance concurrently.
+ * <p/>
+ * Failures are only logged: the actual use will report them if they are real.
+ */
+@Singleton
+public class NativePreloader {
+    private static final String TAG = NativePreloader.class.getSimpleName();
+
+    private final ILogger mLogger;
+    private final IClock mClock;
+
+    @Inject
+    public NativePreloader(ILogger logger, IClock clock) {
+        mLogger = logger;
+        mClock = clock;
+    }
+
+    public void preloadOpenCV() {
+        long startTS = mClock.elapsedRealtime();
+        try {
+            Loader.load(opencv_core.class);
+            Loader.load(opencv_imgproc.class);
+            Loader.load(opencv_video.class);
+            mLogger.log(TAG, "OpenCV loaded in " + (mClock.elapsedRealtime() - startTS) + " ms");
+        } catch (Throwable t) {
+            mLogger.log(TAG, "OpenCV preload failed: " + t);
+        }
+    }
+}
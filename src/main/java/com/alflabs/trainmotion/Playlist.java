@@ -21,6 +21,7 @@ package com.alflabs.trainmotion;
 import com.alflabs.trainmotion.util.ILogger;
 import com.alflabs.utils.FileOps;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
@@ -28,6 +29,7 @@ import com.google.common.io.ByteSource;
 import com.google.common.io.LineProcessor;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.io.File;
@@ -35,11 +37,13 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Random;
+import java.util.Set;
 import java.util.TreeMap;
 
 /**
@@ -47,6 +51,10 @@ import java.util.TreeMap;
  * <p/>
  * WARNING: Do NOT invoke the getters from dagger constructors! It's too early and the playlist
  * has not been parsed yet.
+ * <p/>
+ * The playlist can be reloaded at runtime via {@link #reload()}, which is called by the
+ * {@link PlaylistWatcher} when the index or the properties change. All accessors are thus
+ * synchronized.
  */
 @Singleton
 public class Playlist {
@@ -54,36 +62,125 @@ public class Playlist {
     static final String INDEX = "_index.txt";
     static final String PROPS = "_props.json";
 
+    /** Caps the number of times a video can appear in one deck. */
+    private static final int MAX_WEIGHT = 10;
+    /** How many deck entries to look at to find a video outside of the no-repeat window. */
+    private static final int NO_REPEAT_MAX_ATTEMPTS = 16;
+
     private final List<File> mVideos = new ArrayList<>();
-    private final List<File> mNext = new ArrayList<>();
+    private final Map<File, Integer> mVideoIndex = new HashMap<>();
     private final FilesProperties mProps = new FilesProperties();
     private final ILogger mLogger;
     private final FileOps mFileOps;
     private final Random mRandom;
     private final ObjectMapper mJsonMapper;
+    private final MediaInfoCache mMediaInfoCache;
 
     private File mPlaylistDir;
     private boolean mShuffle;
+    private int mNoRepeatWindow;
+
+    /**
+     * The deck of indices in mVideos still to be played is mDeck[mDeckStart, mDeckEnd).
+     * In order mode, videos are drawn from the start. In shuffle mode, a random entry is swapped
+     * with the last one and drawn from the end, which is an incremental Fisher-Yates shuffle.
+     * Either way each draw is O(1) and the deck is only refilled once it is empty.
+     */
+    private int[] mDeck = new int[0];
+    private int mDeckStart;
+    private int mDeckEnd;
+    /** Number of distinct videos in a full deck, i.e. videos with a non-zero weight. */
+    private int mDeckVideos;
+    /** The draw number when each video in mVideos was last returned, or 0 if never. */
+    private int[] mLastDraw = new int[0];
+    private int mDrawCount;
 
     @Inject
     public Playlist(
             ILogger logger,
             FileOps fileOps,
             Random random,
-            ObjectMapper jsonMapper) {
+            ObjectMapper jsonMapper,
+            MediaInfoCache mediaInfoCache) {
         mLogger = logger;
         mFileOps = fileOps;
         mRandom = random;
         mJsonMapper = jsonMapper;
+        mMediaInfoCache = mediaInfoCache;
     }
 
     public void initialize(@Nonnull String playlistDir) throws IOException {
         mPlaylistDir = new File(playlistDir);
         mVideos.addAll(readIndexFile());
         mProps.addAll(readPropertiesFile());
+        indexVideos();
+        mMediaInfoCache.initialize(mPlaylistDir, mVideos);
         mLogger.log(TAG, "Found " + mVideos.size() + " videos");
     }
 
+    @Nonnull
+    public File getPlaylistDir() {
+        return mPlaylistDir;
+    }
+
+    /**
+     * Re-reads the index and the properties and applies the difference to the current playlist.
+     * <p/>
+     * The files are read and validated by the caller's thread, which must not be the UI thread.
+     * The list lock is only held to apply the difference: removed videos are dropped from the
+     * current deck, new videos are added to it, and the order of the pending videos is otherwise
+     * preserved. The video currently playing is not affected.
+     */
+    public void reload() throws IOException {
+        List<File> videos = readIndexFile();
+        TreeMap<String, FileProperties> props = readPropertiesFile();
+
+        List<File> added = new ArrayList<>();
+        int removed;
+        synchronized (this) {
+            Set<File> newVideos = new HashSet<>(videos);
+            for (File video : videos) {
+                if (!mVideoIndex.containsKey(video)) {
+                    added.add(video);
+                }
+            }
+            removed = mVideoIndex.size() - (newVideos.size() - added.size());
+
+            // Collect the pending videos before the indices change.
+            List<File> pending = new ArrayList<>(mDeckEnd - mDeckStart + added.size());
+            for (int i = mDeckStart; i < mDeckEnd; i++) {
+                File video = mVideos.get(mDeck[i]);
+                if (newVideos.contains(video)) {
+                    pending.add(video);
+                }
+            }
+            pending.addAll(added);
+            Map<File, Integer> lastDraws = new HashMap<>();
+            for (int i = 0; i < mVideos.size(); i++) {
+                lastDraws.put(mVideos.get(i), mLastDraw[i]);
+            }
+
+            mVideos.clear();
+            mVideos.addAll(videos);
+            mProps.replaceAll(props);
+            indexVideos();
+
+            for (int i = 0; i < mVideos.size(); i++) {
+                mLastDraw[i] = lastDraws.getOrDefault(mVideos.get(i), 0);
+            }
+            mDeck = new int[Math.max(mDeck.length, pending.size())];
+            mDeckStart = 0;
+            mDeckEnd = 0;
+            for (File video : pending) {
+                mDeck[mDeckEnd++] = mVideoIndex.get(video);
+            }
+        }
+
+        mMediaInfoCache.update(videos);
+        mLogger.log(TAG, "Reloaded " + videos.size() + " videos: "
+                + added.size() + " added, " + removed + " removed");
+    }
+
     @Nonnull
     private List<File> readIndexFile() throws IOException {
         List<File> videos = new ArrayList<>();
@@ -142,33 +239,142 @@ public class Playlist {
         return new TreeMap<>();
     }
 
-    public void setShuffle(boolean shuffle) {
+    public synchronized void setShuffle(boolean shuffle) {
         mShuffle = shuffle;
     }
 
-    public boolean isShuffle() {
+    public synchronized boolean isShuffle() {
         return mShuffle;
     }
 
+    /**
+     * In shuffle mode, avoids playing again any of the last N videos, including across reshuffles.
+     * The window is reduced as needed for small playlists. 0 to disable.
+     */
+    public synchronized void setNoRepeatWindow(int noRepeatWindow) {
+        mNoRepeatWindow = Math.max(0, noRepeatWindow);
+    }
+
+    /**
+     * Returns the next video to play.
+     * Videos that the media cache knows cannot be decoded are skipped.
+     */
     @Nonnull
-    public Optional<File> getNext() {
-        if (mNext.isEmpty()) {
-            mNext.addAll(mVideos);
+    public synchronized Optional<File> getNext() {
+        // Try at most once per deck entry, in case they are all invalid.
+        for (int attempts = Math.max(mVideos.size(), mDeck.length); attempts >= 0; attempts--) {
+            if (mDeckStart == mDeckEnd) {
+                refillDeck();
+            }
+
+            if (mDeckStart == mDeckEnd) {
+                return Optional.empty();
+            }
+
+            int index = mShuffle ? drawShuffled() : mDeck[mDeckStart++];
+            File next = mVideos.get(index);
+            Optional<MediaInfoCache.MediaInfo> info = mMediaInfoCache.get(next);
+            if (info.isPresent() && !info.get().isDecodable()) {
+                mLogger.log(TAG, "Skip non-decodable video: " + next.getName());
+                continue;
+            }
+            mLastDraw[index] = ++mDrawCount;
+            return Optional.of(next);
         }
+        return Optional.empty();
+    }
 
-        if (mNext.isEmpty()) {
-            return Optional.empty();
+    /**
+     * Draws a random entry from the deck. If the no-repeat window is enabled and the video is
+     * one of the last ones played, that entry is set aside (it stays in the deck) and another
+     * one is drawn at random among the remaining entries, so that all the other entries remain
+     * equally likely.
+     */
+    private int drawShuffled() {
+        int size = mDeckEnd - mDeckStart;
+        int j = mRandom.nextInt(size);
+        int window = Math.min(mNoRepeatWindow, mDeckVideos - 1);
+        if (window > 0) {
+            for (int n = NO_REPEAT_MAX_ATTEMPTS; n > 0 && size > 1; n--) {
+                int lastDraw = mLastDraw[mDeck[mDeckStart + j]];
+                if (lastDraw == 0 || mDrawCount - lastDraw >= window) {
+                    break;
+                }
+                // Move the rejected entry after the candidates and draw again among them.
+                size--;
+                int rejected = mDeck[mDeckStart + j];
+                mDeck[mDeckStart + j] = mDeck[mDeckStart + size];
+                mDeck[mDeckStart + size] = rejected;
+                j = mRandom.nextInt(size);
+            }
+        }
+
+        int last = mDeckEnd - 1;
+        int index = mDeck[mDeckStart + j];
+        mDeck[mDeckStart + j] = mDeck[last];
+        mDeck[last] = index;
+        mDeckEnd = last;
+        return index;
+    }
+
+    /**
+     * Refills the deck in playlist order. In shuffle mode, each video is repeated according to
+     * its weight. In order mode, weights only skip the videos with a zero weight: repeating
+     * the others would play them several times in a row.
+     */
+    private void refillDeck() {
+        int size = 0;
+        int videos = 0;
+        int numVideos = mVideos.size();
+        int[] weights = new int[numVideos];
+        for (int i = 0; i < numVideos; i++) {
+            int weight = mProps.get(mVideos.get(i)).map(FileProperties::getWeight).orElse(1);
+            weight = Math.max(0, Math.min(mShuffle ? MAX_WEIGHT : 1, weight));
+            weights[i] = weight;
+            size += weight;
+            if (weight > 0) {
+                videos++;
+            }
         }
 
-        int index = 0;
-        if (mShuffle) {
-            index = mRandom.nextInt(mNext.size());
+        if (mDeck.length < size) {
+            mDeck = new int[size];
         }
-        return Optional.of(mNext.remove(index));
+        int k = 0;
+        for (int i = 0; i < numVideos; i++) {
+            for (int w = weights[i]; w > 0; w--) {
+                mDeck[k++] = i;
+            }
+        }
+        mDeckStart = 0;
+        mDeckEnd = k;
+        mDeckVideos = videos;
+    }
+
+    /** Rebuilds the file-to-index map after mVideos changed. */
+    private void indexVideos() {
+        mVideoIndex.clear();
+        for (int i = 0; i < mVideos.size(); i++) {
+            mVideoIndex.put(mVideos.get(i), i);
+        }
+        if (mLastDraw.length != mVideos.size()) {
+            mLastDraw = new int[mVideos.size()];
+        }
+    }
+
+    /** Returns true if the video is still part of the playlist. */
+    public synchronized boolean contains(@Nonnull File file) {
+        return mVideoIndex.containsKey(file);
+    }
+
+    /** Returns the cached media info for the given video, if it has been probed. */
+    @Nonnull
+    public Optional<MediaInfoCache.MediaInfo> getMediaInfo(@Nonnull File file) {
+        return mMediaInfoCache.get(file);
     }
 
     @Nonnull
-    public Optional<FileProperties> getProperties(@Nonnull File file) {
+    public synchronized Optional<FileProperties> getProperties(@Nonnull File file) {
         return mProps.get(file);
     }
 
@@ -187,6 +393,11 @@ public class Playlist {
             }
         }
 
+        public void replaceAll(Map<String, FileProperties> props) {
+            mProperties.clear();
+            addAll(props);
+        }
+
         public Optional<FileProperties> get(@Nonnull File file) {
             String name = file.getName().trim().toLowerCase(Locale.US);
             FileProperties property = mProperties.get(name);
@@ -204,6 +415,13 @@ public class Playlist {
         private int seconds = -1;           // JSON field name
         /** Volume override for video, in 0-100 percentage. -1 to use the default. */
         private int volume  = -1;           // JSON field name
+        /** Number of seconds to skip at the beginning of the video. 0 if unspecified. */
+        @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+        private int start   = 0;            // JSON field name
+        /** How many times the video appears in each shuffled deck. 0 to never play it. Null means 1. */
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        @Nullable
+        private Integer weight;             // JSON field name
 
         @SuppressWarnings("unused")
         public FileProperties() {}          // JSON constructor
@@ -213,6 +431,12 @@ public class Playlist {
             this.volume = volume;
         }
 
+        public FileProperties(int seconds, int volume, int start) {
+            this.seconds = seconds;
+            this.volume = volume;
+            this.start = start;
+        }
+
         /** Number of seconds to play before switching to the next video. -1 if unspecified. */
         public int getSeconds() {
             return seconds;
@@ -222,5 +446,19 @@ public class Playlist {
         public int getVolume() {
             return volume;
         }
+
+        /** Number of seconds to skip at the beginning of the video. 0 if unspecified. */
+        public int getStart() {
+            return start;
+        }
+
+        /**
+         * How many times the video appears in each shuffled deck. 0 to never play it.
+         * Null if unspecified, which plays it once per deck.
+         */
+        @Nullable
+        public Integer getWeight() {
+            return weight;
+        }
     }
 }
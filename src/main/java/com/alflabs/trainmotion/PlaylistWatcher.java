@@ -0,0 +1,173 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion;
+
+import com.alflabs.trainmotion.util.ILogger;
+import com.alflabs.trainmotion.util.ThreadLoop;
+import com.alflabs.trainmotion.util.ThreadLoopRuntime;
+import com.alflabs.utils.IClock;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Watches the playlist directory and reloads the {@link Playlist} when it changes.
+ * <p/>
+ * The sync script rewrites the index and downloads videos in several steps, so changes are
+ * debounced: the playlist is reloaded once the directory has been quiet for {@link #DEBOUNCE_MS},
+ * or at the latest {@link #DEBOUNCE_MAX_MS} after the first change. The reload happens on this
+ * thread and never blocks the UI.
+ */
+@Singleton
+public class PlaylistWatcher extends ThreadLoop {
+    private static final String TAG = PlaylistWatcher.class.getSimpleName();
+
+    private static final long DEBOUNCE_MS = 2000;
+    private static final long DEBOUNCE_MAX_MS = 30 * 1000;
+
+    private final ILogger mLogger;
+    private final IClock mClock;
+    private final Playlist mPlaylist;
+
+    private volatile WatchService mWatchService;
+    /** Time of the first change not reloaded yet, or 0 when there is none. */
+    private long mFirstChangeTS;
+    /** Time at which to reload the playlist, or 0 when there are no pending changes. */
+    private long mReloadTS;
+
+    @Inject
+    public PlaylistWatcher(
+            ILogger logger,
+            IClock clock,
+            Playlist playlist,
+            ThreadLoopRuntime runtime) {
+        super(runtime);
+        mLogger = logger;
+        mClock = clock;
+        mPlaylist = playlist;
+    }
+
+    @Override
+    public void start() throws Exception {
+        Path dir = mPlaylist.getPlaylistDir().toPath();
+        try {
+            mWatchService = dir.getFileSystem().newWatchService();
+            dir.register(mWatchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+        } catch (IOException | UnsupportedOperationException e) {
+            mLogger.log(TAG, "Cannot watch playlist directory " + dir + ": " + e);
+            closeWatchService();
+            return;
+        }
+        mLogger.log(TAG, "Watching " + dir);
+        super.start("Thread-PlaylistWatcher");
+    }
+
+    @Override
+    public void stop() throws Exception {
+        // Closing the service wakes up a blocked take().
+        closeWatchService();
+        super.stop();
+    }
+
+    private void closeWatchService() {
+        WatchService service = mWatchService;
+        mWatchService = null;
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException ignore) {}
+        }
+    }
+
+    @Override
+    protected long getStuckTimeoutMs() {
+        // Each iteration waits for a file change without any timeout.
+        return 0;
+    }
+
+    @Override
+    protected void _runInThreadLoop() throws EndLoopException {
+        WatchService service = mWatchService;
+        if (service == null) {
+            throw new EndLoopException();
+        }
+
+        WatchKey key;
+        try {
+            if (mReloadTS == 0) {
+                key = service.take();
+            } else {
+                long waitMs = mReloadTS - mClock.elapsedRealtime();
+                key = waitMs > 0 ? service.poll(waitMs, TimeUnit.MILLISECONDS) : null;
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            throw new EndLoopException();
+        }
+
+        if (key != null) {
+            boolean changed = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                changed |= isRelevant(event);
+            }
+            key.reset();
+            if (changed) {
+                long now = mClock.elapsedRealtime();
+                if (mFirstChangeTS == 0) {
+                    mFirstChangeTS = now;
+                }
+                mReloadTS = Math.min(now + DEBOUNCE_MS, mFirstChangeTS + DEBOUNCE_MAX_MS);
+            }
+        }
+
+        if (mReloadTS != 0 && mClock.elapsedRealtime() >= mReloadTS) {
+            mFirstChangeTS = 0;
+            mReloadTS = 0;
+            try {
+                mPlaylist.reload();
+            } catch (IOException e) {
+                mLogger.log(TAG, "Failed to reload playlist: " + e);
+            }
+        }
+    }
+
+    private boolean isRelevant(WatchEvent<?> event) {
+        if (event.kind() == OVERFLOW) {
+            return true;
+        }
+        Object context = event.context();
+        if (!(context instanceof Path)) {
+            return false;
+        }
+        String name = ((Path) context).getFileName().toString();
+        // Ignore our own cache file, otherwise each save would trigger a reload.
+        return !name.equals(MediaInfoCache.CACHE);
+    }
+}
@@ -20,16 +20,22 @@ package com.alflabs.trainmotion;
 
 import com.alflabs.trainmotion.cam.CamConfig;
 import com.alflabs.trainmotion.cam.Cameras;
+import com.alflabs.trainmotion.cam.PreviewServer;
 import com.alflabs.trainmotion.dagger.DaggerITrainMotionComponent;
 import com.alflabs.trainmotion.dagger.ITrainMotionComponent;
 import com.alflabs.trainmotion.display.ConsoleTask;
 import com.alflabs.trainmotion.display.DisplayController;
+import com.alflabs.trainmotion.metrics.JfrRecorder;
+import com.alflabs.trainmotion.metrics.StatusServer;
 import com.alflabs.trainmotion.util.Analytics;
+import com.alflabs.trainmotion.util.AsyncLogger;
 import com.alflabs.trainmotion.util.ILogger;
 import com.alflabs.trainmotion.util.IStartStop;
 import com.alflabs.trainmotion.display.KioskController;
 import com.alflabs.trainmotion.util.KVController;
+import com.alflabs.trainmotion.util.StartupOrchestrator;
 import com.alflabs.trainmotion.util.StatsCollector;
+import com.alflabs.trainmotion.util.ThreadLoopRuntime;
 
 import javax.inject.Inject;
 import java.io.File;
@@ -39,14 +45,24 @@ import java.util.concurrent.CountDownLatch;
 public class TrainMotion {
     private static final String TAG = TrainMotion.class.getSimpleName();
     public static final double MOTION_THRESHOLD = 0.3;
+    private static final long LOG_FLUSH_TIMEOUT_MS = 2000;
 
     private final ITrainMotionComponent mComponent;
 
     @Inject DisplayController mDisplayController;
     @Inject CommandLineArgs mCommandLineArgs;
     @Inject StatsCollector mStatsCollector;
+    @Inject StartupOrchestrator mStartup;
+    @Inject NativePreloader mNativePreloader;
+    @Inject ThreadLoopRuntime mLoopRuntime;
+    @Inject StatusServer mStatusServer;
     @Inject KioskController mKioskDisplay;
     @Inject KVController mKVController;
+    @Inject MediaInfoCache mMediaInfoCache;
+    @Inject PlaylistWatcher mPlaylistWatcher;
+    @Inject JfrRecorder mJfrRecorder;
+    @Inject PreviewServer mPreviewServer;
+    @Inject AsyncLogger mAsyncLogger;
     @Inject ConfigIni mConfigIniReader;
     @Inject ConsoleTask mConsoleTask;
     @Inject Analytics mAnalytics;
@@ -68,6 +84,9 @@ public class TrainMotion {
         mConfigIniReader.initialize(new File(mCommandLineArgs.getStringOption(
                                 CommandLineArgs.OPT_CONFIG_INI,
                                 ConfigIni.DEFAULT_CONFIG_INI)));
+        initializeLogger();
+        initializeJfr();
+        mLoopRuntime.setUseVirtualThreads(mConfigIniReader.getVirtualThreads());
 
         addCamera(1);
         addCamera(2);
@@ -75,6 +94,7 @@ public class TrainMotion {
 
         if (mCameras.count() < 1) {
             mLogger.log(TAG, "ERROR: No camera URLs found in " + mConfigIniReader.getFile());
+            mAsyncLogger.flush(LOG_FLUSH_TIMEOUT_MS);
             System.exit(1);
         }
 
@@ -95,25 +115,39 @@ public class TrainMotion {
         });
 
         try {
-            mAnalytics.setAnalyticsId(mConfigIniReader.getAnalyticsId());
-            mAnalytics.start();
             //noinspection ConstantConditions
-            mPlaylist.initialize(
-                    mCommandLineArgs.getStringOption(CommandLineArgs.OPT_MEDIA_DIR,
-                            mConfigIniReader.getPlaylistDir()) );
-            mConsoleTask.start();
-            mKioskDisplay.start();
-            mStatsCollector.start();
-            mCameras.start();
-            mKioskDisplay.initialize();
-            mKVController.start();
-            mDisplayController.start();
+            final String mediaDir = mCommandLineArgs.getStringOption(CommandLineArgs.OPT_MEDIA_DIR,
+                    mConfigIniReader.getPlaylistDir());
+            // The kiosk window, camera analyzers and players are created on this main thread,
+            // everything else starts in parallel as soon as its dependencies are ready.
+            mStartup.add("natives_opencv", mNativePreloader::preloadOpenCV)
+                    .add("loop_runtime", mLoopRuntime::start)
+                    .add("analytics", () -> {
+                        mAnalytics.setAnalyticsId(mConfigIniReader.getAnalyticsId());
+                        mAnalytics.start();
+                    })
+                    .add("status_server", mStatusServer::start)
+                    .add("playlist", () -> mPlaylist.initialize(mediaDir))
+                    .add("media_cache", mMediaInfoCache::start, "playlist")
+                    .add("playlist_watcher", mPlaylistWatcher::start, "playlist")
+                    .add("console", mConsoleTask::start)
+                    .addOnMain("kiosk_window", mKioskDisplay::start, "console")
+                    .add("stats", mStatsCollector::start)
+                    .addOnMain("cameras", mCameras::start, "natives_opencv")
+                    .add("preview_server", mPreviewServer::start)
+                    .addOnMain("kiosk_players", mKioskDisplay::initialize,
+                            "kiosk_window", "cameras", "playlist", "media_cache", "analytics")
+                    // The kiosk window subscribes to the key changes, which are not replayed.
+                    .add("kv", mKVController::start, "kiosk_window")
+                    .add("display", mDisplayController::start, "kiosk_players", "kv")
+                    .run();
             mAnalytics.sendEvent("Start", "");
             mConsoleTask.consoleWait();
             mAnalytics.sendEvent("Stop", "");
         } catch (Exception e) {
             mLogger.log(TAG, e.toString());
         } finally {
+            safeStop(mPreviewServer);
             safeStop(mCameras);
             safeStop(mDisplayController);
             safeStop(mKVController);
@@ -121,14 +155,48 @@ public class TrainMotion {
             safeStop(mConsoleTask);
             safeStop(mAnalytics);
             safeStop(mStatsCollector);
+            safeStop(mPlaylistWatcher);
+            safeStop(mMediaInfoCache);
+            safeStop(mStatusServer);
+            safeStop(mLoopRuntime);
+            safeStop(mJfrRecorder);
         }
+        mConsoleTask.logMetrics();
 
         mLogger.log(TAG, "Shutdown Hook release");
         shutdownLatch.countDown();
         mLogger.log(TAG, "End");
+        mAsyncLogger.flush(LOG_FLUSH_TIMEOUT_MS);
         System.exit(0);
     }
 
+    private void initializeLogger() {
+        if (mCommandLineArgs.hasOption(CommandLineArgs.OPT_VERBOSE_LOG)) {
+            mAsyncLogger.setLevel(ILogger.Level.DEBUG);
+        }
+        String logFile = mConfigIniReader.getLogFile();
+        mAsyncLogger.setOutputs(
+                mConfigIniReader.getLogStdout(),
+                logFile.isEmpty() ? null : new File(logFile));
+        if (!logFile.isEmpty()) {
+            mLogger.log(TAG, "Logging to " + logFile);
+        }
+    }
+
+    private void initializeJfr() {
+        if (mCommandLineArgs.hasOption(CommandLineArgs.OPT_JFR_PATH)) {
+            //noinspection ConstantConditions
+            mJfrRecorder.setDestination(new File(mCommandLineArgs.getStringOption(
+                    CommandLineArgs.OPT_JFR_PATH,
+                    CommandLineArgs.DEFAULT_JFR_PATH)));
+            try {
+                mJfrRecorder.start();
+            } catch (Exception e) {
+                mLogger.log(TAG, "Failed to start JFR recording: " + e);
+            }
+        }
+    }
+
     private void addCamera(int index) {
         Optional<String> camProp = mConfigIniReader.getCamUrlN(index);
         if (camProp.isPresent()) {
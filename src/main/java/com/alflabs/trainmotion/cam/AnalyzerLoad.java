@@ -0,0 +1,132 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.cam;
+
+import com.alflabs.trainmotion.metrics.Gauge;
+import com.alflabs.trainmotion.metrics.Metrics;
+import com.alflabs.utils.IClock;
+import com.google.common.annotations.VisibleForTesting;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleSupplier;
+
+/**
+ * CPU load of the camera analyzers, shared by all the {@link AnalyzerRate}s.
+ * <p/>
+ * Once per second, this compares the compute time of all analyzers and the process CPU load
+ * to their budget. When either is over budget, all analyzer rates are scaled down by a backoff
+ * factor, which recovers slowly once back under budget. This leaves the CPU to VLC decoding.
+ */
+@Singleton
+public class AnalyzerLoad {
+    private static final long SAMPLE_INTERVAL_MS = 1000;
+    private static final double BACKOFF_DECREASE = 0.8;
+    private static final double BACKOFF_INCREASE = 1.1;
+    private static final double BACKOFF_MIN = 0.2;
+
+    private final IClock mClock;
+    private final DoubleSupplier mProcessCpuLoad;
+    private final Gauge mBackoffGauge;
+    private final Gauge mComputeGauge;
+    private final Gauge mCpuGauge;
+    /** Fraction of one core used by each camera analyzer. */
+    private final Map<Integer, Double> mComputeLoads = new ConcurrentHashMap<>();
+    private volatile double mComputeBudget = 0.5;
+    private volatile double mCpuBudget = 0.8;
+    private volatile double mBackoff = 1;
+    private long mLastSampleMs;
+
+    @Inject
+    public AnalyzerLoad(IClock clock, Metrics metrics) {
+        this(clock, metrics, AnalyzerLoad::getProcessCpuLoad);
+    }
+
+    @VisibleForTesting
+    AnalyzerLoad(IClock clock, Metrics metrics, DoubleSupplier processCpuLoad) {
+        mClock = clock;
+        mProcessCpuLoad = processCpuLoad;
+        mBackoffGauge = metrics.gauge("analyzer.backoff");
+        mComputeGauge = metrics.gauge("analyzer.compute_pct");
+        mCpuGauge = metrics.gauge("process.cpu_pct");
+        mBackoffGauge.set(mBackoff);
+    }
+
+    /**
+     * Sets the budgets as percentages: all analyzers compute time relative to one core,
+     * and the process CPU load relative to all cores.
+     */
+    public void setBudgets(double analyzerBudgetPct, double cpuBudgetPct) {
+        mComputeBudget = analyzerBudgetPct / 100;
+        mCpuBudget = cpuBudgetPct / 100;
+    }
+
+    /** Reports the time it took one analyzer to process a frame, running at the given rate. */
+    public void report(int camIndex, long computeMs, double fps) {
+        mComputeLoads.put(camIndex, computeMs * fps / 1000.0);
+    }
+
+    /** Removes an analyzer which is not running anymore. */
+    public void remove(int camIndex) {
+        mComputeLoads.remove(camIndex);
+    }
+
+    /** Returns the factor, between 0.2 and 1, to apply to the analyzer rates. */
+    public double getBackoff() {
+        sampleIfNeeded();
+        return mBackoff;
+    }
+
+    private synchronized void sampleIfNeeded() {
+        long now = mClock.elapsedRealtime();
+        if (mLastSampleMs > 0 && now - mLastSampleMs < SAMPLE_INTERVAL_MS) {
+            return;
+        }
+        mLastSampleMs = now;
+
+        double compute = 0;
+        for (double load : mComputeLoads.values()) {
+            compute += load;
+        }
+        // Negative when not available on this platform.
+        double cpu = mProcessCpuLoad.getAsDouble();
+
+        if (compute > mComputeBudget || cpu > mCpuBudget) {
+            mBackoff = Math.max(BACKOFF_MIN, mBackoff * BACKOFF_DECREASE);
+        } else {
+            mBackoff = Math.min(1, mBackoff * BACKOFF_INCREASE);
+        }
+
+        mBackoffGauge.set(mBackoff);
+        mComputeGauge.set(100 * compute);
+        mCpuGauge.set(100 * cpu);
+    }
+
+    private static double getProcessCpuLoad() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuLoad();
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.cam;
+
+import com.alflabs.trainmotion.ConfigIni;
+import com.alflabs.utils.IClock;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Adaptive frame rate of one camera analyzer.
+ * <p/>
+ * The analyzer runs at the active rate as soon as the instant noise rises above half the motion
+ * threshold or motion is detected, returns to the normal rate once the noise is low again, and
+ * drops to the idle rate once the scene has been static for a while.
+ * The shared {@link AnalyzerLoad} then scales the rate down when over the CPU budget, but never
+ * below the idle rate.
+ */
+public class AnalyzerRate {
+    /** Fraction of the motion threshold above which the noise is considered rising. */
+    private static final double RISE_RATIO = 0.5;
+
+    private static final double FPS_DEFAULT = 5;
+    private static final double FPS_IDLE_DEFAULT = 1.5;
+    private static final double FPS_ACTIVE_DEFAULT = 10;
+    private static final double IDLE_SEC_DEFAULT = 30;
+    private static final double ANALYZER_BUDGET_PCT_DEFAULT = 50;
+    private static final double CPU_BUDGET_PCT_DEFAULT = 80;
+
+    public enum State {
+        IDLE("I"),
+        NORMAL("N"),
+        ACTIVE("A");
+
+        private final String mSymbol;
+
+        State(String symbol) {
+            mSymbol = symbol;
+        }
+
+        /** Short symbol for the status line. */
+        @Nonnull
+        public String getSymbol() {
+            return mSymbol;
+        }
+    }
+
+    private final IClock mClock;
+    private final AnalyzerLoad mLoad;
+    private final int mCamIndex;
+    private final double mRiseThreshold;
+    private final double mFpsNormal;
+    private final double mFpsIdle;
+    private final double mFpsActive;
+    private final long mIdleMs;
+    private State mState = State.NORMAL;
+    private long mLastActiveMs;
+    private double mFps;
+
+    public AnalyzerRate(
+            @Nonnull IClock clock,
+            @Nonnull ConfigIni configIni,
+            @Nonnull AnalyzerLoad load,
+            int camIndex,
+            double motionThreshold) {
+        this(clock,
+                load,
+                camIndex,
+                motionThreshold,
+                configIni.getAnalyzerFps(FPS_DEFAULT),
+                configIni.getAnalyzerFpsIdle(FPS_IDLE_DEFAULT),
+                configIni.getAnalyzerFpsActive(FPS_ACTIVE_DEFAULT),
+                configIni.getAnalyzerIdleSec(IDLE_SEC_DEFAULT));
+        load.setBudgets(
+                configIni.getAnalyzerBudgetPct(ANALYZER_BUDGET_PCT_DEFAULT),
+                configIni.getCpuBudgetPct(CPU_BUDGET_PCT_DEFAULT));
+    }
+
+    AnalyzerRate(
+            @Nonnull IClock clock,
+            @Nonnull AnalyzerLoad load,
+            int camIndex,
+            double motionThreshold,
+            double fpsNormal,
+            double fpsIdle,
+            double fpsActive,
+            double idleSec) {
+        mClock = clock;
+        mLoad = load;
+        mCamIndex = camIndex;
+        mRiseThreshold = motionThreshold * RISE_RATIO;
+        mFpsNormal = fpsNormal;
+        mFpsIdle = Math.min(fpsIdle, fpsNormal);
+        mFpsActive = Math.max(fpsActive, fpsNormal);
+        mIdleMs = (long) (idleSec * 1000);
+        reset();
+    }
+
+    @Nonnull
+    public State getState() {
+        return mState;
+    }
+
+    /** Returns the current target frame rate. */
+    public double getFps() {
+        return mFps;
+    }
+
+    /** Restarts in the normal state, e.g. when the analyzer resumes. */
+    public void reset() {
+        mState = State.NORMAL;
+        mLastActiveMs = mClock.elapsedRealtime();
+        mFps = mFpsNormal;
+        mLoad.remove(mCamIndex);
+    }
+
+    /**
+     * Updates the rate after analyzing one frame.
+     *
+     * @param noisePercent The instant noise of the frame, before any averaging.
+     * @param hasMotion Whether motion is detected.
+     * @param computeMs The time it took to analyze the frame.
+     * @return The target frame rate for the next frames.
+     */
+    public double update(double noisePercent, boolean hasMotion, long computeMs) {
+        long now = mClock.elapsedRealtime();
+        mLoad.report(mCamIndex, computeMs, mFps);
+
+        double fps;
+        if (hasMotion || noisePercent >= mRiseThreshold) {
+            mState = State.ACTIVE;
+            mLastActiveMs = now;
+            fps = mFpsActive;
+        } else if (now - mLastActiveMs >= mIdleMs) {
+            mState = State.IDLE;
+            fps = mFpsIdle;
+        } else {
+            mState = State.NORMAL;
+            fps = mFpsNormal;
+        }
+
+        mFps = Math.max(mFpsIdle, fps * mLoad.getBackoff());
+        return mFps;
+    }
+}
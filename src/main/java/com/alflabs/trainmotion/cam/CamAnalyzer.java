@@ -21,14 +21,21 @@ package com.alflabs.trainmotion.cam;
 import com.alflabs.trainmotion.ConfigIni;
 import com.alflabs.trainmotion.display.ConsoleTask;
 import com.alflabs.trainmotion.display.StringInfo;
+import com.alflabs.trainmotion.metrics.Counter;
+import com.alflabs.trainmotion.metrics.Gauge;
+import com.alflabs.trainmotion.metrics.JfrEvents;
+import com.alflabs.trainmotion.metrics.Metrics;
 import com.alflabs.trainmotion.util.FpsMeasurer;
 import com.alflabs.trainmotion.util.FpsMeasurerFactory;
 import com.alflabs.trainmotion.util.ILogger;
 import com.alflabs.trainmotion.util.StatsCollector;
 import com.alflabs.trainmotion.util.ThreadLoop;
+import com.alflabs.trainmotion.util.ThreadLoopRuntime;
 import com.alflabs.utils.IClock;
 import com.google.auto.factory.AutoFactory;
 import com.google.auto.factory.Provided;
+import com.google.common.annotations.VisibleForTesting;
+import org.bytedeco.javacpp.BytePointer;
 import org.bytedeco.javacv.Frame;
 import org.bytedeco.javacv.Java2DFrameConverter;
 import org.bytedeco.javacv.OpenCVFrameConverter;
@@ -41,12 +48,17 @@ import org.bytedeco.opencv.opencv_video.BackgroundSubtractor;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.bytedeco.opencv.global.opencv_core.cvCreateImage;
+import static org.bytedeco.opencv.global.opencv_core.cvReleaseImage;
 import static org.bytedeco.opencv.global.opencv_imgproc.medianBlur;
 import static org.bytedeco.opencv.global.opencv_video.createBackgroundSubtractorMOG2;
 
@@ -67,34 +79,71 @@ public class CamAnalyzer extends ThreadLoop implements IMotionDetector {
     private final ConsoleTask mConsoleTask;
     private final StatsCollector mStatsCollector;
     private final FpsMeasurerFactory mFpsMeasurerFactory;
+    private final AnalyzerLoad mAnalyzerLoad;
+    private final Counter mFramesOffered;
+    private final Counter mFramesDropped;
+    private final Gauge mNoiseGauge;
+    private final Gauge mHighlightedGauge;
+    private final Gauge mTargetFpsGauge;
+    private final PreviewStream mThumbnailPreview;
+    private final PreviewStream mMaskPreview;
     private final String TAG;
 
-    // The analyzer does not need to run at the full input/output feed fps.
-    private static final int ANALYZER_FPS = 5;
     // Delta threshold used to remove spikes
     private static final double NOISE_SPIKE_DELTA_DEFAULT = 10;
+    // Noise average window, the former 10 samples at the normal 5 fps.
+    private static final long NOISE_WINDOW_MS = 2000;
+    // Enough for the noise window at 30 fps.
+    private static final int NOISE_WINDOW_MAX_SAMPLES = 64;
+    // Background model history, the OpenCV default of 500 frames at the normal 5 fps.
+    private static final double HISTORY_SEC = 100;
+    private static final int HISTORY_FRAMES_DEFAULT = 500;
 
 
     private final ILogger mLogger;
     private final CamInfo mCamInfo;
     private final double mMotionThreshold;
     private final AtomicBoolean mMotionDetected = new AtomicBoolean();
-    private final BlockingDeque<Frame> mPlayerFrameQueue = new LinkedBlockingDeque<>(1);
-    private final BlockingDeque<Frame> mMaskFrameQueue = new LinkedBlockingDeque<>(1);
-    private final double[] mNoiseBuffer = new double[10];
+    private final BlockingDeque<TimedFrame> mPlayerFrameQueue = new LinkedBlockingDeque<>(1);
+    /**
+     * Double-buffered mask images. The analyzer fills the back buffer only once the UI has
+     * taken the previously published one, so the buffer the UI is drawing is never written to.
+     */
+    private final BufferedImage[] mMaskImages = new BufferedImage[2];
+    /** The mask published by the analyzer, not taken yet by the UI. */
+    private final AtomicReference<BufferedImage> mMaskReady = new AtomicReference<>();
+    private final NoiseWindow mNoiseWindow = new NoiseWindow(NOISE_WINDOW_MS, NOISE_WINDOW_MAX_SAMPLES);
 
     private OpenCVFrameConverter.ToMat mMatConverter;
     private Java2DFrameConverter mBufImageConverter;
+    /** Separate from mBufImageConverter which is used on the VLC callback thread. */
+    private Java2DFrameConverter mPreviewConverter;
+    /** Mask image encoded for the preview server, owned by the analyzer thread. */
+    private BufferedImage mPreviewMaskImage;
     private BackgroundSubtractor mSubtractor;
     @SuppressWarnings("FieldCanBeLocal") // Must remain scoped as a field to keep allocated
     private IplImage mOutputImage;
+    private BytePointer mOutputData;
     private Mat mOutput;
+    private int mMaskBackIndex;
     private double mLastNoisePercent;
-    private int mNoiseBufferIndex;
+    /** Frames given to the current subtractor, for its learning rate. */
+    private long mSubtractorFrames;
     private double mNoiseSpikeThreshold;
     private double mNoiseAverage;
     private String mKey;
     private FpsMeasurer mFpsMeasurer;
+    /** The analyzer does not need to run at the full input/output feed fps. */
+    private AnalyzerRate mRate;
+    /** Frames decoded before this time are not needed yet by the analyzer. */
+    private volatile long mNextFrameTS;
+    private MotionLatency mLatency;
+    /** Whether the last analyzed frame had motion, to detect the start of a motion. */
+    private boolean mLastHasMotion;
+    /** When the analyzer was last unparked, or 0. */
+    private volatile long mUnparkTS;
+    /** Time between the last unpark and the first analyzed frame, or -1 if not known yet. */
+    private volatile long mWarmUpMs = -1;
 
     CamAnalyzer(
             @Provided IClock clock,
@@ -103,16 +152,29 @@ public class CamAnalyzer extends ThreadLoop implements IMotionDetector {
             @Provided ConsoleTask consoleTask,
             @Provided StatsCollector statsCollector,
             @Provided FpsMeasurerFactory fpsMeasurerFactory,
+            @Provided AnalyzerLoad analyzerLoad,
+            @Provided Metrics metrics,
+            @Provided PreviewServer previewServer,
+            @Provided ThreadLoopRuntime runtime,
             CamInfo camInfo) {
+        super(runtime);
         mClock = clock;
         mConfigIni = configIni;
         mConsoleTask = consoleTask;
         mStatsCollector = statsCollector;
         mFpsMeasurerFactory = fpsMeasurerFactory;
+        mAnalyzerLoad = analyzerLoad;
         TAG = "CamAn-" + camInfo.getIndex();
         mLogger = logger;
         mCamInfo = camInfo;
         mMotionThreshold = camInfo.getConfig().getMotionThreshold();
+        mFramesOffered = metrics.counter("cam" + camInfo.getIndex() + ".analyzer.frames_offered");
+        mFramesDropped = metrics.counter("cam" + camInfo.getIndex() + ".analyzer.frames_dropped");
+        mNoiseGauge = metrics.gauge("cam" + camInfo.getIndex() + ".analyzer.noise_pct");
+        mHighlightedGauge = metrics.gauge("cam" + camInfo.getIndex() + ".highlighted");
+        mTargetFpsGauge = metrics.gauge("cam" + camInfo.getIndex() + ".analyzer.target_fps");
+        mThumbnailPreview = previewServer.getStream("cam" + camInfo.getIndex() + "/thumbnail");
+        mMaskPreview = previewServer.getStream("cam" + camInfo.getIndex() + "/mask");
     }
 
     @Override
@@ -120,22 +182,45 @@ public class CamAnalyzer extends ThreadLoop implements IMotionDetector {
         return mMotionDetected.getAndSet(false);
     }
 
+    @Override
+    public void onHighlightChanged(boolean highlighted) {
+        mHighlightedGauge.set(highlighted ? 1 : 0);
+        JfrEvents.HighlightChanged event = new JfrEvents.HighlightChanged();
+        if (event.shouldCommit()) {
+            event.camera = mCamInfo.getIndex();
+            event.highlighted = highlighted;
+            event.commit();
+        }
+        if (highlighted) {
+            mCamInfo.getLatency().onHighlightStart();
+        } else {
+            mCamInfo.getLatency().onHighlightEnd();
+        }
+    }
+
     public double getNoiseLevel() {
         return mNoiseAverage;
     }
 
     /**
-     * Get a clone of the last output of the analyzer (aka the mask frame), if any.
+     * Takes the last output of the analyzer (aka the mask), if a new one is available since
+     * the last call. This never blocks.
+     * <p/>
+     * The returned image is a grayscale image owned by the analyzer. The caller can use it
+     * till the next non-null return from this method, after which it will be overwritten.
      * Note that this is only used to displaying the mask for informational/debug purposes.
      */
     @Nullable
-    public Frame getMaskFrame() {
-        Frame frame = null;
-        try {
-            frame = mMaskFrameQueue.poll(2 * 1000 / ANALYZER_FPS, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException ignore) {}
+    public BufferedImage takeMaskImage() {
+        return mMaskReady.getAndSet(null);
+    }
 
-        return frame;
+    /**
+     * Time it took to analyze the first frame after the last {@link #unpark()}, or -1 if no frame
+     * has been analyzed yet.
+     */
+    public long getWarmUpMs() {
+        return mWarmUpMs;
     }
 
     @Override
@@ -143,20 +228,51 @@ public class CamAnalyzer extends ThreadLoop implements IMotionDetector {
         mLogger.log(TAG, "Start");
 
         mNoiseSpikeThreshold = mConfigIni.getSpikeThreshold(NOISE_SPIKE_DELTA_DEFAULT);
+        mRate = new AnalyzerRate(mClock, mConfigIni, mAnalyzerLoad, mCamInfo.getIndex(), mMotionThreshold);
 
-        // Most JavaCV objects must be allocated on the main thread
-        // and after the dagger constructor.
+        // The JavaCV converters are allocated on the main thread, after the dagger constructor.
+        // The first subtractor is created here too, but OpenCV objects have no thread
+        // affinity: the analyzer thread is the one using them, and it already allocates the
+        // output Mat, closes the subtractor when parked and recreates it when unparked.
         mMatConverter = new OpenCVFrameConverter.ToMat();
         mBufImageConverter = new Java2DFrameConverter();
+        mPreviewConverter = new Java2DFrameConverter();
+        mSubtractor = createSubtractor();
 
+        super.start("Thread-" + TAG);
+    }
+
+    @Nonnull
+    private static BackgroundSubtractor createSubtractor() {
         // Defaults from https://docs.opencv.org/master/de/de1/group__video__motion.html
         // and same in org\bytedeco\opencv\global\opencv_video.java :
-        int 	history = 500;           // default: 500
+        // The history only applies when no learning rate is given, see learningRate().
+        int 	history = HISTORY_FRAMES_DEFAULT; // default: 500
         double 	varThreshold = 16;      // default: 16
         boolean detectShadows = false;  // default: true
-        mSubtractor = createBackgroundSubtractorMOG2(history, varThreshold, detectShadows);
+        return createBackgroundSubtractorMOG2(history, varThreshold, detectShadows);
+    }
 
-        super.start("Thread-" + TAG);
+    /**
+     * Returns the MOG2 learning rate for the next frame: the same as the OpenCV automatic one,
+     * 1 / min(2 * frames, history), except that the history is {@link #HISTORY_SEC} at the
+     * current analyzer rate rather than a fixed number of frames. Otherwise the background
+     * would be learned about 7 times slower at the idle rate than at the active rate.
+     *
+     * @param frames The number of frames already given to the subtractor.
+     * @param fps The current analyzer frame rate.
+     */
+    @VisibleForTesting
+    static double learningRate(long frames, double fps) {
+        double history = Math.max(1, HISTORY_SEC * fps);
+        return 1.0 / Math.max(1, Math.min(2 * frames, history));
+    }
+
+    @Override
+    public void unpark() {
+        mWarmUpMs = -1;
+        mUnparkTS = mClock.elapsedRealtime();
+        super.unpark();
     }
 
     @Override
@@ -165,10 +281,21 @@ public class CamAnalyzer extends ThreadLoop implements IMotionDetector {
         super.stop();
     }
 
-    public void offerPlayerImage(BufferedImage image) {
+    /**
+     * Offers a new player image to the analyzer, which drops it if still busy with the previous one,
+     * or if it does not need a new frame yet at its current rate.
+     *
+     * @param image The player image.
+     * @param frameTS When the frame was decoded, as {@link IClock#elapsedRealtime()}.
+     */
+    public void offerPlayerImage(BufferedImage image, long frameTS) {
+        if (isParked() || frameTS < mNextFrameTS) return;
+        mFramesOffered.increment();
         if (mPlayerFrameQueue.isEmpty()) {
             Frame frame = mBufImageConverter.convert(image);
-            mPlayerFrameQueue.offer(frame);
+            mPlayerFrameQueue.offer(new TimedFrame(frame, frameTS));
+        } else {
+            mFramesDropped.increment();
         }
     }
 
@@ -177,57 +304,123 @@ public class CamAnalyzer extends ThreadLoop implements IMotionDetector {
         mLogger.log(TAG, "Thread loop begin");
         mKey = String.format("%db", mCamInfo.getIndex());
         mFpsMeasurer = mFpsMeasurerFactory.create();
-        mFpsMeasurer.setFrameRate(ANALYZER_FPS);
+        mFpsMeasurer.setFrameRate(mRate.getFps());
+        mFpsMeasurer.setMetricsName("cam" + mCamInfo.getIndex() + ".analyzer");
+        mLatency = mCamInfo.getLatency();
     }
 
     @Override
     protected void _runInThreadLoop() {
-        final long loopMs = mFpsMeasurer.getLoopMs();
-
         mFpsMeasurer.startTick();
         StringInfo info = StringInfo.EMPTY;
 
-        Frame frame = null;
+        TimedFrame timedFrame = null;
         try {
-            frame = mPlayerFrameQueue.poll(loopMs, TimeUnit.MILLISECONDS);
+            // Wait for a frame at most till the next deadline, to keep the analyzer on schedule.
+            timedFrame = mPlayerFrameQueue.poll(mFpsMeasurer.getRemainingMs(), TimeUnit.MILLISECONDS);
         } catch (InterruptedException ignored) {}
 
         if (mQuit) {
             return;
         }
 
-        long computeMs = System.currentTimeMillis();
-        if (frame != null) {
-            info = processFrame(frame);
+        long computeMs = mClock.elapsedRealtime();
+        if (timedFrame != null) {
+            mLatency.record(MotionLatency.Stage.QUEUE, computeMs - timedFrame.mFrameTS);
+            info = processFrame(timedFrame.mFrame, timedFrame.mFrameTS);
         }
 
         computeMs = mClock.elapsedRealtime() - computeMs;
+        if (timedFrame != null) {
+            mLatency.record(MotionLatency.Stage.ANALYZE, computeMs);
+            double fps = mRate.update(mLastNoisePercent, mLastHasMotion, computeMs);
+            mFpsMeasurer.setFrameRate(fps);
+            mTargetFpsGauge.set(fps);
+        }
         mConsoleTask.updateLineInfo(/* B */ mKey,
-                info.withMsg(String.format(" %s [%2d ms]", info.mMsg, computeMs)));
+                info.withMsg(String.format(" %s [%2d ms %s%4.1f fps]",
+                        info.mMsg, computeMs, mRate.getState().getSymbol(), mRate.getFps())));
 
+        // Only convert the first frame decoded after the next deadline.
+        mNextFrameTS = mClock.elapsedRealtime() + mFpsMeasurer.getRemainingMs();
         mFpsMeasurer.endWait();
     }
 
     @Override
     protected void _afterThreadLoop() {
         mLogger.log(TAG, "Loop end");
-        mSubtractor.close();
+        releaseNatives();
+    }
+
+    /** Releases the subtractor and output buffers while the display is off. */
+    @Override
+    protected void _onParked() {
+        mLogger.log(TAG, "Parked");
+        releaseNatives();
+        mRate.reset();
+    }
+
+    @Override
+    protected void _onUnparked() {
+        if (mQuit) return;
+        mLogger.log(TAG, "Unparked");
+        // The background model restarts from scratch, as the old one is stale anyway.
+        // This runs on the analyzer thread, the only one which uses the subtractor.
+        mSubtractor = createSubtractor();
+        mSubtractorFrames = 0;
+        mLastNoisePercent = 0;
+        mNoiseWindow.clear();
+        mNoiseAverage = 0;
+        mNoiseGauge.set(0);
+        // Don't count the parked time as a late frame.
+        mFpsMeasurer.reset();
+        mRate.reset();
+        mNextFrameTS = 0;
+    }
+
+    private void releaseNatives() {
+        mPlayerFrameQueue.clear();
+        mMotionDetected.set(false);
+        mLastHasMotion = false;
+        if (mSubtractor != null) {
+            mSubtractor.close();
+            mSubtractor = null;
+        }
+        if (mOutput != null) {
+            mOutput.close();
+            mOutput = null;
+            mOutputData = null;
+            cvReleaseImage(mOutputImage);
+            mOutputImage = null;
+        }
+        // The UI may still be drawing a mask; let it be collected once it's done.
+        mMaskReady.set(null);
+        Arrays.fill(mMaskImages, null);
+        mPreviewMaskImage = null;
     }
 
     @Nonnull
-    private StringInfo processFrame(@Nonnull Frame frame) {
+    private StringInfo processFrame(@Nonnull Frame frame, long frameTS) {
+        JfrEvents.FrameAnalyzed event = new JfrEvents.FrameAnalyzed();
+        event.begin();
+
         Mat source = mMatConverter.convert(frame);
         if (source == null) return StringInfo.EMPTY;
 
+        if (mWarmUpMs < 0 && mUnparkTS > 0) {
+            mWarmUpMs = mClock.elapsedRealtime() - mUnparkTS;
+        }
+
         if (mOutput == null) {
             // TODO use Mat(Size, type=CV_8UC1).
             CvSize size = new CvSize().width(frame.imageWidth).height(frame.imageHeight);
             mOutputImage = cvCreateImage(size, 8, 1);
+            mOutputData = mOutputImage.imageData();
             mOutput = new Mat(mOutputImage);
         }
 
         // Apply background substractor
-        mSubtractor.apply(source, mOutput);
+        mSubtractor.apply(source, mOutput, learningRate(mSubtractorFrames++, mRate.getFps()));
 
         // Compute "score" for this output frame
         // int nz = opencv_core.countNonZero(mOutput);
@@ -249,17 +442,10 @@ public class CamAnalyzer extends ThreadLoop implements IMotionDetector {
         double average;
         boolean hasMotion;
         if (deltaPercent < mNoiseSpikeThreshold) {
-            // Filter noise with a 10-sample average window
-            int index = mNoiseBufferIndex;
-            mNoiseBuffer[index] = noisePercent2;
-            int windowLen = mNoiseBuffer.length;
-            mNoiseBufferIndex = (index + 1) % windowLen;
-            average = 0;
-            for (int i = 0; i < windowLen; i++) {
-                average += mNoiseBuffer[i];
-            }
-            average /= windowLen;
+            // Filter noise with a 2-second average window
+            average = mNoiseWindow.add(frameTS, noisePercent2);
             mNoiseAverage = average;
+            mNoiseGauge.set(average);
 
             hasMotion = average >= mMotionThreshold;
             mMotionDetected.set(hasMotion);
@@ -270,10 +456,28 @@ public class CamAnalyzer extends ThreadLoop implements IMotionDetector {
 
         mStatsCollector.collect(mCamInfo.getIndex(), noisePercent2, average, hasMotion);
 
-        if (mMaskFrameQueue.isEmpty()) {
-            // Prepare the next frame for the mask display, if one is requested.
-            Frame maskFrame = mMatConverter.convert(mOutput).clone();
-            mMaskFrameQueue.offer(maskFrame);
+        if (hasMotion && !mLastHasMotion) {
+            mLatency.onMotionStart(frameTS);
+        }
+        mLastHasMotion = hasMotion;
+
+        if (mMaskReady.get() == null) {
+            // The UI took the last mask (it only does when displaying them), prepare the next one.
+            publishMask(frame.imageWidth, frame.imageHeight);
+        }
+
+        if (mThumbnailPreview.hasClients() || mMaskPreview.hasClients()) {
+            publishPreviews(frame);
+        }
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.camera = mCamInfo.getIndex();
+            event.pixels = npx;
+            event.noise = noisePercent2;
+            event.average = average;
+            event.motion = hasMotion;
+            event.commit();
         }
 
         return new StringInfo(
@@ -284,4 +488,67 @@ public class CamAnalyzer extends ThreadLoop implements IMotionDetector {
                 ),
                 hasMotion ? StringInfo.Flag.Active : StringInfo.Flag.Default);
     }
+
+    /** Copies the analyzer output into the back mask buffer and publishes it. */
+    private void publishMask(int width, int height) {
+        BufferedImage image = mMaskImages[mMaskBackIndex];
+        if (image == null || image.getWidth() != width || image.getHeight() != height) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+            mMaskImages[mMaskBackIndex] = image;
+        }
+        copyMask(image, width, height);
+
+        mMaskBackIndex = 1 - mMaskBackIndex;
+        mMaskReady.set(image);
+    }
+
+    /**
+     * Encodes the frame and its mask once for all the preview clients.
+     * This is only called when someone is watching a preview.
+     */
+    private void publishPreviews(@Nonnull Frame frame) {
+        try {
+            if (mThumbnailPreview.hasClients()) {
+                mThumbnailPreview.publish(mPreviewConverter.convert(frame));
+            }
+            if (mMaskPreview.hasClients()) {
+                int width = frame.imageWidth;
+                int height = frame.imageHeight;
+                if (mPreviewMaskImage == null
+                        || mPreviewMaskImage.getWidth() != width
+                        || mPreviewMaskImage.getHeight() != height) {
+                    mPreviewMaskImage = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+                }
+                copyMask(mPreviewMaskImage, width, height);
+                mMaskPreview.publish(mPreviewMaskImage);
+            }
+        } catch (IOException e) {
+            mLogger.log(TAG, "Preview failed: " + e);
+        }
+    }
+
+    /** Copies the analyzer output into the given grayscale image. */
+    private void copyMask(@Nonnull BufferedImage image, int width, int height) {
+        // A TYPE_BYTE_GRAY raster has no padding, whereas the IplImage rows are aligned.
+        byte[] dst = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        int stride = mOutputImage.widthStep();
+        if (stride == width) {
+            mOutputData.position(0).get(dst, 0, width * height);
+        } else {
+            for (int y = 0; y < height; y++) {
+                mOutputData.position((long) y * stride).get(dst, y * width, width);
+            }
+        }
+        mOutputData.position(0);
+    }
+
+    private static class TimedFrame {
+        final Frame mFrame;
+        final long mFrameTS;
+
+        TimedFrame(Frame frame, long frameTS) {
+            mFrame = frame;
+            mFrameTS = frameTS;
+        }
+    }
 }
@@ -0,0 +1,123 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.cam;
+
+import com.alflabs.trainmotion.metrics.Counter;
+import com.alflabs.trainmotion.metrics.Gauge;
+import com.alflabs.trainmotion.metrics.Metrics;
+import com.alflabs.utils.IClock;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Health of the video feed of one camera.
+ * <p/>
+ * A live camera stream can freeze without VLC reporting any error: it simply stops
+ * decoding frames. VLC stamps each frame with {@link #onFrame(long)}, and the CameraWatchdog
+ * periodically calls {@link #checkStall()} to find out when the camera player should be
+ * restarted. A restarted player gets the same delay to produce a frame, after which the delay
+ * till the next restart doubles each time, up to {@link #RESTART_DELAY_MAX_MS}.
+ * <p/>
+ * The metrics are "camN.feed.stalled" and "camN.feed.restarts".
+ */
+public class CamFeed {
+    public static final long RESTART_DELAY_MAX_MS = 5 * 60 * 1000;
+
+    private final IClock mClock;
+    private final Gauge mStalledGauge;
+    private final Counter mRestarts;
+    /** Stamp of the last frame decoded by VLC, or 0. Set on a VLC thread. */
+    private volatile long mLastFrameTS;
+    private volatile boolean mStalled;
+
+    // These are only accessed by the watchdog.
+    private long mStallMs;
+    /** When the feed was last (re)started. */
+    private long mWatchTS;
+    /** Time without frames after the last restart before restarting again. */
+    private long mRestartDelayMs;
+
+    public CamFeed(@Nonnull IClock clock, @Nonnull Metrics metrics, int camIndex) {
+        mClock = clock;
+        mStalledGauge = metrics.gauge("cam" + camIndex + ".feed.stalled");
+        mRestarts = metrics.counter("cam" + camIndex + ".feed.restarts");
+    }
+
+    /** Called by VLC for each decoded frame. This must stay lock-free. */
+    public void onFrame(long frameTS) {
+        mLastFrameTS = frameTS;
+    }
+
+    /** Whether the feed has not produced any frame for too long. */
+    public boolean isStalled() {
+        return mStalled;
+    }
+
+    public long getRestartCount() {
+        return mRestarts.get();
+    }
+
+    /**
+     * Starts watching the feed, e.g. when the camera players start or resume. The feed is
+     * stalled when it has no frame for stallMs, and is then restarted with a backoff.
+     */
+    public void watch(long stallMs) {
+        mStallMs = stallMs;
+        mWatchTS = mClock.elapsedRealtime();
+        mRestartDelayMs = stallMs;
+        setStalled(false);
+    }
+
+    /**
+     * Checks the feed. Returns true when the camera player must be restarted, in which case
+     * the restart is counted and the feed marked as stalled till it produces a new frame.
+     */
+    public boolean checkStall() {
+        long now = mClock.elapsedRealtime();
+        long lastFrameTS = mLastFrameTS;
+        boolean hasFrame = lastFrameTS >= mWatchTS;
+        long deadlineTS = hasFrame ? lastFrameTS + mStallMs : mWatchTS + mRestartDelayMs;
+        if (now < deadlineTS) {
+            if (hasFrame && mStalled) {
+                // The last restart brought the feed back.
+                mRestartDelayMs = mStallMs;
+                setStalled(false);
+            }
+            return false;
+        }
+
+        if (mStalled) {
+            mRestartDelayMs = Math.min(2 * mRestartDelayMs, RESTART_DELAY_MAX_MS);
+        }
+        mWatchTS = now;
+        mRestarts.increment();
+        setStalled(true);
+        return true;
+    }
+
+    /** Milliseconds since the last frame, or since the feed was last (re)started. */
+    public long getStallMs() {
+        return mClock.elapsedRealtime() - Math.max(mLastFrameTS, mWatchTS);
+    }
+
+    private void setStalled(boolean stalled) {
+        mStalled = stalled;
+        mStalledGauge.set(stalled ? 1 : 0);
+    }
+}
@@ -18,25 +18,33 @@
 
 package com.alflabs.trainmotion.cam;
 
+import com.alflabs.trainmotion.metrics.Metrics;
+import com.alflabs.utils.IClock;
 import com.google.auto.factory.AutoFactory;
 import com.google.auto.factory.Provided;
 
 import javax.annotation.Nonnull;
 
-/** Live information about each camera: configuration, video analyzer. */
+/** Live information about each camera: configuration, video analyzer, motion latency, feed health. */
 @AutoFactory
 public class CamInfo {
     private final int mIndex;
     private final CamConfig mConfig;
+    private final MotionLatency mLatency;
+    private final CamFeed mFeed;
     private final CamAnalyzer mAnalyzer;
 
     /** New camera info. Index is 1-based. */
     CamInfo(
+            @Provided IClock clock,
+            @Provided Metrics metrics,
             @Provided CamAnalyzerFactory camAnalyzerFactory,
             int index,
             @Nonnull CamConfig config) {
         mIndex = index;
         mConfig = config;
+        mLatency = new MotionLatency(clock, metrics, index);
+        mFeed = new CamFeed(clock, metrics, index);
         mAnalyzer = camAnalyzerFactory.create(this);
     }
 
@@ -53,4 +61,14 @@ public class CamInfo {
     public CamAnalyzer getAnalyzer() {
         return mAnalyzer;
     }
+
+    @Nonnull
+    public MotionLatency getLatency() {
+        return mLatency;
+    }
+
+    @Nonnull
+    public CamFeed getFeed() {
+        return mFeed;
+    }
 }
@@ -70,6 +70,15 @@ public class Cameras implements IStartStop {
         return null;
     }
 
+    /** Logs the motion detection latency of each camera. */
+    public void logLatency() {
+        mCamInfos.forEach(this::logLatency);
+    }
+
+    private void logLatency(@Nonnull CamInfo camInfo) {
+        mLogger.log(TAG, "Cam #" + camInfo.getIndex() + " latency:" + camInfo.getLatency().getSummary());
+    }
+
     @Override
     public void start() throws Exception {
         for (CamInfo camInfo : mCamInfos) {
@@ -86,6 +95,7 @@ public class Cameras implements IStartStop {
             } catch (Exception e) {
                 mLogger.log(TAG, "Stopping analyzer-" + camInfo.getIndex() + ": " + e);
             }
+            logLatency(camInfo);
 //            try {
 //                camInfo.getGrabber().stop();
 //            } catch (Exception e) {
@@ -20,4 +20,7 @@ package com.alflabs.trainmotion.cam;
 
 public interface IMotionDetector {
     boolean isMotionDetected();
+
+    /** Notifies the detector when its motion starts or stops being highlighted. */
+    default void onHighlightChanged(boolean highlighted) {}
 }
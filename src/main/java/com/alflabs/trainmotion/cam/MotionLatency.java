@@ -0,0 +1,115 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.cam;
+
+import com.alflabs.trainmotion.metrics.Histogram;
+import com.alflabs.trainmotion.metrics.Metrics;
+import com.alflabs.utils.IClock;
+
+import javax.annotation.Nonnull;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-camera latency of the motion detection pipeline.
+ * <p/>
+ * Each camera frame is stamped when VLC hands it to the render callback. That stamp follows
+ * the frame through the analyzer, and the stamp of the frame which started a motion is then
+ * used to measure how long it takes to highlight that camera and to zoom out the main player.
+ * <p/>
+ * The histograms are registered in the {@link Metrics} as "camN.latency.stage_ms".
+ */
+public class MotionLatency {
+
+    public enum Stage {
+        /** Frame decoded to analysis start, i.e. time spent in the analyzer queue. */
+        QUEUE,
+        /** Analysis of one frame. */
+        ANALYZE,
+        /** Frame decoded to motion detected by the analyzer. */
+        DETECT,
+        /** Frame decoded to highlight shown on the camera view. */
+        HIGHLIGHT,
+        /** Frame decoded to main player zoomed out to show the camera views. */
+        ZOOM,
+    }
+
+    private final IClock mClock;
+    private final Map<Stage, Histogram> mHistograms = new EnumMap<>(Stage.class);
+    /** Stamp of the frame which started the current motion, or 0 if not highlighted yet. */
+    private final AtomicLong mHighlightFrameTS = new AtomicLong();
+    /** Stamp of the frame which started the current highlight, or 0 if not zoomed yet. */
+    private final AtomicLong mZoomFrameTS = new AtomicLong();
+
+    public MotionLatency(@Nonnull IClock clock, @Nonnull Metrics metrics, int camIndex) {
+        mClock = clock;
+        for (Stage stage : Stage.values()) {
+            String name = "cam" + camIndex + ".latency." + stage.name().toLowerCase(Locale.US) + "_ms";
+            mHistograms.put(stage, metrics.histogram(name));
+        }
+    }
+
+    @Nonnull
+    public Histogram getHistogram(@Nonnull Stage stage) {
+        return mHistograms.get(stage);
+    }
+
+    public void record(@Nonnull Stage stage, long ms) {
+        mHistograms.get(stage).record(ms);
+    }
+
+    /** Called by the analyzer when it detects the start of a motion in this frame. */
+    public void onMotionStart(long frameTS) {
+        record(Stage.DETECT, mClock.elapsedRealtime() - frameTS);
+        mHighlightFrameTS.set(frameTS);
+    }
+
+    /** Called by the highlighter when it starts highlighting the camera. */
+    public void onHighlightStart() {
+        long frameTS = mHighlightFrameTS.getAndSet(0);
+        if (frameTS > 0) {
+            record(Stage.HIGHLIGHT, mClock.elapsedRealtime() - frameTS);
+            mZoomFrameTS.set(frameTS);
+        }
+    }
+
+    /** Called when the main player zooms out to show a highlighted camera. */
+    public void onZoomOut() {
+        long frameTS = mZoomFrameTS.getAndSet(0);
+        if (frameTS > 0) {
+            record(Stage.ZOOM, mClock.elapsedRealtime() - frameTS);
+        }
+    }
+
+    /** Called when the highlight ends, as a later zoom out is not related to this motion. */
+    public void onHighlightEnd() {
+        mZoomFrameTS.set(0);
+    }
+
+    @Nonnull
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            sb.append(String.format("\n  %-9s %s", stage, mHistograms.get(stage).getSummary("ms")));
+        }
+        return sb.toString();
+    }
+}
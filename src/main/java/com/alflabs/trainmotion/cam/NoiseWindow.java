@@ -0,0 +1,71 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.cam;
+
+/**
+ * Moving average of the analyzer noise over the last few seconds.
+ * <p/>
+ * The window is defined in time rather than in frames, so that it covers the same part of a
+ * motion whether the {@link AnalyzerRate} runs the analyzer at its idle or its active rate.
+ * When the frame rate is so high that the samples don't fit, the oldest ones are dropped.
+ */
+public class NoiseWindow {
+    private final long mWindowMs;
+    private final long[] mTimes;
+    private final double[] mValues;
+    /** Index of the oldest sample. */
+    private int mStart;
+    private int mCount;
+
+    public NoiseWindow(long windowMs, int maxSamples) {
+        mWindowMs = windowMs;
+        mTimes = new long[maxSamples];
+        mValues = new double[maxSamples];
+    }
+
+    /** Removes all the samples, e.g. when the analyzer resumes. */
+    public void clear() {
+        mStart = 0;
+        mCount = 0;
+    }
+
+    /**
+     * Adds a sample and returns the average of the samples of the last window.
+     *
+     * @param nowMs The time of the sample, as {@link com.alflabs.utils.IClock#elapsedRealtime()}.
+     * @param value The noise of the sample.
+     */
+    public double add(long nowMs, double value) {
+        int capacity = mTimes.length;
+        while (mCount > 0 && (mCount == capacity || mTimes[mStart] <= nowMs - mWindowMs)) {
+            mStart = (mStart + 1) % capacity;
+            mCount--;
+        }
+        int index = (mStart + mCount) % capacity;
+        mTimes[index] = nowMs;
+        mValues[index] = value;
+        mCount++;
+
+        double average = 0;
+        for (int i = 0; i < mCount; i++) {
+            average += mValues[(mStart + i) % capacity];
+        }
+        return average / mCount;
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.cam;
+
+import com.alflabs.trainmotion.ConfigIni;
+import com.alflabs.trainmotion.metrics.Counter;
+import com.alflabs.trainmotion.metrics.Gauge;
+import com.alflabs.trainmotion.metrics.Metrics;
+import com.alflabs.trainmotion.util.ILogger;
+import com.alflabs.trainmotion.util.ThreadLoop;
+import com.alflabs.trainmotion.util.ThreadLoopRuntime;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Optional MJPEG server streaming the camera frames and their masks, enabled by the
+ * config.ini "preview_port". This is meant to tune the camera thresholds from a browser.
+ * <p/>
+ * Streams are served at "/camN/thumbnail.mjpeg" and "/camN/mask.mjpeg", and "/" lists them.
+ * <p/>
+ * A single thread serves all clients with non-blocking NIO channels. Each frame is encoded
+ * once by the analyzer and the same buffer is written to every client. A client still busy
+ * writing a previous frame simply skips the new ones, so slow clients never queue frames.
+ * Nothing is encoded when there are no clients, and the thread sleeps in the selector.
+ */
+@Singleton
+public class PreviewServer extends ThreadLoop {
+    private static final String TAG = PreviewServer.class.getSimpleName();
+
+    private static final int MAX_REQUEST_SIZE = 4096;
+    private static final String STREAM_SUFFIX = ".mjpeg";
+    private static final byte[] STREAM_RESPONSE = (
+            "HTTP/1.0 200 OK\r\n" +
+            "Content-Type: multipart/x-mixed-replace; boundary=" + PreviewStream.BOUNDARY + "\r\n" +
+            "Cache-Control: no-cache\r\n" +
+            "Connection: close\r\n\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NOT_FOUND_RESPONSE = (
+            "HTTP/1.0 404 Not Found\r\n" +
+            "Content-Length: 0\r\n" +
+            "Connection: close\r\n\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+
+    private final ILogger mLogger;
+    private final ConfigIni mConfigIni;
+    private final Gauge mClientsGauge;
+    private final Counter mFramesSkipped;
+    private final Map<String, PreviewStream> mStreams = new ConcurrentSkipListMap<>();
+    /** Accessed only on the server thread. */
+    private final List<Client> mClients = new ArrayList<>();
+    private volatile Selector mSelector;
+    private ServerSocketChannel mServerChannel;
+
+    @Inject
+    public PreviewServer(
+            ILogger logger,
+            ConfigIni configIni,
+            Metrics metrics,
+            ThreadLoopRuntime runtime) {
+        super(runtime);
+        mLogger = logger;
+        mConfigIni = configIni;
+        mClientsGauge = metrics.gauge("preview.clients");
+        mFramesSkipped = metrics.counter("preview.frames_skipped");
+    }
+
+    /** Returns the stream with the given name, e.g. "cam1/mask", creating it if needed. */
+    @Nonnull
+    public PreviewStream getStream(@Nonnull String name) {
+        return mStreams.computeIfAbsent(name, n -> new PreviewStream(n, this::wakeUp));
+    }
+
+    @Override
+    public void start() throws Exception {
+        int port = mConfigIni.getPreviewPort();
+        if (port < 0) {
+            mLogger.log(TAG, "Preview server disabled");
+            return;
+        }
+
+        String host = mConfigIni.getStatusHost();
+        try {
+            mServerChannel = ServerSocketChannel.open();
+            mServerChannel.bind(new InetSocketAddress(host, port));
+            mServerChannel.configureBlocking(false);
+            mSelector = Selector.open();
+            mServerChannel.register(mSelector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            // The preview is only a tuning aid and must not prevent the kiosk from running.
+            mLogger.log(TAG, "Preview server failed to start on " + host + ":" + port + ": " + e);
+            closeChannels();
+            return;
+        }
+        mLogger.log(TAG, "Serving http://" + host + ":" + getPort() + "/");
+
+        super.start("Thread-" + TAG);
+    }
+
+    /** Returns the port the server listens on, or -1 if not started. */
+    public int getPort() {
+        ServerSocketChannel channel = mServerChannel;
+        if (channel != null) {
+            try {
+                return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+            } catch (IOException ignore) {}
+        }
+        return -1;
+    }
+
+    private void wakeUp() {
+        Selector selector = mSelector;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    protected long getStuckTimeoutMs() {
+        // Each iteration waits for the selector without any timeout.
+        return 0;
+    }
+
+    @Override
+    protected void _runInThreadLoop() {
+        try {
+            // Woken up by new frames, or interrupted by stop().
+            mSelector.select();
+            if (mQuit) {
+                return;
+            }
+
+            Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid()) {
+                    continue;
+                }
+                if (key.isAcceptable()) {
+                    accept();
+                } else {
+                    Client client = (Client) key.attachment();
+                    if (key.isReadable()) {
+                        client.read();
+                    } else if (key.isWritable()) {
+                        client.write();
+                    }
+                }
+            }
+
+            int streaming = 0;
+            for (Iterator<Client> it = mClients.iterator(); it.hasNext(); ) {
+                Client client = it.next();
+                client.sendNextPart();
+                if (client.mClosed) {
+                    it.remove();
+                } else if (client.mStream != null) {
+                    streaming++;
+                }
+            }
+            mClientsGauge.set(streaming);
+        } catch (IOException e) {
+            mLogger.log(TAG, "Select failed: " + e);
+        }
+    }
+
+    @Override
+    protected void _afterThreadLoop() {
+        mLogger.log(TAG, "Loop end");
+        mClients.forEach(Client::close);
+        mClients.clear();
+        mClientsGauge.set(0);
+        closeChannels();
+    }
+
+    private void closeChannels() {
+        try {
+            if (mSelector != null) {
+                mSelector.close();
+            }
+            if (mServerChannel != null) {
+                mServerChannel.close();
+            }
+        } catch (IOException e) {
+            mLogger.log(TAG, "Close failed: " + e);
+        }
+        mSelector = null;
+        mServerChannel = null;
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = mServerChannel.accept();
+        if (channel != null) {
+            channel.configureBlocking(false);
+            Client client = new Client(channel);
+            client.mKey = channel.register(mSelector, SelectionKey.OP_READ, client);
+            mClients.add(client);
+        }
+    }
+
+    @Nullable
+    private static String parseRequestPath(@Nonnull String request) {
+        // e.g. "GET /cam1/mask.mjpeg HTTP/1.1"
+        String[] fields = request.split(" ", 3);
+        if (fields.length < 2 || !"GET".equals(fields[0])) {
+            return null;
+        }
+        return fields[1];
+    }
+
+    @Nonnull
+    private byte[] createIndexResponse() {
+        StringBuilder body = new StringBuilder("<html><head><title>Train Motion Preview</title></head><body>\n");
+        for (String name : mStreams.keySet()) {
+            body.append("<p>").append(name).append("<br><img src=\"/")
+                    .append(name).append(STREAM_SUFFIX).append("\"></p>\n");
+        }
+        body.append("</body></html>\n");
+        byte[] content = body.toString().getBytes(StandardCharsets.UTF_8);
+        String header = "HTTP/1.0 200 OK\r\n" +
+                "Content-Type: text/html; charset=utf-8\r\n" +
+                "Content-Length: " + content.length + "\r\n" +
+                "Connection: close\r\n\r\n";
+        byte[] response = new byte[header.length() + content.length];
+        System.arraycopy(header.getBytes(StandardCharsets.US_ASCII), 0, response, 0, header.length());
+        System.arraycopy(content, 0, response, header.length(), content.length);
+        return response;
+    }
+
+    private class Client {
+        private final SocketChannel mChannel;
+        private final ByteBuffer mRequest = ByteBuffer.allocate(MAX_REQUEST_SIZE);
+        private SelectionKey mKey;
+        /** The stream once the request has been parsed, or null. */
+        private PreviewStream mStream;
+        /** The part being sent, acquired until fully written, or null. */
+        private PreviewStream.Part mPart;
+        /** The generation of the last part sent or being sent. */
+        private long mPartGeneration;
+        /** The bytes being written, or null when idle. */
+        private ByteBuffer mPending;
+        /** The generation of the last part skipped because this client was still busy. */
+        private long mSkippedGeneration;
+        private boolean mCloseAfterWrite;
+        private boolean mClosed;
+
+        Client(@Nonnull SocketChannel channel) {
+            mChannel = channel;
+        }
+
+        void read() {
+            try {
+                if (mChannel.read(mRequest) < 0) {
+                    close();
+                    return;
+                }
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (mStream != null || mCloseAfterWrite) {
+                // Already answered, ignore anything else sent by the client.
+                mRequest.clear();
+                return;
+            }
+
+            String request = new String(mRequest.array(), 0, mRequest.position(), StandardCharsets.US_ASCII);
+            if (!request.contains("\r\n\r\n")) {
+                if (!mRequest.hasRemaining()) {
+                    close();
+                }
+                return;
+            }
+
+            String path = parseRequestPath(request);
+            PreviewStream stream = null;
+            if (path != null && path.startsWith("/") && path.endsWith(STREAM_SUFFIX)) {
+                stream = mStreams.get(path.substring(1, path.length() - STREAM_SUFFIX.length()));
+            }
+            if (stream != null) {
+                mStream = stream;
+                stream.addClient();
+                send(ByteBuffer.wrap(STREAM_RESPONSE));
+            } else {
+                mCloseAfterWrite = true;
+                send(ByteBuffer.wrap("/".equals(path) ? createIndexResponse() : NOT_FOUND_RESPONSE));
+            }
+        }
+
+        /** Sends the latest part of the stream if it's a new one and this client is idle. */
+        void sendNextPart() {
+            if (mStream == null || mClosed) {
+                return;
+            }
+            PreviewStream.Part part = mStream.getPart();
+            if (part == null || part.getGeneration() == mPartGeneration) {
+                return;
+            }
+            if (mPending != null) {
+                long generation = part.getGeneration();
+                if (generation != mSkippedGeneration) {
+                    mSkippedGeneration = generation;
+                    mFramesSkipped.increment();
+                }
+                return;
+            }
+            ByteBuffer buffer = part.acquire();
+            if (buffer == null) {
+                // Being rewritten; a wake up follows once it's published again.
+                return;
+            }
+            long generation = part.getGeneration();
+            if (generation == mPartGeneration) {
+                part.release();
+                return;
+            }
+            mPart = part;
+            mPartGeneration = generation;
+            send(buffer);
+        }
+
+        /** Lets the stream reuse the buffer of the part once this client is done with it. */
+        private void releasePart() {
+            if (mPart != null) {
+                mPart.release();
+                mPart = null;
+            }
+        }
+
+        private void send(@Nonnull ByteBuffer buffer) {
+            mPending = buffer;
+            write();
+        }
+
+        void write() {
+            try {
+                mChannel.write(mPending);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (mPending.hasRemaining()) {
+                mKey.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+            mPending = null;
+            releasePart();
+            if (mCloseAfterWrite) {
+                close();
+            } else {
+                // Wait for the next part, or for the client to hang up.
+                mKey.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            releasePart();
+            if (mStream != null) {
+                mStream.removeClient();
+            }
+            mKey.cancel();
+            try {
+                mChannel.close();
+            } catch (IOException ignore) {}
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.cam;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * One MJPEG stream of the {@link PreviewServer}, e.g. the mask of one camera.
+ * <p/>
+ * The producer (the camera analyzer) encodes each image once, then copies the whole multipart
+ * part into one of a few reusable direct buffers. All clients write that same direct buffer
+ * to their socket using their own view of it, so adding clients does not add encoding, and
+ * the channel does not copy it into a temporary direct buffer on each write.
+ * <p/>
+ * A buffer is only reused once no client is writing it anymore. When all the buffers are busy
+ * with slow clients, the new image is dropped; these clients would have skipped it anyway.
+ * The producer should only call {@link #publish(BufferedImage)} when {@link #hasClients()}.
+ */
+public class PreviewStream {
+    static final String BOUNDARY = "frame";
+    private static final byte[] PART_HEADER = ("--" + BOUNDARY + "\r\n" +
+            "Content-Type: image/jpeg\r\n" +
+            "Content-Length: ").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEADER_END = { '\r', '\n', '\r', '\n' };
+    private static final byte[] CRLF = { '\r', '\n' };
+    /** Room for the length digits in the part header. */
+    private static final int MAX_DIGITS = 10;
+    /** The current part plus one being written by slow clients plus one being filled. */
+    private static final int NUM_PARTS = 3;
+
+    private final String mName;
+    private final Runnable mOnPublish;
+    private final AtomicInteger mClients = new AtomicInteger();
+    private final Part[] mParts = new Part[NUM_PARTS];
+    private final AtomicReference<Part> mCurrent = new AtomicReference<>();
+    /** Reused by the producer thread only. */
+    private final JpegBuffer mJpegBuffer = new JpegBuffer();
+    /** Accessed by the producer thread only. */
+    private long mGeneration;
+
+    PreviewStream(@Nonnull String name, @Nonnull Runnable onPublish) {
+        mName = name;
+        mOnPublish = onPublish;
+        for (int i = 0; i < NUM_PARTS; i++) {
+            mParts[i] = new Part();
+        }
+    }
+
+    /** The stream name, e.g. "cam1/mask". */
+    @Nonnull
+    public String getName() {
+        return mName;
+    }
+
+    public boolean hasClients() {
+        return mClients.get() > 0;
+    }
+
+    void addClient() {
+        mClients.incrementAndGet();
+    }
+
+    void removeClient() {
+        mClients.decrementAndGet();
+    }
+
+    /**
+     * Returns the last published multipart part, or null if none yet.
+     * Callers must {@link Part#acquire()} it to read it.
+     */
+    @Nullable
+    Part getPart() {
+        return mCurrent.get();
+    }
+
+    /**
+     * Encodes the image as JPEG and makes it the current frame of this stream.
+     * The image is dropped if all the part buffers are still being written by clients.
+     */
+    public void publish(@Nonnull BufferedImage image) throws IOException {
+        Part part = claimPart();
+        if (part == null) {
+            return;
+        }
+        try {
+            mJpegBuffer.reset();
+            if (!ImageIO.write(image, "jpg", mJpegBuffer)) {
+                throw new IOException("No JPEG writer for image type " + image.getType());
+            }
+            part.fill(mJpegBuffer, ++mGeneration);
+        } finally {
+            part.mUsers.set(0);
+        }
+        mCurrent.set(part);
+        mOnPublish.run();
+    }
+
+    /** Returns a part buffer that is neither current nor used by a client, locked for writing. */
+    @Nullable
+    private Part claimPart() {
+        Part current = mCurrent.get();
+        for (Part part : mParts) {
+            if (part != current && part.mUsers.compareAndSet(0, Part.FILLING)) {
+                return part;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * One reusable multipart part: the boundary, the headers, the JPEG and the trailing CRLF.
+     * <p/>
+     * {@link #mUsers} counts the clients writing it, or is {@link #FILLING} while the producer
+     * rewrites it. A client that got this part from {@link #getPart()} must {@link #acquire()}
+     * it before reading it and {@link #release()} it once done.
+     */
+    static class Part {
+        private static final int FILLING = -1;
+
+        private final AtomicInteger mUsers = new AtomicInteger();
+        private ByteBuffer mBuffer = ByteBuffer.allocateDirect(0);
+        private volatile long mGeneration;
+
+        /** Increases each time the buffer is rewritten with a new image. */
+        long getGeneration() {
+            return mGeneration;
+        }
+
+        /**
+         * Returns a read-only view of the part, or null if the producer is rewriting it.
+         * The part can't be rewritten until {@link #release()} is called.
+         */
+        @Nullable
+        ByteBuffer acquire() {
+            while (true) {
+                int users = mUsers.get();
+                if (users == FILLING) {
+                    return null;
+                }
+                if (mUsers.compareAndSet(users, users + 1)) {
+                    return mBuffer.asReadOnlyBuffer();
+                }
+            }
+        }
+
+        void release() {
+            mUsers.decrementAndGet();
+        }
+
+        /** Called by the producer with {@link #mUsers} set to {@link #FILLING}. */
+        private void fill(@Nonnull JpegBuffer jpeg, long generation) {
+            int size = PART_HEADER.length + MAX_DIGITS + HEADER_END.length + jpeg.size() + CRLF.length;
+            if (mBuffer.capacity() < size) {
+                // Grow with some margin so that slightly larger images don't reallocate.
+                mBuffer = ByteBuffer.allocateDirect(size + size / 4);
+            }
+            mBuffer.clear();
+            mBuffer.put(PART_HEADER);
+            putDigits(mBuffer, jpeg.size());
+            mBuffer.put(HEADER_END);
+            jpeg.copyTo(mBuffer);
+            mBuffer.put(CRLF);
+            mBuffer.flip();
+            mGeneration = generation;
+        }
+
+        /** Writes a positive number in ASCII without formatting it into a String. */
+        private static void putDigits(@Nonnull ByteBuffer dst, int value) {
+            int divisor = 1;
+            while (value / divisor >= 10) {
+                divisor *= 10;
+            }
+            for (; divisor > 0; divisor /= 10) {
+                dst.put((byte) ('0' + (value / divisor) % 10));
+            }
+        }
+    }
+
+    /** Gives access to the encoded bytes without the copy done by toByteArray(). */
+    private static class JpegBuffer extends ByteArrayOutputStream {
+        void copyTo(@Nonnull ByteBuffer dst) {
+            dst.put(buf, 0, count);
+        }
+    }
+}
@@ -31,6 +31,7 @@ import javax.inject.Singleton;
         HttpClientModule.class,
         JsonModule.class,
         LoggerModule.class,
+        MetricsModule.class,
         RandomModule.class,
         })
 public interface ITrainMotionComponent {
@@ -18,8 +18,8 @@
 
 package com.alflabs.trainmotion.dagger;
 
+import com.alflabs.trainmotion.util.AsyncLogger;
 import com.alflabs.trainmotion.util.ILogger;
-import com.alflabs.trainmotion.util.SoutLogger;
 import dagger.Module;
 import dagger.Provides;
 
@@ -30,7 +30,13 @@ public abstract class LoggerModule {
 
     @Provides
     @Singleton
-    static ILogger providesLogger() {
-        return new SoutLogger();
+    static AsyncLogger providesAsyncLogger() {
+        return new AsyncLogger();
+    }
+
+    @Provides
+    @Singleton
+    static ILogger providesLogger(AsyncLogger logger) {
+        return logger;
     }
 }
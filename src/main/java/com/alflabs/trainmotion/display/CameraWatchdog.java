@@ -0,0 +1,118 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.display;
+
+import com.alflabs.trainmotion.ConfigIni;
+import com.alflabs.trainmotion.cam.CamFeed;
+import com.alflabs.trainmotion.cam.CamInfo;
+import com.alflabs.trainmotion.cam.Cameras;
+import com.alflabs.trainmotion.util.ILogger;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Restarts the camera players whose feed stalled, i.e. which have not produced any frame for
+ * the config.ini "cam_stall_sec", as VLC does not always report an error when a live stream
+ * freezes. See {@link CamFeed} for the restart backoff.
+ * <p/>
+ * The feeds are checked on the shared executor, never on the Swing UI thread. The caller
+ * (KioskController) provides the actual restart, pauses the watchdog while the display is off
+ * and resumes it once the camera players are started again.
+ */
+@Singleton
+public class CameraWatchdog {
+    private static final String TAG = CameraWatchdog.class.getSimpleName();
+
+    private static final double STALL_SEC_DEFAULT = 10;
+    private static final long CHECK_PERIOD_MS = 1000;
+
+    private final ILogger mLogger;
+    private final ConfigIni mConfigIni;
+    private final Cameras mCameras;
+    private final ScheduledExecutorService mExecutor;
+
+    private long mStallMs;
+    private Consumer<CamInfo> mRestarter;
+    private ScheduledFuture<?> mCheckFuture;
+
+    @Inject
+    public CameraWatchdog(
+            ILogger logger,
+            ConfigIni configIni,
+            Cameras cameras,
+            @Named("SingleThreadExecutor") ScheduledExecutorService executor) {
+        mLogger = logger;
+        mConfigIni = configIni;
+        mCameras = cameras;
+        mExecutor = executor;
+    }
+
+    /** Starts watching the camera feeds, calling the restarter for each stalled one. */
+    public synchronized void start(@Nonnull Consumer<CamInfo> restarter) {
+        mRestarter = restarter;
+        mStallMs = (long) (1000 * mConfigIni.getCamStallSec(STALL_SEC_DEFAULT));
+        if (mStallMs <= 0) {
+            mLogger.log(TAG, "Camera watchdog disabled");
+            return;
+        }
+        mLogger.log(TAG, "Restart camera feeds stalled for " + mStallMs + " ms");
+        resume();
+    }
+
+    public synchronized void stop() {
+        pause();
+        mRestarter = null;
+    }
+
+    /** Resumes watching after the camera players have been (re)started. */
+    public synchronized void resume() {
+        if (mRestarter == null || mStallMs <= 0 || mCheckFuture != null) return;
+        mCameras.forEachCamera(camInfo -> camInfo.getFeed().watch(mStallMs));
+        mCheckFuture = mExecutor.scheduleWithFixedDelay(
+                this::checkFeeds, CHECK_PERIOD_MS, CHECK_PERIOD_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** Pauses watching while the camera players are stopped on purpose. */
+    public synchronized void pause() {
+        if (mCheckFuture != null) {
+            mCheckFuture.cancel(false /* mayInterruptIfRunning */);
+            mCheckFuture = null;
+        }
+    }
+
+    private synchronized void checkFeeds() {
+        if (mCheckFuture == null) return;
+        mCameras.forEachCamera(camInfo -> {
+            CamFeed feed = camInfo.getFeed();
+            long stallMs = feed.getStallMs();
+            if (feed.checkStall()) {
+                mLogger.log(TAG, "Cam " + camInfo.getIndex() + " stalled for " + stallMs
+                        + " ms, restart #" + feed.getRestartCount());
+                mRestarter.accept(camInfo);
+            }
+        });
+    }
+}
@@ -18,8 +18,11 @@
 
 package com.alflabs.trainmotion.display;
 
+import com.alflabs.trainmotion.cam.Cameras;
+import com.alflabs.trainmotion.metrics.Metrics;
 import com.alflabs.trainmotion.util.ILogger;
 import com.alflabs.trainmotion.util.IStartStop;
+import com.alflabs.trainmotion.util.KVController;
 import com.alflabs.trainmotion.util.StatsCollector;
 import com.alflabs.utils.IClock;
 import dagger.Lazy;
@@ -48,6 +51,9 @@ public class ConsoleTask implements IStartStop {
     private final Lazy<DisplayController> mDisplayController;
     private final Lazy<StatsCollector> mStatsCollector;
     private final Lazy<KioskController> mKioskController;
+    private final Lazy<Cameras> mCameras;
+    private final Lazy<KVController> mKVController;
+    private final Metrics mMetrics;
     @GuardedBy("mLineInfo")
     private final SortedMap<String, StringInfo> mLineInfo = new TreeMap<>();
 
@@ -59,12 +65,18 @@ public class ConsoleTask implements IStartStop {
             ILogger logger,
             Lazy<DisplayController> displayController,
             Lazy<StatsCollector> statsCollector,
-            Lazy<KioskController> kioskController) {
+            Lazy<KioskController> kioskController,
+            Lazy<Cameras> cameras,
+            Lazy<KVController> kvController,
+            Metrics metrics) {
         mClock = clock;
         mLogger = logger;
         mDisplayController = displayController;
         mStatsCollector = statsCollector;
         mKioskController = kioskController;
+        mCameras = cameras;
+        mKVController = kvController;
+        mMetrics = metrics;
         mQuit = false;
     }
 
@@ -108,6 +120,10 @@ public class ConsoleTask implements IStartStop {
         return mLineInfo;
     }
 
+    public void logMetrics() {
+        mLogger.log(TAG, "Metrics:" + mMetrics.getSummary());
+    }
+
     public void displayLineInfo() {
         mLogger.log(computeLineInfo());
     }
@@ -147,16 +163,25 @@ public class ConsoleTask implements IStartStop {
 
     public boolean processKey(char c) {
         // mLogger.log(TAG, "Process key: " + c); // DEBUG
-        // Keys handled by the ConsoleTask: esc, q=quit // ?, h=help, o=display off.
+        // Keys handled by the ConsoleTask: esc, q=quit // ?, h=help, o=display off, l=latency+metrics,
+        // k=reconnect KV now.
         // Keys handled by KioskController: f=fullscreen, s=sound, u=shuffle, n=next, m=mask.
         switch (c) {
         case '?':
         case 'h':
-            mLogger.log(TAG, "Keys: ?/h=help, esc/q=quit, u=shuffle, s=sound, m=mask, o=off");
+            mLogger.log(TAG, "Keys: ?/h=help, esc/q=quit, u=shuffle, s=sound, m=mask, o=off, l=latency+metrics, "
+                    + "k=reconnect KV");
+            return true;
+        case 'l':
+            mCameras.get().logLatency();
+            logMetrics();
             return true;
         case 'o':
             mDisplayController.get().onInvertDisplayKey();
             return true;
+        case 'k':
+            mKVController.get().reconnectNow();
+            return true;
         case 27:
         case 'q':
             requestQuit();
@@ -0,0 +1,132 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.display;
+
+import com.alflabs.trainmotion.cam.Cameras;
+import com.alflabs.trainmotion.util.Analytics;
+import com.alflabs.trainmotion.util.ILogger;
+import com.alflabs.trainmotion.util.StatsCollector;
+import com.alflabs.utils.IClock;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deep idle mode used while the display is off.
+ * <p/>
+ * Entering deep idle parks the camera analyzers, which releases their native buffers, as well as
+ * the stats and analytics loops, so that nothing wakes up periodically overnight. Exiting resumes
+ * them and measures the warm-up, i.e. the time till each analyzer processes its first frame.
+ * The warm-up is only monitored for {@link #WARM_UP_MAX_MS}, after which it is reported as
+ * incomplete.
+ * <p/>
+ * The caller (KioskController) is responsible for stopping/restarting the VLC players.
+ */
+@Singleton
+public class DeepIdleController {
+    private static final String TAG = DeepIdleController.class.getSimpleName();
+
+    private static final long WARM_UP_POLL_MS = 250;
+    private static final long WARM_UP_MAX_MS = 15 * 1000;
+
+    private final ILogger mLogger;
+    private final IClock mClock;
+    private final Cameras mCameras;
+    private final StatsCollector mStatsCollector;
+    private final Analytics mAnalytics;
+    private final ScheduledExecutorService mExecutor;
+
+    private boolean mIdle;
+    private long mExitTS;
+    private ScheduledFuture<?> mWarmUpFuture;
+
+    @Inject
+    public DeepIdleController(
+            ILogger logger,
+            IClock clock,
+            Cameras cameras,
+            StatsCollector statsCollector,
+            Analytics analytics,
+            @Named("SingleThreadExecutor") ScheduledExecutorService executor) {
+        mLogger = logger;
+        mClock = clock;
+        mCameras = cameras;
+        mStatsCollector = statsCollector;
+        mAnalytics = analytics;
+        mExecutor = executor;
+    }
+
+    public synchronized boolean isIdle() {
+        return mIdle;
+    }
+
+    public synchronized void enter() {
+        if (mIdle) return;
+        mIdle = true;
+        cancelWarmUp();
+        mLogger.log(TAG, "Enter deep idle");
+        mCameras.forEachCamera(camInfo -> camInfo.getAnalyzer().park());
+        mStatsCollector.park();
+        mAnalytics.park();
+    }
+
+    public synchronized void exit() {
+        if (!mIdle) return;
+        mIdle = false;
+        mLogger.log(TAG, "Exit deep idle");
+        mExitTS = mClock.elapsedRealtime();
+        mAnalytics.unpark();
+        mStatsCollector.unpark();
+        mCameras.forEachCamera(camInfo -> camInfo.getAnalyzer().unpark());
+        mWarmUpFuture = mExecutor.scheduleWithFixedDelay(
+                this::checkWarmUp, WARM_UP_POLL_MS, WARM_UP_POLL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void checkWarmUp() {
+        if (mIdle) return;
+        long elapsedMs = mClock.elapsedRealtime() - mExitTS;
+        StringBuilder sb = new StringBuilder();
+        boolean[] done = { true };
+        mCameras.forEachCamera(camInfo -> {
+            long warmUpMs = camInfo.getAnalyzer().getWarmUpMs();
+            done[0] &= warmUpMs >= 0;
+            sb.append(String.format(" cam%d=%s", camInfo.getIndex(), warmUpMs >= 0 ? warmUpMs + " ms" : "n/a"));
+        });
+
+        if (done[0]) {
+            mLogger.log(TAG, "Warm-up done in " + elapsedMs + " ms:" + sb);
+        } else if (elapsedMs >= WARM_UP_MAX_MS) {
+            mLogger.log(TAG, "Warm-up incomplete after " + elapsedMs + " ms:" + sb);
+        } else {
+            return;
+        }
+        cancelWarmUp();
+    }
+
+    private void cancelWarmUp() {
+        if (mWarmUpFuture != null) {
+            mWarmUpFuture.cancel(false);
+            mWarmUpFuture = null;
+        }
+    }
+}
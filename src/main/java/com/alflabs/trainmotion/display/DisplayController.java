@@ -18,33 +18,58 @@
 
 package com.alflabs.trainmotion.display;
 
+import com.alflabs.rx.IStream;
+import com.alflabs.rx.ISubscriber;
 import com.alflabs.trainmotion.ConfigIni;
+import com.alflabs.trainmotion.metrics.Gauge;
+import com.alflabs.trainmotion.metrics.JfrEvents;
+import com.alflabs.trainmotion.metrics.Metrics;
 import com.alflabs.trainmotion.util.Analytics;
 import com.alflabs.trainmotion.util.ILogger;
+import com.alflabs.trainmotion.util.IStartStop;
 import com.alflabs.trainmotion.util.KVController;
-import com.alflabs.trainmotion.util.ThreadLoop;
 import com.alflabs.utils.IClock;
 import com.alflabs.utils.RPair;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalTime;
 import java.time.ZoneId;
+import java.time.ZonedDateTime;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
  * Controls whether the display should be turned on/off.
+ * <p/>
+ * The state is evaluated on the shared single thread executor, only when something changes:
+ * a one-shot timer fires at the next daily on/off boundary, the KV connection state changes, or
+ * the console "o" key is used. Nothing runs in between.
+ * A KV disconnect only turns the display off if the client has not reconnected after
+ * {@link #KV_DISCONNECT_GRACE_MS}, so that a short network blip does not blank the display.
+ * <p/>
+ * The display script runs asynchronously: evaluating the state never waits for it. Scripts are
+ * serialized so that an "on" never overtakes a previous "off", and each is killed after
+ * {@link #SCRIPT_TIMEOUT_SEC}.
  */
 @Singleton
-public class DisplayController extends ThreadLoop {
+public class DisplayController implements IStartStop {
     private static final String TAG = DisplayController.class.getSimpleName();
-    private static final int FPS = 5;
-    private static final long IDLE_SLEEP_MS = 1000 / FPS;
+    private static final long SCRIPT_TIMEOUT_SEC = 5;
+    /** The on/off ranges are exclusive, so evaluate just past the boundary. */
+    private static final long BOUNDARY_MARGIN_MS = 1000;
+    /** Re-evaluate at least that often, in case the wall clock or time zone changes. */
+    private static final long MAX_TIMER_MS = 60 * 60 * 1000L;  // 1 hour
+    private static final long KV_DISCONNECT_GRACE_MS = 15 * 1000;
 
     private final IClock mClock;
     private final ILogger mLogger;
@@ -53,6 +78,9 @@ public class DisplayController extends ThreadLoop {
     private final ConsoleTask mConsoleTask;
     private final KVController mKVController;
     private final KioskController mKioskController;
+    private final ScheduledExecutorService mExecutor;
+    private final Gauge mDisplayOnGauge;
+    private final ISubscriber<Boolean> mConnectedSubscriber = this::onReceiveConnected;
     @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
     private Optional<LocalTime> mDailyTimeOff;
     @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
@@ -60,7 +88,12 @@ public class DisplayController extends ThreadLoop {
     private boolean mDisplayOn = true;
     private boolean mChanged = true;
     private boolean mInvertRequested = false;
+    private boolean mKVConnected;
     private String mDisplayScript;
+    private volatile boolean mStarted;
+    private ScheduledFuture<?> mTimerFuture;
+    private ScheduledFuture<?> mKVGraceFuture;
+    private CompletableFuture<Void> mLastScript = CompletableFuture.completedFuture(null);
 
     @Inject
     public DisplayController(
@@ -70,7 +103,9 @@ public class DisplayController extends ThreadLoop {
             ConfigIni configIni,
             ConsoleTask consoleTask,
             KVController kvController,
-            KioskController kioskController) {
+            KioskController kioskController,
+            Metrics metrics,
+            @Named("SingleThreadExecutor") ScheduledExecutorService executor) {
         mClock = clock;
         mLogger = logger;
         mAnalytics = analytics;
@@ -78,6 +113,9 @@ public class DisplayController extends ThreadLoop {
         mConsoleTask = consoleTask;
         mKVController = kvController;
         mKioskController = kioskController;
+        mExecutor = executor;
+        mDisplayOnGauge = metrics.gauge("display.on");
+        mDisplayOnGauge.set(1);
     }
 
     @Override
@@ -90,41 +128,83 @@ public class DisplayController extends ThreadLoop {
         invokeScript("start");
 
         if (!mDailyTimeOff.isPresent() || !mDailyTimeOn.isPresent()) {
-            // This does not abort this loop since we're also checking the KVController.
+            // This does not abort since we're also checking the KVController.
             mLogger.log(TAG, "Missing daily time on/off; will not control display.");
         } else if (!mDailyTimeOn.get().isBefore(mDailyTimeOff.get())) {
             mLogger.log(TAG, "Daily time ON must be before time OFF; will not control display.");
             return;
         }
 
-        super.start("Thread-DisplayOnOff");
+        mStarted = true;
+        mExecutor.execute(this::evaluate);
+        // The stream publishes the latest connection state as soon as we subscribe.
+        mKVController.getConnectedStream().subscribe(mConnectedSubscriber);
     }
 
     @Override
     public void stop() throws Exception {
-        invokeScript("stop");
+        mStarted = false;
+        mExecutor.execute(() -> {
+            cancelTimer();
+            cancelKVGrace();
+        });
+        CompletableFuture<Void> script = invokeScript("stop");
         mLogger.log(TAG, "Stop");
-        super.stop();
+        try {
+            script.get(2 * SCRIPT_TIMEOUT_SEC, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            mLogger.log(TAG, "Stop script did not complete: " + e);
+        }
         mLogger.log(TAG, "Stopped");
     }
 
     /**
      * This toggles the *inversion* of the state on-off.
      *
-     * Since the state is recomputed at each loop, what the "o" key does is truely
+     * Since the state is recomputed at each evaluation, what the "o" key does is truely
      * _invert_ the result of the state check.
      */
     public void onInvertDisplayKey() {
-        mChanged = true;
-        mInvertRequested = !mInvertRequested;
+        if (!mStarted) return;
+        mExecutor.execute(() -> {
+            mChanged = true;
+            mInvertRequested = !mInvertRequested;
+            evaluate();
+        });
     }
 
-    @Override
-    protected void _runInThreadLoop() throws EndLoopException {
-        LocalTime localTime = Instant
+    private void onReceiveConnected(IStream<? extends Boolean> stream, Boolean connected) {
+        if (!mStarted) return;
+        mExecutor.execute(() -> {
+            cancelKVGrace();
+            if (connected || !mKVConnected) {
+                mKVConnected = connected;
+                evaluate();
+            } else {
+                mLogger.log(TAG, "KV disconnected; grace period before turning the display off.");
+                mKVGraceFuture = mExecutor.schedule(() -> {
+                    mKVGraceFuture = null;
+                    mKVConnected = false;
+                    evaluate();
+                }, KV_DISCONNECT_GRACE_MS, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    private void cancelKVGrace() {
+        if (mKVGraceFuture != null) {
+            mKVGraceFuture.cancel(false);
+            mKVGraceFuture = null;
+        }
+    }
+
+    /** Must be executed on the executor thread. */
+    private void evaluate() {
+        if (!mStarted) return;
+        ZonedDateTime now = Instant
                         .ofEpochMilli(mClock.elapsedRealtime())
-                        .atZone(ZoneId.systemDefault())
-                        .toLocalTime();
+                        .atZone(ZoneId.systemDefault());
+        LocalTime localTime = now.toLocalTime();
 
         // Perform the time-range check if enabled in the config.
         if (mDailyTimeOff.isPresent() && mDailyTimeOn.isPresent()) {
@@ -134,11 +214,12 @@ public class DisplayController extends ThreadLoop {
                 mChanged = true;
                 mDisplayOn = timeOn;
             }
+            scheduleTimer(now);
         }
 
         // Perform the KV connection check if enabled in the config.
         if (mKVController.isEnabled()) {
-            boolean isKVon = mKVController.isConnected();
+            boolean isKVon = mKVConnected;
             if (isKVon != mDisplayOn) {
                 mChanged = true;
                 mDisplayOn = isKVon;
@@ -156,33 +237,61 @@ public class DisplayController extends ThreadLoop {
                     new StringInfo(" | " + (displayOn ? "ON" : "OFF"),
                             displayOn ? StringInfo.Flag.On : StringInfo.Flag.Default) );
             invokeScript(displayOn ? "on" : "off");
+            mDisplayOnGauge.set(displayOn ? 1 : 0);
+            JfrEvents.DisplayChanged event = new JfrEvents.DisplayChanged();
+            if (event.shouldCommit()) {
+                event.on = displayOn;
+                event.inverted = mInvertRequested;
+                event.commit();
+            }
             mKioskController.onDisplayOnChanged(displayOn);
             mChanged = false;
         }
+    }
 
-        try {
-            Thread.sleep(IDLE_SLEEP_MS);
-        } catch (Exception e) {
-            mLogger.log(TAG, "Idle loop interrupted: " + e);
+    /** Schedules the next evaluation just after the next daily on or off boundary. */
+    private void scheduleTimer(ZonedDateTime now) {
+        cancelTimer();
+        long delayMs = Math.min(MAX_TIMER_MS, Math.min(
+                millisUntil(now, mDailyTimeOn.get()),
+                millisUntil(now, mDailyTimeOff.get())) + BOUNDARY_MARGIN_MS);
+        mTimerFuture = mExecutor.schedule(this::evaluate, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelTimer() {
+        if (mTimerFuture != null) {
+            mTimerFuture.cancel(false);
+            mTimerFuture = null;
+        }
+    }
+
+    private static long millisUntil(ZonedDateTime now, LocalTime time) {
+        ZonedDateTime next = now.with(time);
+        if (!next.isAfter(now)) {
+            next = next.plusDays(1);
         }
+        return Duration.between(now, next).toMillis();
     }
 
     /**
-     * Invokes the script.
-     * This is executed in the Display Controller thread loop.
-     * The script commands are expected to be short, and the display state is not expected
-     * to change very often, so we're fine with a synchronous exec for now.
-     * We give the command up to ~5 seconds to execute.
-     * In any case, we're not blocking any of the train-motion detection.
+     * Invokes the script asynchronously, after any previous script invocation completes.
+     * The script commands are expected to be short; each invocation is given up to
+     * {@link #SCRIPT_TIMEOUT_SEC} seconds to execute before being killed.
+     * Returns a future that completes when the script has terminated.
      */
-    private void invokeScript(String state) {
-        try {
-            mAnalytics.sendEvent("Display", state);
+    private synchronized CompletableFuture<Void> invokeScript(String state) {
+        mAnalytics.sendEvent("Display", state);
 
-            if (mDisplayScript.isEmpty()) {
-                return;
-            }
+        if (mDisplayScript.isEmpty()) {
+            return mLastScript;
+        }
 
+        mLastScript = mLastScript.thenCompose(ignored -> execScript(state));
+        return mLastScript;
+    }
+
+    private CompletableFuture<Void> execScript(String state) {
+        try {
             RPair<String, String> shell = getShell();
             List<String> args = Stream
                     .of(shell.first, shell.second, mDisplayScript, state)
@@ -192,11 +301,21 @@ public class DisplayController extends ThreadLoop {
             ProcessBuilder pb = new ProcessBuilder(args);
             pb.inheritIO();
             Process p = pb.start();
-            boolean closed = p.waitFor(5, TimeUnit.SECONDS);
-            mLogger.log(TAG, "Exec display script terminated: " + closed);
+            return p.onExit()
+                    .orTimeout(SCRIPT_TIMEOUT_SEC, TimeUnit.SECONDS)
+                    .handle((process, error) -> {
+                        if (error != null) {
+                            mLogger.log(TAG, "Exec display script timed out: " + state);
+                            p.destroyForcibly();
+                        } else {
+                            mLogger.log(TAG, "Exec display script terminated: " + process.exitValue());
+                        }
+                        return null;
+                    });
 
         } catch (Exception e) {
             mLogger.log(TAG, "Script exec failed: " + e);
+            return CompletableFuture.completedFuture(null);
         }
     }
 
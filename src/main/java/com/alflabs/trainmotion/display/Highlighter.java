@@ -72,6 +72,7 @@ public class Highlighter {
             if (motionDetected) {
                 mHighlightInitialOnMS = nowMs;
                 mHighlightOffMS = 0;
+                mMotionDetector.onHighlightChanged(true);
             }
         } else {
             if (motionDetected) {
@@ -91,6 +92,7 @@ public class Highlighter {
                     // Motion was ON and has stopped for at least the OFF duration.
                     mHighlightInitialOnMS = 0;
                     mHighlightOffMS = 0;
+                    mMotionDetector.onHighlightChanged(false);
                     mAnalytics.sendEvent("Highlight", "cam" + mCamIndex,
                             Long.toString(durationSinceLastOn));
                 }
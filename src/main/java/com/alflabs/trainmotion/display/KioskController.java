@@ -19,17 +19,24 @@
 package com.alflabs.trainmotion.display;
 
 import com.alflabs.trainmotion.ConfigIni;
+import com.alflabs.trainmotion.MediaInfoCache;
 import com.alflabs.trainmotion.Playlist;
 import com.alflabs.trainmotion.cam.CamInfo;
 import com.alflabs.trainmotion.cam.Cameras;
+import com.alflabs.trainmotion.metrics.Histogram;
+import com.alflabs.trainmotion.metrics.Info;
+import com.alflabs.trainmotion.metrics.JfrEvents;
+import com.alflabs.trainmotion.metrics.Metrics;
 import com.alflabs.trainmotion.util.Analytics;
 import com.alflabs.trainmotion.util.ILogger;
 import com.alflabs.trainmotion.util.IStartStop;
+import com.alflabs.trainmotion.util.StartupOrchestrator;
 import com.alflabs.utils.IClock;
 import com.google.common.base.Preconditions;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 import java.io.File;
 import java.util.ArrayList;
@@ -37,6 +44,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Kiosk Display is split in 2 parts: a KioskView class encapsulates all the Swing-related APIs,
@@ -54,8 +65,13 @@ public class KioskController implements IStartStop {
     private static final long PLAYER_ZOOM_MIN_DURATION_MS = 5*1000;
     // Player default volume percentage
     private static final int PLAYER_VOLUME_DEFAULT = 50;
+    private static final int PLAYLIST_NO_REPEAT_DEFAULT = 3;
     // Player max volume percentage
     private static final int PLAYER_VOLUME_MAX = 75;
+    // Reference loudness (RMS dBFS) played at the default volume when a video has no volume property
+    private static final double PLAYER_LOUDNESS_TARGET_DB = -20;
+    // Max loudness correction applied to the default volume, in dB
+    private static final double PLAYER_LOUDNESS_MAX_GAIN_DB = 6;
 
     private final IClock mClock;
     private final ILogger mLogger;
@@ -65,6 +81,11 @@ public class KioskController implements IStartStop {
     private final Analytics mAnalytics;
     private final ConsoleTask mConsoleTask;
     private final KioskView mView;
+    private final DeepIdleController mDeepIdle;
+    private final CameraWatchdog mCameraWatchdog;
+    private final StartupOrchestrator mStartup;
+    // Note: The executor is a dagger singleton, shared with Analytics.
+    private final ScheduledExecutorService mExecutor;
     private final Map<CamInfo, CameraPlaylist> mCameraPlaylist = new HashMap<>();
 
     /** Force zoom: 0=default, 1=main always zoomed, 2=main never zoomed. */
@@ -74,11 +95,28 @@ public class KioskController implements IStartStop {
     private boolean mDisplayOn = true;
     private int mPlayerDefaultVolume = PLAYER_VOLUME_DEFAULT;
     private long mPlayerZoomEndTS;
+    /** The next main video, picked ahead of time so that the player can prepare it. */
+    @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
+    private Optional<File> mNextMain = Optional.empty();
+    /** Incremented each time a main video starts. Used to ignore stale scheduled cuts. */
+    private int mMainGeneration;
+    /** Scheduled cut to the next video when the current one has a "seconds" property. */
+    private ScheduledFuture<?> mMainCutFuture;
+
+    /** When the last main video finished (VLC thread), or 0 if not waiting for the next one. */
+    private final AtomicLong mMainFinishedTS = new AtomicLong();
+    /** Instrumentation for the gap between main videos. */
+    private final Histogram mMainGapMs;
+    /** Instrumentation for the duration of the repaint timer tick on the EDT. */
+    private final Histogram mRepaintTickUs;
+    /** The name of the main video being played, for the status server. */
+    private final Info mMainVideo;
 
     public interface Callbacks {
         void onWindowClosing();
         boolean onProcessKey(char keyChar);
         void onRepaintTimerTick();
+        void onMainPlayerPlaying();
         void onMainPlayerFinished();
         void onMainPlayerError();
         void onCameraPlayerFinished(@Nonnull CamInfo camInfo);
@@ -96,7 +134,12 @@ public class KioskController implements IStartStop {
             ConfigIni configIni,
             Analytics analytics,
             ConsoleTask consoleTask,
-            KioskView kioskView) {
+            KioskView kioskView,
+            DeepIdleController deepIdle,
+            CameraWatchdog cameraWatchdog,
+            StartupOrchestrator startup,
+            Metrics metrics,
+            @Named("SingleThreadExecutor") ScheduledExecutorService executor) {
         mClock = clock;
         mLogger = logger;
         mCameras = cameras;
@@ -105,6 +148,13 @@ public class KioskController implements IStartStop {
         mAnalytics = analytics;
         mConsoleTask = consoleTask;
         mView = kioskView;
+        mDeepIdle = deepIdle;
+        mCameraWatchdog = cameraWatchdog;
+        mStartup = startup;
+        mExecutor = executor;
+        mMainGapMs = metrics.histogram("main.gap_ms");
+        mRepaintTickUs = metrics.histogram("ui.repaint_tick_us");
+        mMainVideo = metrics.info("main.video");
     }
 
     @Override
@@ -123,6 +173,7 @@ public class KioskController implements IStartStop {
         mDisplayOn = true;
         // Start shuffled
         mMainPlaylist.setShuffle(true);
+        mMainPlaylist.setNoRepeatWindow(mConfigIni.getPlaylistNoRepeat(PLAYLIST_NO_REPEAT_DEFAULT));
         // Get desired volume
         mPlayerDefaultVolume = mConfigIni.getVolumePct(PLAYER_VOLUME_DEFAULT);
 
@@ -130,11 +181,13 @@ public class KioskController implements IStartStop {
         mView.setMainPlayerMute(false);
         playNextMain();
         mCameras.forEachCamera(this::playNextCamera);
+        mCameraWatchdog.start(this::playNextCamera);
     }
 
     @Override
     public void stop() throws Exception {
         mLogger.log(TAG, "Stop");
+        mCameraWatchdog.stop();
         mView.release();
     }
 
@@ -154,23 +207,41 @@ public class KioskController implements IStartStop {
             if (mConsoleTask.isQuitRequested()) {
                 return;
             }
+            long startNs = System.nanoTime();
 
             mView.setBottomStatus(mConsoleTask.getLineInfos());
 
             boolean hasHighlight = mView.updateAllHighlights();
 
             mView.setPlayerZoomed(!(mForceZoom == 2 || (hasHighlight && mForceZoom == 0)));
+
+            mRepaintTickUs.record((System.nanoTime() - startNs) / 1000);
+        }
+
+        @Override
+        public void onMainPlayerPlaying() {
+            // This executes on a VLC thread.
+            mStartup.milestone("first_video");
+            long finishedTS = mMainFinishedTS.getAndSet(0);
+            if (finishedTS > 0) {
+                long gapMs = mClock.elapsedRealtime() - finishedTS;
+                mMainGapMs.record(gapMs);
+                mLogger.log(TAG, String.format("Main player gap %d ms (avg %d ms, max %d ms, n=%d)",
+                        gapMs, mMainGapMs.getAverage(), mMainGapMs.getMax(), mMainGapMs.getCount()));
+            }
         }
 
         @Override
         public void onMainPlayerFinished() {
             mLogger.log(TAG, "Media Finished for main player");
+            mMainFinishedTS.set(mClock.elapsedRealtime());
             playNextMain();
         }
 
         @Override
         public void onMainPlayerError() {
             mLogger.log(TAG, "Media Error for main player");
+            mMainFinishedTS.set(mClock.elapsedRealtime());
             playNextMain();
         }
 
@@ -198,7 +269,7 @@ public class KioskController implements IStartStop {
     };
 
 
-    /** Invoked async from DisplayController's thread. */
+    /** Invoked async from DisplayController on the single thread executor. */
     public void onDisplayOnChanged(boolean displayOn) {
         mDisplayOn = displayOn;
         mView.invokeLater(() -> {
@@ -207,11 +278,19 @@ public class KioskController implements IStartStop {
             }
             mLogger.log(TAG, "Display on state changed to " + mDisplayOn);
             if (mDisplayOn) {
+                mDeepIdle.exit();
+                mView.startTimer();
                 playNextMain();
                 mCameras.forEachCamera(KioskController.this::playNextCamera);
+                mCameraWatchdog.resume();
             } else {
+                mCameraWatchdog.pause();
+                cancelMainCut();
                 mView.stopMainPlayer();
                 mCameras.forEachCamera(KioskController.this::stopCamera);
+                // Nothing to repaint or analyze till the display is back on.
+                mView.stopTimer();
+                mDeepIdle.enter();
             }
         });
     }
@@ -252,37 +331,132 @@ public class KioskController implements IStartStop {
     }
 
     public void playNextMain() {
+        mView.invokeLater(this::playNextMainNow);
+    }
+
+    /**
+     * Invoked from the executor when the current main video has played for its "seconds"
+     * property. Ignored if another video has started since the cut was scheduled.
+     */
+    private void onMainCut(int generation) {
         mView.invokeLater(() -> {
-            if (!mDisplayOn) {
-                mLogger.log(TAG, "Play next request ignore: display off");
+            if (generation != mMainGeneration) {
                 return;
             }
+            mLogger.log(TAG, "Main player cut to next video");
+            mMainFinishedTS.set(mClock.elapsedRealtime());
+            playNextMainNow();
+        });
+    }
 
-            if (mConsoleTask.isQuitRequested()) {
-                return;
+    private void cancelMainCut() {
+        if (mMainCutFuture != null) {
+            mMainCutFuture.cancel(false /* mayInterruptIfRunning */);
+            mMainCutFuture = null;
+        }
+    }
+
+    /** Must be invoked on the Swing UI thread. */
+    private void playNextMainNow() {
+        if (!mDisplayOn) {
+            mLogger.log(TAG, "Play next request ignore: display off");
+            return;
+        }
+
+        if (mConsoleTask.isQuitRequested()) {
+            return;
+        }
+
+        // The pre-picked video may have been removed by a playlist reload since then.
+        Optional<File> next = mNextMain.filter(mMainPlaylist::contains);
+        if (!next.isPresent()) {
+            next = mMainPlaylist.getNext();
+        }
+        mNextMain = Optional.empty();
+        if (next.isPresent()) {
+            File file = next.get();
+            Optional<Playlist.FileProperties> props = mMainPlaylist.getProperties(file);
+            Optional<MediaInfoCache.MediaInfo> info = mMainPlaylist.getMediaInfo(file);
+            int volume = computeVolume(props, info);
+            int startSec = computeStartSec(file);
+            int seconds = props.map(Playlist.FileProperties::getSeconds).orElse(-1);
+            if (seconds > 0 && info.isPresent() && info.get().getDurationMs() > 0
+                    && 1000L * (startSec + seconds) >= info.get().getDurationMs()) {
+                // The video will end by itself before the cut.
+                seconds = -1;
             }
 
-            Optional<File> next = mMainPlaylist.getNext();
-            if (next.isPresent()) {
-                File file = next.get();
-                mLogger.log(TAG, "MAIN Player file = " + file.getAbsolutePath());
-                mAnalytics.sendEvent("PlayVideo", file.getName());
-                mConsoleTask.updateLineInfo(/* F */ "9v",
-                        new StringInfo(" | " + file.getName().replace(".mp4", "")));
-
-                int volume = mPlayerDefaultVolume;
-                Optional<Playlist.FileProperties> props = mMainPlaylist.getProperties(file);
-                if (props.isPresent()) {
-                    int v = props.get().getVolume();
-                    if (v >= 0) {
-                        volume = Math.min(v, PLAYER_VOLUME_MAX);
-                    }
-                }
+            // Start playback first; everything else is not on the critical path.
+            cancelMainCut();
+            mMainGeneration++;
+            mView.setMainPlayerVolume(mPlayerMuted ? 0 : volume);
+            mView.startMainPlayer(file, startSec);
+            mMainVideo.set(file.getName());
+            JfrEvents.PlaylistTransition event = new JfrEvents.PlaylistTransition();
+            if (event.shouldCommit()) {
+                event.video = file.getName();
+                event.startSec = startSec;
+                event.cutSec = seconds;
+                event.volume = volume;
+                event.commit();
+            }
 
-                mView.setMainPlayerVolume(mPlayerMuted ? 0 : volume);
-                mView.startMainPlayer(file);
+            if (seconds > 0) {
+                final int generation = mMainGeneration;
+                mMainCutFuture = mExecutor.schedule(
+                        () -> onMainCut(generation), seconds, TimeUnit.SECONDS);
             }
-        });
+
+            mLogger.log(TAG, "MAIN Player file = " + file.getAbsolutePath());
+            mAnalytics.sendEvent("PlayVideo", file.getName());
+            mConsoleTask.updateLineInfo(/* F */ "9v",
+                    new StringInfo(" | " + file.getName().replace(".mp4", "")));
+
+            // Pick the next video now so that the view can prepare it while this one plays.
+            mNextMain = mMainPlaylist.getNext();
+            mNextMain.ifPresent(nextFile -> mView.prepareNextMainPlayer(nextFile, computeStartSec(nextFile)));
+        }
+    }
+
+    /**
+     * Returns the volume for the video: the "volume" property if present, otherwise the
+     * default volume adjusted to the loudness of the video, if it is known.
+     */
+    @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
+    private int computeVolume(
+            @Nonnull Optional<Playlist.FileProperties> props,
+            @Nonnull Optional<MediaInfoCache.MediaInfo> info) {
+        if (props.isPresent()) {
+            int v = props.get().getVolume();
+            if (v >= 0) {
+                return Math.min(v, PLAYER_VOLUME_MAX);
+            }
+        }
+        if (info.isPresent() && info.get().getLoudness() > MediaInfoCache.LOUDNESS_NONE) {
+            double gainDb = PLAYER_LOUDNESS_TARGET_DB - info.get().getLoudness();
+            gainDb = Math.max(-PLAYER_LOUDNESS_MAX_GAIN_DB, Math.min(PLAYER_LOUDNESS_MAX_GAIN_DB, gainDb));
+            int v = (int) Math.round(mPlayerDefaultVolume * Math.pow(10, gainDb / 20));
+            return Math.max(0, Math.min(v, PLAYER_VOLUME_MAX));
+        }
+        return mPlayerDefaultVolume;
+    }
+
+    /**
+     * Returns the "start" property of the video, in seconds.
+     * This is ignored if the media cache indicates the video is shorter than that.
+     */
+    private int computeStartSec(@Nonnull File file) {
+        int startSec = mMainPlaylist.getProperties(file)
+                .map(p -> Math.max(0, p.getStart()))
+                .orElse(0);
+        long durationMs = mMainPlaylist.getMediaInfo(file)
+                .map(MediaInfoCache.MediaInfo::getDurationMs)
+                .orElse(0L);
+        if (durationMs > 0 && 1000L * startSec >= durationMs) {
+            mLogger.log(TAG, "Ignore start " + startSec + "s beyond end of " + file.getName());
+            startSec = 0;
+        }
+        return startSec;
     }
 
     public void playNextCamera(@Nonnull CamInfo camInfo) {
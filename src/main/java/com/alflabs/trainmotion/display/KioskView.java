@@ -24,18 +24,21 @@ import com.alflabs.rx.IStream;
 import com.alflabs.rx.ISubscriber;
 import com.alflabs.trainmotion.cam.CamInfo;
 import com.alflabs.trainmotion.cam.Cameras;
+import com.alflabs.trainmotion.util.FpsMeasurer;
 import com.alflabs.trainmotion.util.FpsMeasurerFactory;
 import com.alflabs.trainmotion.util.ILogger;
 import com.alflabs.trainmotion.util.KVController;
 import com.alflabs.trainmotion.util.SwingUISchedulers;
+import com.alflabs.trainmotion.util.ThreadLoop;
+import com.alflabs.trainmotion.util.ThreadLoopRuntime;
 import com.alflabs.utils.IClock;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 import javax.swing.BorderFactory;
 import javax.swing.JFrame;
 import javax.swing.SwingUtilities;
-import javax.swing.Timer;
 import javax.swing.UIManager;
 import java.awt.Color;
 import java.awt.Dimension;
@@ -43,13 +46,14 @@ import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.Point;
 import java.awt.Toolkit;
-import java.awt.event.ActionEvent;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.File;
 import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static javax.swing.WindowConstants.DO_NOTHING_ON_CLOSE;
 
@@ -72,6 +76,8 @@ public class KioskView {
     private final KVController mKVController;
     private final HighlighterFactory mHighlighterFactory;
     private final FpsMeasurerFactory mFpsMeasurerFactory;
+    private final ThreadLoopRuntime mLoopRuntime;
+    private final ScheduledExecutorService mExecutor;
 
     private KioskController.Callbacks mCallbacks;
     private JFrame mFrame;
@@ -79,7 +85,7 @@ public class KioskView {
     private StatusView mBottomStatus;
     private RtacPsaPanel mRtacPsaPanel;
     private RtacDataPanel mRtacDataPanel;
-    private Timer mRepaintTimer;
+    private RepaintLoop mRepaintLoop;
 
     private final ISubscriber<String> mKeyChangedSubscriber = this::onReceiveKeyChanged;
     private final ISubscriber<Boolean> mConnectedSubscriber = this::onReceiveConnected;
@@ -92,7 +98,9 @@ public class KioskView {
             ConsoleTask consoleTask,
             KVController kvController,
             HighlighterFactory highlighterFactory,
-            FpsMeasurerFactory fpsMeasurerFactory) {
+            FpsMeasurerFactory fpsMeasurerFactory,
+            ThreadLoopRuntime loopRuntime,
+            @Named("SingleThreadExecutor") ScheduledExecutorService executor) {
         mLogger = logger;
         mClock = clock;
         mCameras = cameras;
@@ -100,6 +108,8 @@ public class KioskView {
         mKVController = kvController;
         mHighlighterFactory = highlighterFactory;
         mFpsMeasurerFactory = fpsMeasurerFactory;
+        mLoopRuntime = loopRuntime;
+        mExecutor = executor;
     }
 
     public void invokeLater(Runnable r) {
@@ -159,7 +169,7 @@ public class KioskView {
                 mCallbacks);
         mFrame.add(mPlayersView, constraint(1, 0, 1, 1, 1, 1, GridBagConstraints.BOTH));
 
-        mRtacDataPanel = new RtacDataPanel(mLogger);
+        mRtacDataPanel = new RtacDataPanel(mLogger, mExecutor);
         mFrame.add(mRtacDataPanel, constraint(0, 0, 1, 1, 0, 0, GridBagConstraints.VERTICAL, GridBagConstraints.NORTHWEST));
 
         mRtacPsaPanel = new RtacPsaPanel(mLogger);
@@ -219,13 +229,15 @@ public class KioskView {
             mFrame.setExtendedState(mFrame.getExtendedState() | JFrame.MAXIMIZED_BOTH);
         }
 
-        mKVController.getKeyChangedStream().subscribe(SwingUISchedulers.swingInvokeLater(), mKeyChangedSubscriber);
+        // Key changes come in bursts (e.g. all keys on connection): apply them once per frame.
+        mKVController.getKeyChangedStream().subscribe(
+                SwingUISchedulers.swingCoalescing(1000 / displayFps), mKeyChangedSubscriber);
         mKVController.getConnectedStream().subscribe(SwingUISchedulers.swingInvokeLater(), mConnectedSubscriber);
 
-        mRepaintTimer = new Timer(1000 / displayFps, this::onRepaintTimerTick);
+        mRepaintLoop = new RepaintLoop(displayFps);
     }
 
-    private void onRepaintTimerTick(ActionEvent event) {
+    private void onRepaintTimerTick() {
         if (mFrame == null || mPlayersView == null) {
             return;
         }
@@ -247,7 +259,7 @@ public class KioskView {
 
     public void release() {
         SwingUtilities.invokeLater(() -> {
-            mRepaintTimer.stop();
+            mRepaintLoop.release();
             mPlayersView.releaseSync();
             if (mFrame != null) {
                 mFrame.dispose();
@@ -257,8 +269,11 @@ public class KioskView {
     }
 
     public void startTimer() {
-        // TODO does this really need SwingUtilities.invokeLater ?
-        mRepaintTimer.start();
+        mRepaintLoop.resume();
+    }
+
+    public void stopTimer() {
+        mRepaintLoop.park();
     }
 
     public void setMainPlayerMute(boolean isMuted) {
@@ -273,8 +288,12 @@ public class KioskView {
         return mPlayersView.getMainPlayerVolume();
     }
 
-    public void startMainPlayer(File media) {
-        mPlayersView.startMainPlayer(media);
+    public void startMainPlayer(File media, int startSec) {
+        mPlayersView.startMainPlayer(media, startSec);
+    }
+
+    public void prepareNextMainPlayer(File media, int startSec) {
+        mPlayersView.prepareNextMainPlayer(media, startSec);
     }
 
     public void stopMainPlayer() {
@@ -294,7 +313,7 @@ public class KioskView {
     }
 
     private void onReceiveKeyChanged(IStream<? extends String> stream, String key) {
-        // This executes on the AWT UI Thread via SwingUtilities.invokeLater.
+        // This executes on the AWT UI Thread via a coalescing Swing timer.
         IKeyValue kvClient = mKVController.getKeyValueClient();
         if (kvClient == null) return;
         String value = kvClient.getValue(key);
@@ -312,4 +331,59 @@ public class KioskView {
         // This executes on the AWT UI Thread via SwingUtilities.invokeLater.
         mRtacPsaPanel.updateText(null);
     }
+
+    /**
+     * Paces the repaint ticks with absolute deadlines, whereas a Swing Timer drifts as it waits
+     * a fixed delay after each tick. Ticks run on the EDT. If the EDT has not run the previous
+     * tick yet, the new one is dropped rather than queued.
+     */
+    private class RepaintLoop extends ThreadLoop {
+        private final FpsMeasurer mFpsMeasurer;
+        private final AtomicBoolean mTickPending = new AtomicBoolean();
+        private final Runnable mTick = () -> {
+            mTickPending.set(false);
+            onRepaintTimerTick();
+        };
+
+        RepaintLoop(int displayFps) {
+            super(mLoopRuntime);
+            mFpsMeasurer = mFpsMeasurerFactory.create();
+            mFpsMeasurer.setFrameRate(displayFps);
+            mFpsMeasurer.setMetricsName("ui.repaint");
+        }
+
+        void resume() {
+            unpark();
+            if (mThread == null) {
+                try {
+                    start("Thread-Repaint");
+                } catch (Exception e) {
+                    mLogger.log(TAG, "Repaint loop start failed: " + e);
+                }
+            }
+        }
+
+        void release() {
+            try {
+                stop();
+            } catch (Exception e) {
+                mLogger.log(TAG, "Repaint loop stop failed: " + e);
+            }
+        }
+
+        @Override
+        protected void _runInThreadLoop() {
+            mFpsMeasurer.startTick();
+            if (mTickPending.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(mTick);
+            }
+            mFpsMeasurer.endWait();
+        }
+
+        @Override
+        protected void _onUnparked() {
+            // Don't count the parked time as a late frame.
+            mFpsMeasurer.reset();
+        }
+    }
 }
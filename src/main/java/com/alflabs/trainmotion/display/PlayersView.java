@@ -25,12 +25,16 @@ import com.alflabs.trainmotion.util.ILogger;
 import com.alflabs.utils.IClock;
 import com.google.common.io.Files;
 import com.google.common.io.Resources;
+import uk.co.caprica.vlcj.factory.MediaPlayerFactory;
+import uk.co.caprica.vlcj.media.Media;
+import uk.co.caprica.vlcj.media.MediaRef;
 import uk.co.caprica.vlcj.player.base.MediaPlayer;
 import uk.co.caprica.vlcj.player.base.MediaPlayerEventAdapter;
 import uk.co.caprica.vlcj.player.component.EmbeddedMediaPlayerComponent;
 
 import javax.swing.JComponent;
 import java.awt.Dimension;
+import java.awt.Rectangle;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.io.File;
@@ -49,6 +53,10 @@ public class PlayersView extends JComponent {
     private final List<VlcMediaComponent> mCameraPlayers = new ArrayList<>();
     private EmbeddedMediaPlayerComponent mMainPlayer;
     private boolean mPlayerZoomed;
+    /** The next main media, created and parsed ahead of time. Null if none. */
+    private Media mNextMainMedia;
+    private File mNextMainFile;
+    private int mNextMainStartSec;
 
     public PlayersView(
             ILogger logger,
@@ -62,6 +70,12 @@ public class PlayersView extends JComponent {
         add(mMainPlayer);
 
         mMainPlayer.mediaPlayer().events().addMediaPlayerEventListener(new MediaPlayerEventAdapter() {
+            @Override
+            public void playing(MediaPlayer mediaPlayer) {
+                super.playing(mediaPlayer);
+                mCallbacks.onMainPlayerPlaying();
+            }
+
             @Override
             public void finished(MediaPlayer mediaPlayer) {
                 super.finished(mediaPlayer);
@@ -148,6 +162,7 @@ public class PlayersView extends JComponent {
     }
 
     public void releaseSync() {
+        releaseNextMainMedia();
         if (mMainPlayer != null) {
             mMainPlayer.mediaPlayer().controls().stop();
             mMainPlayer.release();
@@ -177,13 +192,70 @@ public class PlayersView extends JComponent {
         return mMainPlayer == null ? -1 : mMainPlayer.mediaPlayer().audio().volume();
     }
 
-    public void startMainPlayer(File media) {
+    /**
+     * Starts playing the main media.
+     *
+     * @param startSec Number of seconds to skip at the beginning of the media. 0 for none.
+     */
+    public void startMainPlayer(File media, int startSec) {
         if (mMainPlayer != null) {
             mMainPlayer.setVisible(true);
-            mMainPlayer.mediaPlayer().media().play(media.getAbsolutePath());
+            if (mNextMainMedia != null && media.equals(mNextMainFile) && startSec == mNextMainStartSec) {
+                // Play the media prepared ahead of time. The player retains its own
+                // reference so we can release ours right away.
+                MediaRef ref = mNextMainMedia.newMediaRef();
+                mMainPlayer.mediaPlayer().media().play(ref);
+                ref.release();
+            } else {
+                mMainPlayer.mediaPlayer().media().play(media.getAbsolutePath(), mediaOptions(startSec));
+            }
+            releaseNextMainMedia();
+        }
+    }
+
+    /**
+     * Creates and asynchronously parses the next main media while the current one plays.
+     * <p/>
+     * This only reads the metadata ahead of time (and warms the OS file cache): the player
+     * still closes the current input and opens the next one when switching, so the transition
+     * is not gapless. The remaining gap is measured in the "main.gap_ms" metric.
+     *
+     * @param startSec Number of seconds to skip at the beginning of the media. 0 for none.
+     */
+    public void prepareNextMainPlayer(File media, int startSec) {
+        if (mMainPlayer == null || (media.equals(mNextMainFile) && startSec == mNextMainStartSec)) {
+            return;
+        }
+        releaseNextMainMedia();
+        try {
+            MediaPlayerFactory factory = mMainPlayer.mediaPlayerFactory();
+            Media next = factory.media().newMedia(media.getAbsolutePath(), mediaOptions(startSec));
+            if (next != null) {
+                next.parsing().parse();
+                mNextMainMedia = next;
+                mNextMainFile = media;
+                mNextMainStartSec = startSec;
+            }
+        } catch (Throwable t) {
+            mLogger.log(TAG, "Error preparing next media " + media + ": " + t);
         }
     }
 
+    private static String[] mediaOptions(int startSec) {
+        if (startSec > 0) {
+            return new String[] { ":start-time=" + startSec };
+        }
+        return new String[0];
+    }
+
+    private void releaseNextMainMedia() {
+        if (mNextMainMedia != null) {
+            mNextMainMedia.release();
+            mNextMainMedia = null;
+        }
+        mNextMainFile = null;
+    }
+
     public void stopMainPlayer() {
         if (mMainPlayer != null) {
             mMainPlayer.mediaPlayer().controls().stop();
@@ -216,15 +288,24 @@ public class PlayersView extends JComponent {
     public void setPlayerZoomed(boolean playerZoomed) {
         if (mPlayerZoomed != playerZoomed) {
             mPlayerZoomed = playerZoomed;
-            System.out.println("@@ PV mPlayerZoomed = " + mPlayerZoomed);
+            mLogger.log(ILogger.Level.DEBUG, TAG, () -> "mPlayerZoomed = " + playerZoomed);
             onComponentResized();
+            if (!playerZoomed) {
+                synchronized (mCameraPlayers) {
+                    for (VlcMediaComponent canvas : mCameraPlayers) {
+                        if (canvas.getHighlighter().isHighlighted()) {
+                            canvas.getCamInfo().getLatency().onZoomOut();
+                        }
+                    }
+                }
+            }
         }
     }
 
     private void onComponentResized() {
         int w = getWidth();
         int h = getHeight();
-        System.out.println("@@ PV onComponentResized = " + w + "x" + h);
+        mLogger.log(ILogger.Level.DEBUG, TAG, () -> "onComponentResized = " + w + "x" + h);
 
         setMediaPlayerSize(w, h);
         resizeVideoCanvases(w, h);
@@ -234,14 +315,20 @@ public class PlayersView extends JComponent {
         int split = mPlayerZoomed ? 1 : 2;
         mMainPlayer.setBounds(0, 0, width / split, height / split);
         mMainPlayer.revalidate();
-        System.out.println("@@ PV mMainPlayer [" + width + "x" + height + "] ==> bounds = " + mMainPlayer.getBounds());
+        if (mLogger.isLoggable(ILogger.Level.DEBUG)) {
+            Rectangle bounds = mMainPlayer.getBounds();
+            mLogger.log(ILogger.Level.DEBUG, TAG, () -> "mMainPlayer [" + width + "x" + height + "] ==> bounds = " + bounds);
+        }
     }
 
     private void resizeVideoCanvases(int width, int height) {
         synchronized (mCameraPlayers) {
             for (VlcMediaComponent canvas : mCameraPlayers) {
                 canvas.computeAbsolutePosition(width, height);
-                System.out.println("@@ PV canvas [" + width + "x" + height + "] bounds = " + canvas.getBounds());
+                if (mLogger.isLoggable(ILogger.Level.DEBUG)) {
+                    Rectangle bounds = canvas.getBounds();
+                    mLogger.log(ILogger.Level.DEBUG, TAG, () -> "canvas [" + width + "x" + height + "] bounds = " + bounds);
+                }
             }
         }
     }
@@ -279,7 +366,7 @@ public class PlayersView extends JComponent {
 
         Dimension sz = new Dimension(prefW, prefH);
         cachedPrefSizeSz = sz;
-        System.out.println("@@ PV getPreferredSize sz = " + sz);
+        mLogger.log(ILogger.Level.DEBUG, TAG, () -> "getPreferredSize sz = " + sz);
         return sz;
     }
 }
@@ -0,0 +1,209 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.display;
+
+import com.alflabs.trainmotion.util.ILogger;
+
+import javax.annotation.Nonnull;
+import java.awt.Color;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A compiled PSA text: the colors and the 2 lines to display.
+ * <p/>
+ * See {@link RtacPsaPanel} for the format. The "{key:value}" attributes prefix is parsed in a
+ * single pass, and colors are looked up once then cached by the {@link Compiler}.
+ */
+final class PsaText {
+    private static final String TAG = PsaText.class.getSimpleName();
+
+    final Color mTextColor;
+    final Color mBgColor;
+    final String mLine1;
+    final String mLine2;
+
+    PsaText(Color textColor, Color bgColor, String line1, String line2) {
+        mTextColor = textColor;
+        mBgColor = bgColor;
+        mLine1 = line1;
+        mLine2 = line2;
+    }
+
+    /** Compiles PSA texts. Not thread-safe, as the color cache is not synchronized. */
+    static class Compiler {
+        private final ILogger mLogger;
+        private final Color mDefaultTextColor;
+        private final Color mDefaultBgColor;
+        private final Map<String, Color> mColors = new HashMap<>();
+
+        Compiler(ILogger logger, Color defaultTextColor, Color defaultBgColor) {
+            mLogger = logger;
+            mDefaultTextColor = defaultTextColor;
+            mDefaultBgColor = defaultBgColor;
+        }
+
+        @Nonnull
+        PsaText compile(@Nonnull String text) {
+            Color txColor = mDefaultTextColor;
+            Color bgColor = mDefaultBgColor;
+
+            int start = 0;
+            int end = text.length();
+            // Equivalent to text.trim(): skip leading and trailing control chars and spaces.
+            while (end > 0 && text.charAt(end - 1) <= ' ') {
+                end--;
+            }
+
+            // Parse the "{key:value}" prefixes, where key is 1-2 lowercase letters.
+            while (true) {
+                while (start < end && text.charAt(start) <= ' ') {
+                    start++;
+                }
+                if (start >= end || text.charAt(start) != '{') {
+                    break;
+                }
+                int colon = start + 1;
+                while (colon < end && colon - start <= 2 && isKeyChar(text.charAt(colon))) {
+                    colon++;
+                }
+                if (colon == start + 1 || colon >= end || text.charAt(colon) != ':') {
+                    break;
+                }
+                int close = text.indexOf('}', colon + 1);
+                if (close < 0 || close >= end || close == colon + 1) {
+                    break;
+                }
+
+                String key = text.substring(start + 1, colon);
+                String val = text.substring(colon + 1, close);
+                start = close + 1;
+
+                Color col = getColor(val);
+                if (col == null) {
+                    mLogger.log(TAG, "Invalid color name {..:" + val + "} in " + text);
+                    continue;
+                }
+                switch (key) {
+                case "c":
+                    // Text area font color -- defaults to black.
+                    txColor = col;
+                    break;
+                case "b":
+                    // Text area background color -- defaults to transparent.
+                    bgColor = col;
+                    break;
+                case "bg":
+                    // Root view background color -- defaults to white.
+                    // This was used in RTAC to set the parent's view background color.
+                    // Not used in Vision where the parent frame background is always black.
+                    break;
+                default:
+                    mLogger.log(TAG, "Ignoring invalid PSA text formatter {" + key + "} in " + text);
+                }
+            }
+
+            List<String> lines = splitLines(text, start, end);
+            String line1 = lines.isEmpty() ? " " : lines.get(0);
+            if (lines.size() > 1) {
+                line1 += " " + lines.get(1);
+            }
+            // When the second line is empty, the first line gets centered vertically.
+            String line2 = lines.size() > 2 ? lines.get(2) : "";
+            return new PsaText(txColor, bgColor, line1, line2);
+        }
+
+        /** Returns the parsed color, or null if it cannot be parsed. */
+        private Color getColor(String val) {
+            Color color = mColors.get(val);
+            if (color == null && !mColors.containsKey(val)) {
+                color = parseColor(val);
+                mColors.put(val, color);
+            }
+            return color;
+        }
+    }
+
+    private static boolean isKeyChar(char c) {
+        return c >= 'a' && c <= 'z';
+    }
+
+    /**
+     * Splits the text on the literal 2-character "\n" sequence.
+     * Same as String.split(): trailing empty lines are removed.
+     */
+    @Nonnull
+    private static List<String> splitLines(String text, int start, int end) {
+        List<String> lines = new ArrayList<>(3);
+        int pos = start;
+        for (int i = start; i < end - 1; i++) {
+            if (text.charAt(i) == '\\' && text.charAt(i + 1) == 'n') {
+                lines.add(text.substring(pos, i));
+                pos = i + 2;
+                i++;
+            }
+        }
+        lines.add(text.substring(pos, end));
+        if (lines.size() > 1) {
+            while (!lines.isEmpty() && lines.get(lines.size() - 1).isEmpty()) {
+                lines.remove(lines.size() - 1);
+            }
+        }
+        return lines;
+    }
+
+    /** Parses an HTML color name (e.g. "#RRGGBB", "#AARRGGBB" or "black"), or returns null. */
+    private static Color parseColor(String val) {
+        // Handle straightforward common names
+        switch (val) {
+        case "red":     return Color.RED;
+        case "green":   return Color.GREEN;
+        case "blue":    return Color.BLUE;
+        case "white":   return Color.WHITE;
+        case "black":   return Color.BLACK;
+        }
+
+        try {
+            // Handle the case of a hexadecimal color
+            if (val.startsWith("#")) {
+                String hex = val.substring(1);
+                if (hex.length() == 8) {
+                    // That should be "#AARRGGBB". Drop the alpha.
+                    hex = hex.substring(2);
+                }
+                if (hex.length() == 6) {
+                    // That should be "#RRGGBB".
+                    return Color.decode("0x" + hex);
+                }
+            }
+
+            // Otherwise, try the more expensive lookup of the color name by reflection.
+            // This is only done once per name since the result is cached.
+            Field field = Color.class.getField(val.toUpperCase(Locale.US));
+            return (Color) field.get(null);
+
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
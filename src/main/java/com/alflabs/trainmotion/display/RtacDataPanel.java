@@ -24,16 +24,27 @@ import com.alflabs.manifest.RouteInfo;
 import com.alflabs.manifest.RouteInfos;
 import com.alflabs.trainmotion.util.ILogger;
 
+import javax.annotation.Nullable;
 import javax.swing.BorderFactory;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
 
 public class RtacDataPanel extends JPanel {
     private static final String TAG = RtacDataPanel.class.getSimpleName();
@@ -42,14 +53,29 @@ public class RtacDataPanel extends JPanel {
     private static final Font mFont1 = new Font(Font.SANS_SERIF, Font.BOLD, 12);
     private static final Font mFont2 = new Font(Font.SANS_SERIF, Font.PLAIN, 12);
     private static final Font mFont3 = new Font(Font.SANS_SERIF, Font.PLAIN, 8);
+    /** Throttle values change many times per second during runs; only show them at this rate. */
+    private static final int THROTTLE_UPDATE_MS = 250;
 
     private final ILogger mLogger;
+    private final Executor mExecutor;
     private final List<RtacDataView> mViews = new ArrayList<>();
+    /** The views' update methods for each KV key. Built by initializeRoutes. */
+    private final Map<String, List<Consumer<String>>> mKeyIndex = new HashMap<>();
+    private final Set<String> mThrottleKeys = new HashSet<>();
+    /** Latest throttle values not displayed yet. */
+    private final Map<String, String> mPendingThrottles = new LinkedHashMap<>();
+    private final Timer mThrottleTimer;
+    private JPanel mFiller;
+    private String mJsonRoutes;
+    private int mRoutesGeneration;
 
-    public RtacDataPanel(ILogger logger) {
+    public RtacDataPanel(ILogger logger, Executor executor) {
         super(new GridBagLayout());
         mLogger = logger;
+        mExecutor = executor;
         setBackground(BG_COLOR);
+        mThrottleTimer = new Timer(THROTTLE_UPDATE_MS, event -> updatePendingThrottles());
+        mThrottleTimer.setRepeats(false);
     }
 
     private static GridBagConstraints constraint(int gridx, int gridy, int gridw, int weighty) {
@@ -69,48 +95,167 @@ public class RtacDataPanel extends JPanel {
         return constraint(gridx, gridy, gridw, 0);
     }
 
+    /**
+     * Updates the route views from the routes JSON. Must be called on the UI thread.
+     * <p/>
+     * The JSON is parsed on the given executor, then the new routes are diffed against the
+     * existing views on the UI thread: views of unchanged routes are reused and only the new or
+     * removed routes add or remove views. If another JSON arrives before the parsing completes,
+     * only the latest one is applied. If the JSON is invalid, the views are left as they are
+     * and the same JSON is parsed again if it is pushed again.
+     */
     public void initializeRoutes(IKeyValue kvClient, String jsonRoutes) {
-        removeAll();
-        mViews.clear();
+        if (jsonRoutes == null || jsonRoutes.equals(mJsonRoutes)) {
+            return;
+        }
+        mJsonRoutes = jsonRoutes;
+        final int generation = ++mRoutesGeneration;
 
         try {
-            RouteInfos infos = RouteInfos.parseJson(jsonRoutes);
-            mLogger.log(TAG, "@@ Adding " + infos.getRouteInfos().length + " routes");
+            mExecutor.execute(() -> {
+                RouteInfos infos = null;
+                try {
+                    infos = RouteInfos.parseJson(jsonRoutes);
+                } catch (IOException | RuntimeException e) {
+                    mLogger.log(TAG, "@@ Parse RouteInfos JSON error: " + e);
+                }
+                final RouteInfos parsed = infos;
+                SwingUtilities.invokeLater(() -> onRoutesParsed(kvClient, generation, parsed));
+            });
+        } catch (RejectedExecutionException e) {
+            // The executor is shut down when exiting.
+            mJsonRoutes = null;
+        }
+    }
 
-            int y = 0;
-            for (RouteInfo info : infos.getRouteInfos()) {
+    private void onRoutesParsed(IKeyValue kvClient, int generation, @Nullable RouteInfos infos) {
+        if (generation != mRoutesGeneration) {
+            return;
+        }
+        if (infos == null) {
+            mJsonRoutes = null;
+        } else {
+            applyRoutes(kvClient, infos.getRouteInfos());
+        }
+    }
 
-                RtacDataView v = new RtacDataView(info);
-                add(v, constraint(0, y++, 1, 0));
-                mViews.add(v);
+    private void applyRoutes(IKeyValue kvClient, RouteInfo[] routeInfos) {
+        long startNs = System.nanoTime();
+        GridBagLayout layout = (GridBagLayout) getLayout();
+        mKeyIndex.clear();
+        mThrottleKeys.clear();
+        mThrottleTimer.stop();
+        mPendingThrottles.clear();
 
-                updateCell(kvClient, v, info.getStatusKey());
-                updateCell(kvClient, v, info.getThrottleKey());
-                updateCell(kvClient, v, info.getToggleKey());
+        Map<String, RtacDataView> oldViews = new HashMap<>();
+        for (RtacDataView v : mViews) {
+            oldViews.put(v.mRouteId, v);
+        }
+        mViews.clear();
+
+        int added = 0;
+        int y = 0;
+        for (RouteInfo info : routeInfos) {
+            RtacDataView v = oldViews.remove(routeId(info));
+            if (v == null) {
+                v = new RtacDataView(info);
+                add(v, constraint(0, y, 1, 0));
+                added++;
+                updateCell(kvClient, v::setStatus, info.getStatusKey());
+                updateCell(kvClient, v::setThrottle, info.getThrottleKey());
+                updateCell(kvClient, v::setToggle, info.getToggleKey());
+            } else if (layout.getConstraints(v).gridy != y) {
+                layout.setConstraints(v, constraint(0, y, 1, 0));
             }
+            y++;
+            mViews.add(v);
+
+            indexKey(info.getStatusKey(), v::setStatus);
+            indexKey(info.getThrottleKey(), v::setThrottle);
+            if (info.getThrottleKey() != null) {
+                mThrottleKeys.add(info.getThrottleKey());
+            }
+            indexKey(info.getToggleKey(), v::setToggle);
+        }
 
+        for (RtacDataView v : oldViews.values()) {
+            remove(v);
+        }
+
+        if (mFiller == null) {
             // Add a filler to force all views to the top "north"
-            JPanel filler = new JPanel();
-            filler.setBackground(new Color(8, 8, 8));
-            add(filler, constraint(0, y, 1, 1));
+            mFiller = new JPanel();
+            mFiller.setBackground(new Color(8, 8, 8));
+            add(mFiller, constraint(0, y, 1, 1));
+        } else {
+            layout.setConstraints(mFiller, constraint(0, y, 1, 1));
+        }
+
+        revalidate();
+        repaint();
+        mLogger.log(TAG, String.format("@@ Routes: %d total, %d added, %d removed in %.1f ms",
+                routeInfos.length, added, oldViews.size(), (System.nanoTime() - startNs) / 1e6));
+    }
 
-        } catch (IOException e) {
-            mLogger.log(TAG, "@@ Parse RouteInfos JSON error: " + e);
+    /** Identifies a route by its name and keys; a view is reused only if all of them match. */
+    private static String routeId(RouteInfo info) {
+        return info.getName() + '\n' + info.getToggleKey() + '\n' + info.getStatusKey() + '\n' + info.getThrottleKey();
+    }
+
+    private void indexKey(String key, Consumer<String> update) {
+        if (key != null) {
+            mKeyIndex.computeIfAbsent(key, k -> new ArrayList<>(1)).add(update);
         }
     }
 
-    private void updateCell(IKeyValue kvClient, RtacDataView v, String key) {
-        v.onKVChanged(key, kvClient.getValue(key));
+    private void updateCell(IKeyValue kvClient, Consumer<String> update, String key) {
+        String value = key == null ? null : kvClient.getValue(key);
+        if (value != null) {
+            update.accept(value);
+        }
     }
 
     public void onKVChanged(String key, String value) {
-        for (RtacDataView v : mViews) {
-            v.onKVChanged(key, value);
+        if (value == null || !mKeyIndex.containsKey(key)) {
+            return;
+        }
+        if (mThrottleKeys.contains(key)) {
+            // Coalesce throttle changes: only the latest value is displayed at the next tick.
+            mPendingThrottles.put(key, value);
+            if (!mThrottleTimer.isRunning()) {
+                mThrottleTimer.start();
+            }
+        } else {
+            dispatch(key, value);
+        }
+    }
+
+    private void updatePendingThrottles() {
+        for (Map.Entry<String, String> entry : mPendingThrottles.entrySet()) {
+            dispatch(entry.getKey(), entry.getValue());
+        }
+        mPendingThrottles.clear();
+    }
+
+    private void dispatch(String key, String value) {
+        List<Consumer<String>> updates = mKeyIndex.get(key);
+        if (updates != null) {
+            for (Consumer<String> update : updates) {
+                update.accept(value);
+            }
+        }
+    }
+
+    /** Sets the label's text only if it changed, as each change revalidates the layout. */
+    private static void setText(JLabel label, String text) {
+        if (!text.equals(label.getText())) {
+            label.setText(text);
         }
     }
 
     private static class RtacDataView extends JPanel {
         private final RouteInfo mRouteInfo;
+        private final String mRouteId;
         private final JLabel mToggle;
         private final JLabel mStatus;
         private final JLabel mDir;
@@ -121,6 +266,7 @@ public class RtacDataPanel extends JPanel {
             setBackground(new Color(8, 8, 8));
             setBorder(BorderFactory.createEmptyBorder(/*top*/ 20, /*left*/ 5, /*bottom*/ 20, /*right*/ 10));
             mRouteInfo = routeInfo;
+            mRouteId = routeId(routeInfo);
 
             JLabel title = new JLabel(routeInfo.getName());
             title.setFont(mFont1);
@@ -149,25 +295,22 @@ public class RtacDataPanel extends JPanel {
             add(mSpeed, constraint(1, 3, 1));
         }
 
-        public void onKVChanged(String key, String value) {
-            if (value == null) {
-                return;
-            }
-            if (key.equals(mRouteInfo.getToggleKey())) {
-                mToggle.setText(value);
-                mToggle.setForeground(Constants.On.equals(value) ? Color.RED : Color.GREEN);
+        public void setToggle(String value) {
+            setText(mToggle, value);
+            mToggle.setForeground(Constants.On.equals(value) ? Color.RED : Color.GREEN);
+        }
 
-            } else if (key.equals(mRouteInfo.getStatusKey())) {
-                mStatus.setText(value);
+        public void setStatus(String value) {
+            setText(mStatus, value);
+        }
 
-            } else if (key.equals(mRouteInfo.getThrottleKey())) {
-                try {
-                    int speed = Integer.parseInt(value);
-                    mSpeed.setText(Integer.toString(Math.abs(speed)));
-                    mDir.setText(speed < 0 ? "Rev" : (speed > 0 ? "Fwd" : "Stop"));
-                } catch (Exception e) {
-                    // Log.e(TAG, "Failed to parse speed: '" + value + "'", e);
-                }
+        public void setThrottle(String value) {
+            try {
+                int speed = Integer.parseInt(value);
+                setText(mSpeed, Integer.toString(Math.abs(speed)));
+                setText(mDir, speed < 0 ? "Rev" : (speed > 0 ? "Fwd" : "Stop"));
+            } catch (Exception e) {
+                // Log.e(TAG, "Failed to parse speed: '" + value + "'", e);
             }
         }
     }
@@ -30,10 +30,6 @@ import java.awt.Component;
 import java.awt.Font;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
-import java.lang.reflect.Field;
-import java.util.Locale;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /*
  * Typical PSA strings from RTAC:
@@ -73,10 +69,13 @@ public class RtacPsaPanel extends JPanel {
     private final JLabel mLine1;
     private final JLabel mLine2;
     private final ILogger mLogger;
+    private final PsaText.Compiler mCompiler;
+    private String mLastText;
 
     public RtacPsaPanel(ILogger logger) {
         super(new GridBagLayout());
         mLogger = logger;
+        mCompiler = new PsaText.Compiler(logger, Color.WHITE, KioskView.BG_COLOR);
         setBackground(KioskView.BG_COLOR);
         setBorder(BorderFactory.createEmptyBorder(/*top*/ 10, /*left*/ 0, /*bottom*/ 0, /*right*/ 0));
 
@@ -98,6 +97,7 @@ public class RtacPsaPanel extends JPanel {
         updateText(null);
         // Force the initial size computation to use both line heights.
         mLine2.setText("");
+        mLastText = null;
     }
 
     private GridBagConstraints constraint(int gridy) {
@@ -113,113 +113,26 @@ public class RtacPsaPanel extends JPanel {
         return c;
     }
 
-    @SuppressWarnings("RegExpRedundantEscape")  // lint warning is wrong, the "redundant escape" of } is necessary.
-    private static final Pattern sAttribRe = Pattern.compile("^\\{([a-z]{1,2}):([^}]+)\\}(.*)");
-
     // Source: Conductor Project
     // android/RTAC/app/src/main/java/com/alflabs/rtac/fragment/PsaTextFragment.java
     public void updateText(@Null String text) {
         if (text == null) {
             text = "{bg:black}{b:red}{c:white}Automation Not Working";
         }
-
-        String originalText = text;
-
-        Color txColor = Color.WHITE;
-        Color bgColor = KioskView.BG_COLOR;
-
-        while (!text.isEmpty()) {
-            text = text.trim();
-            Matcher m = sAttribRe.matcher(text);
-            if (!m.matches()) {
-                break;
-            }
-            String key = m.group(1);
-            String val = m.group(2);
-            text = m.group(3);
-
-            try {
-                Color col = parseColor(val);
-
-                switch (key) {
-                case "c":
-                    // Text area font color -- defaults to black.
-                    txColor = col;
-                    break;
-                case "b":
-                    // Text area background color -- defaults to transparent.
-                    bgColor = col;
-                    break;
-                case "bg":
-                    // Root view background color -- defaults to white.
-                    // This was used in RTAC to set the parent's view background color.
-                    // Not used in Vision where the parent frame background is always black.
-                    // rootColor = col;
-                    break;
-                default:
-                    mLogger.log(TAG, "Ignoring invalid PSA text formatter {" + key + "} in " + originalText);
-                }
-            } catch (IllegalArgumentException invalidColor) {
-                mLogger.log(TAG, "Invalid color name {..:" + val + "} in " + originalText);
-            }
+        // RTAC pushes the same PSA text repeatedly; there's nothing to do if it did not change.
+        if (text.equals(mLastText)) {
+            return;
         }
+        mLastText = text;
 
-        mLine1.setBackground(bgColor);
-        mLine1.setForeground(txColor);
-        mLine2.setBackground(bgColor);
-        mLine2.setForeground(txColor);
-
-        // Reminder: search pattern is a regex so "\" must be escaped twice.
-        String[] lines = text.split("\\\\n");
-        if (lines.length > 1) {
-            lines[0] += " " + lines[1];
-        }
+        PsaText psa = mCompiler.compile(text);
+        mLine1.setBackground(psa.mBgColor);
+        mLine1.setForeground(psa.mTextColor);
+        mLine2.setBackground(psa.mBgColor);
+        mLine2.setForeground(psa.mTextColor);
         // The first line should never be empty.
-        mLine1.setText(lines.length > 0 ? lines[0] : " ");
+        mLine1.setText(psa.mLine1);
         // When the second line is empty, the first line gets centered vertically.
-        mLine2.setText(lines.length > 2 ? lines[2] : "");
-    }
-
-    /// Parses an HTM color name (e.g. "#RRGGBB" or "black")
-    private Color parseColor(String val) {
-        try {
-            // Handle straightforward common names
-            if (val.equals("red")) {
-                return Color.RED;
-            }
-            if (val.equals("green")) {
-                return Color.GREEN;
-            }
-            if (val.equals("blue")) {
-                return Color.BLUE;
-            }
-            if (val.equals("white")) {
-                return Color.WHITE;
-            }
-            if (val.equals("black")) {
-                return Color.BLACK;
-            }
-
-            // Handle the case of a hexadecimal color
-            if (val.startsWith("#")) {
-                String hex = val.substring(1);
-                if (hex.length() == 8) {
-                    // That should be "#AARRGGBB". Drop the alpha.
-                    hex = hex.substring(2);
-                }
-                if (hex.length() == 6) {
-                    // That should be "#RRGGBB".
-                    return Color.decode("0x" + hex);
-                }
-            }
-
-            // Otherwise, try the more expensive lookup of the color name by reflection.
-            // This would typically fail with NoSuchFieldException.
-            Field field = Color.class.getField(val.toUpperCase(Locale.US));
-            return (Color) field.get(null);
-
-        } catch (Exception e) {
-            throw new IllegalArgumentException("Failed to parse color: " + val, e);
-        }
+        mLine2.setText(psa.mLine2);
     }
 }
@@ -19,10 +19,10 @@
 package com.alflabs.trainmotion.display;
 
 import com.alflabs.trainmotion.cam.CamAnalyzer;
+import com.alflabs.trainmotion.cam.CamFeed;
 import com.alflabs.trainmotion.cam.CamInfo;
 import com.alflabs.trainmotion.util.FpsMeasurer;
 import com.alflabs.utils.IClock;
-import org.bytedeco.javacv.Frame;
 import uk.co.caprica.vlcj.player.base.MediaPlayer;
 import uk.co.caprica.vlcj.player.base.MediaPlayerEventAdapter;
 import uk.co.caprica.vlcj.player.component.CallbackMediaPlayerComponent;
@@ -45,6 +45,7 @@ import static com.alflabs.trainmotion.display.Highlighter.HIGHLIGHT_LINE_SIZE_MI
 class VlcMediaComponent extends JPanel {
     private static final int VIEW_GAP_PX = 2;
 
+    private final IClock mClock;
     private final FpsMeasurer mFpsMeasurer;
     private final String mKey;
     private final KioskController.Callbacks mCallbacks;
@@ -58,6 +59,8 @@ class VlcMediaComponent extends JPanel {
     private final VlcRenderCallback mRenderCallback;
     private final ScaledCallbackImagePainter mImagePainter;
     private BufferedImage mImage;
+    /** The feed stalled state shown on the tile and the status line. */
+    private boolean mShowStalled;
 
     public VlcMediaComponent(
             IClock clock,
@@ -67,6 +70,7 @@ class VlcMediaComponent extends JPanel {
             CamInfo camInfo,
             FpsMeasurer fpsMeasurer,
             Highlighter highlighter) {
+        mClock = clock;
         mCallbacks = callbacks;
         mConsoleTask = consoleTask;
         mPosIndex = posIndex;
@@ -76,6 +80,7 @@ class VlcMediaComponent extends JPanel {
         mVideoSurface = this;
         mKey = String.format("%da", mCamInfo.getIndex());
         mFpsMeasurer = fpsMeasurer;
+        mFpsMeasurer.setMetricsName("cam" + mCamInfo.getIndex() + ".display");
 
         mImagePainter = new ScaledCallbackImagePainter();
         mRenderCallback = new VlcRenderCallback();
@@ -179,7 +184,6 @@ class VlcMediaComponent extends JPanel {
 
         mOverlay.setHighlightLineSize(Math.max(HIGHLIGHT_LINE_SIZE_MIN, (int) Math.ceil((double) (HIGHLIGHT_LINE_SIZE_MAX * w) / (1980. / 2))));
         mOverlay.setLiveCircleRadius(mOverlay.getHighlightLineSize());
-        mOverlay.setLiveFont(null);
 
         this.setBounds(x, y, w, h);
     }
@@ -192,19 +196,34 @@ class VlcMediaComponent extends JPanel {
 
         CamAnalyzer analyzer = mCamInfo.getAnalyzer();
         if (mCallbacks.showMask()) {
-            Frame frame = analyzer.getMaskFrame();
+            BufferedImage mask = analyzer.takeMaskImage();
             mOverlay.setNoiseLevel(analyzer.getNoiseLevel());
-            if (frame != null) {
-                mOverlay.setMaskImage(mOverlay.getConverter().getBufferedImage(frame));
+            if (mask != null) {
+                mOverlay.setMaskImage(mask);
             }
         } else if (mOverlay.getMaskImage() != null) {
             mOverlay.setMaskImage(null);
             mOverlay.setNoiseLevel(-1);
         }
 
-        mConsoleTask.updateLineInfo(/* A */ mKey,
-                new StringInfo(
-                        String.format(" [%d] %5.1f fps", mCamInfo.getIndex(), mFpsMeasurer.getFps())));
+        CamFeed feed = mCamInfo.getFeed();
+        boolean stalled = feed.isStalled();
+        if (stalled != mShowStalled) {
+            mShowStalled = stalled;
+            mOverlay.setStalled(stalled);
+            // A stalled feed does not repaint the tile by itself.
+            repaint();
+        }
+
+        if (stalled) {
+            mConsoleTask.updateLineInfo(/* A */ mKey,
+                    new StringInfo(
+                            String.format(" [%d] STALLED x%d", mCamInfo.getIndex(), feed.getRestartCount())));
+        } else {
+            mConsoleTask.updateLineInfo(/* A */ mKey,
+                    new StringInfo(
+                            String.format(" [%d] %5.1f fps", mCamInfo.getIndex(), mFpsMeasurer.getAverageFps())));
+        }
     }
 
     private void newVideoBuffer(int width, int height) {
@@ -226,11 +245,15 @@ class VlcMediaComponent extends JPanel {
 
         @Override
         protected void onDisplay(MediaPlayer mediaPlayer, int[] buffer) {
+            // Stamp the frame to trace the motion detection latency.
+            long frameTS = mClock.elapsedRealtime();
+            mCamInfo.getFeed().onFrame(frameTS);
+            // VLC paces the frames, this only measures the fps.
             mFpsMeasurer.startTick();
 
             BufferedImage image = mImage;
             if (image != null) {
-                mCamInfo.getAnalyzer().offerPlayerImage(image);
+                mCamInfo.getAnalyzer().offerPlayerImage(image, frameTS);
             }
             mVideoSurface.repaint();
         }
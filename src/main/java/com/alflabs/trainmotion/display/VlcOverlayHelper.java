@@ -20,54 +20,88 @@ package com.alflabs.trainmotion.display;
 
 import com.alflabs.trainmotion.cam.CamInfo;
 import com.alflabs.utils.IClock;
-import org.bytedeco.javacv.Java2DFrameConverter;
 
+import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Font;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.util.Locale;
 
 import static com.alflabs.trainmotion.display.Highlighter.HIGHLIGHT_LINE_COLOR;
 import static com.alflabs.trainmotion.display.Highlighter.HIGHLIGHT_LINE_SIZE_MAX;
 
+/**
+ * Paints the overlay on top of a camera tile: mask, highlight contour and "LIVE" badge,
+ * which reads "STALLED" without blinking while the camera feed is stalled.
+ * <p/>
+ * This is invoked for every frame of every camera tile, so anything that does not change
+ * between frames is cached: the LIVE badge (circle + text) is pre-rendered in a translucent
+ * image that is only regenerated when its size or text changes, and the mask image is
+ * scaled once per analyzer output rather than once per paint.
+ */
 class VlcOverlayHelper {
     private static final String LIVE_TEXT = "LIVE CAM %d";
+    private static final String STALLED_TEXT = "STALLED CAM %d";
     private static final Color LIVE_COLOR = Color.RED;
 
     private final IClock mClock;
-    private final Java2DFrameConverter mConverter = new Java2DFrameConverter();
     private final String mLiveText;
+    private final String mStalledText;
     private final Highlighter mHighlighter;
     private int mHighlightLineSize = HIGHLIGHT_LINE_SIZE_MAX;
     private int mLiveCircleRadius = HIGHLIGHT_LINE_SIZE_MAX;
     private Font mLiveFont;
     private Image mMaskImage;
     private double mNoiseLevel = -1;
+    private boolean mStalled;
+
+    /** The mask scaled to the last paint size. */
+    private BufferedImage mScaledMask;
+    /** True when {@link #mScaledMask} must be recomputed from {@link #mMaskImage}. */
+    private boolean mScaledMaskDirty;
+    /** The cached LIVE badge. Null when it must be re-rendered. */
+    private BufferedImage mBadge;
+    /** The text rendered in {@link #mBadge}. */
+    private String mBadgeText;
+    /** The Y coordinate of the circle center in {@link #mBadge}. */
+    private int mBadgeCenterY;
+    /** The noise level used to compute {@link #mNoiseText}. */
+    private double mNoiseTextLevel = -1;
+    private String mNoiseText;
 
     public VlcOverlayHelper(IClock clock, CamInfo camInfo, Highlighter highlighter) {
         mClock = clock;
         mLiveText = String.format(Locale.US, LIVE_TEXT, camInfo.getIndex());
+        mStalledText = String.format(Locale.US, STALLED_TEXT, camInfo.getIndex());
         mHighlighter = highlighter;
     }
 
-    public Java2DFrameConverter getConverter() {
-        return mConverter;
-    }
-
     public Image getMaskImage() {
         return mMaskImage;
     }
 
+    /**
+     * Sets a new mask. This is expected to be called once per new analyzer output.
+     * Note that the image instance may be reused by the caller with new content.
+     */
     public void setMaskImage(Image maskImage) {
         mMaskImage = maskImage;
+        mScaledMaskDirty = true;
     }
 
     public void setNoiseLevel(double noiseLevel) {
         mNoiseLevel = noiseLevel;
     }
 
+    public void setStalled(boolean stalled) {
+        mStalled = stalled;
+    }
+
     public int getHighlightLineSize() {
         return mHighlightLineSize;
     }
@@ -77,11 +111,11 @@ class VlcOverlayHelper {
     }
 
     public void setLiveCircleRadius(int liveCircleRadius) {
-        mLiveCircleRadius = liveCircleRadius;
-    }
-
-    public void setLiveFont(Font liveFont) {
-        mLiveFont = liveFont;
+        if (mLiveCircleRadius != liveCircleRadius) {
+            mLiveCircleRadius = liveCircleRadius;
+            mLiveFont = null;
+            mBadge = null;
+        }
     }
 
     public void paint(Graphics g, int cw, int ch) {
@@ -91,9 +125,29 @@ class VlcOverlayHelper {
     }
 
     private void drawImage(Graphics g, int dw, int dh, int dx, int dy) {
-        if (mMaskImage != null) {
-            g.drawImage(mMaskImage, dx, dy, dw, dh, null /* observer */);
+        Image mask = mMaskImage;
+        if (mask == null) {
+            return;
+        }
+        if (mask.getWidth(null) == dw && mask.getHeight(null) == dh) {
+            // Already at the right size, no need to scale.
+            g.drawImage(mask, dx, dy, null /* observer */);
+            return;
+        }
+        BufferedImage scaled = mScaledMask;
+        boolean resized = scaled == null || scaled.getWidth() != dw || scaled.getHeight() != dh;
+        if (resized) {
+            scaled = new BufferedImage(dw, dh, BufferedImage.TYPE_BYTE_GRAY);
+            mScaledMask = scaled;
         }
+        if (resized || mScaledMaskDirty) {
+            // Only scale once per new mask (or when the view size changes).
+            Graphics2D g2 = scaled.createGraphics();
+            g2.drawImage(mask, 0, 0, dw, dh, null /* observer */);
+            g2.dispose();
+            mScaledMaskDirty = false;
+        }
+        g.drawImage(scaled, dx, dy, null /* observer */);
     }
 
     private void drawContour(Graphics g, int dw, int dh, int dx, int dy) {
@@ -109,27 +163,74 @@ class VlcOverlayHelper {
     private void drawLive(Graphics g, int dw, int dh, int dx, int dy) {
         // Blink at 1 fps
         long secondsNow = mClock.elapsedRealtime() / 1000;
-        if (mNoiseLevel < 0 && (secondsNow & 0x1) == 0) return;
+        if (!mStalled && mNoiseLevel < 0 && (secondsNow & 0x1) == 0) return;
+
+        String s = mLiveText;
+        if (mStalled) {
+            s = mStalledText;
+        } else if (mNoiseLevel >= 0) {
+            s = getNoiseText();
+        }
+
+        BufferedImage badge = getBadge(g, s);
+
+        // The circle is at the bottom-left corner, inside the highlight contour.
+        int x = dx + 2 * mHighlightLineSize;
+        int y = dy + dh - 2 * mHighlightLineSize - mLiveCircleRadius;
+        g.drawImage(badge, x, y - mBadgeCenterY, null /* observer */);
+    }
+
+    /** Only formats the noise text when the noise level actually changes. */
+    private String getNoiseText() {
+        if (mNoiseText == null || mNoiseTextLevel != mNoiseLevel) {
+            mNoiseTextLevel = mNoiseLevel;
+            mNoiseText = String.format(Locale.US, "%s      %.2f%%", mLiveText, mNoiseLevel);
+        }
+        return mNoiseText;
+    }
+
+    /**
+     * Returns the cached LIVE badge, re-rendering it only when the text or the circle
+     * radius has changed. The circle center is at (radius, {@link #mBadgeCenterY}).
+     */
+    private BufferedImage getBadge(Graphics g, String text) {
+        if (mBadge != null && text.equals(mBadgeText)) {
+            return mBadge;
+        }
 
         final int radius = mLiveCircleRadius;
         final int diam = 2 * mLiveCircleRadius;
         if (mLiveFont == null) {
             mLiveFont = new Font("Arial", Font.BOLD | Font.ITALIC, diam);
         }
-        g.setFont(mLiveFont);
 
-        g.setColor(LIVE_COLOR);
+        FontMetrics fm = g.getFontMetrics(mLiveFont);
+        int textW = fm.stringWidth(text);
+        int top = Math.max(0, fm.getAscent() - diam);
+        int w = diam + radius + textW + diam;   // circle + gap + text + italic slant margin
+        int h = top + diam + fm.getDescent();
 
-        int x = dx + 2 * mHighlightLineSize + radius;
-        int y = dy + dh - 2 * mHighlightLineSize - radius;
-
-        g.fillOval(x - radius, y - radius, diam, diam);
-
-        String s = mLiveText;
-        if (mNoiseLevel >= 0) {
-            s = String.format("%s      %.2f%%", s, mNoiseLevel);
+        BufferedImage badge = mBadge;
+        if (badge == null || badge.getWidth() < w || badge.getHeight() != h) {
+            badge = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
         }
 
-        g.drawString(s, x + diam, y + radius);
+        Graphics2D g2 = badge.createGraphics();
+        g2.setComposite(AlphaComposite.Clear);
+        g2.fillRect(0, 0, badge.getWidth(), badge.getHeight());
+        g2.setComposite(AlphaComposite.SrcOver);
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g2.setColor(LIVE_COLOR);
+        g2.setFont(mLiveFont);
+        int y = top + radius;
+        g2.fillOval(0, y - radius, diam, diam);
+        g2.drawString(text, radius + diam, y + radius);
+        g2.dispose();
+
+        mBadge = badge;
+        mBadgeCenterY = y;
+        mBadgeText = text;
+        return badge;
     }
 }
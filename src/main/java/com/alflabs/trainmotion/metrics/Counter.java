@@ -0,0 +1,41 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonic counter. Increments are striped across threads, so concurrent updates from the
+ * VLC, analyzer and UI threads do not contend on a single value.
+ */
+public class Counter {
+    private final LongAdder mValue = new LongAdder();
+
+    public void increment() {
+        mValue.increment();
+    }
+
+    public void add(long delta) {
+        mValue.add(delta);
+    }
+
+    public long get() {
+        return mValue.sum();
+    }
+}
@@ -1,6 +1,6 @@
 /*
  * Project: Train-Motion
- * Copyright (C) 2021 alf.labs gmail com,
+ * Copyright (C) 2025 alf.labs gmail com,
  *
  *  This program is free software: you can redistribute it and/or modify
  *  it under the terms of the GNU General Public License as published by
@@ -16,25 +16,17 @@
  *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-package com.alflabs.trainmotion.util;
+package com.alflabs.trainmotion.metrics;
 
-public class SoutLogger implements ILogger {
+/** A value which can go up and down, e.g. the current fps. Setting it does not allocate. */
+public class Gauge {
+    private volatile long mBits = Double.doubleToRawLongBits(0);
 
-    public SoutLogger() {
+    public void set(double value) {
+        mBits = Double.doubleToRawLongBits(value);
     }
 
-    @Override
-    public void log(String msg) {
-        int n = msg.length();
-        if (n > 0 && (msg.charAt(n-1) == '\r' || msg.charAt(n-1) == '\n')) {
-            System.out.print(msg);
-        } else {
-            System.out.println(msg);
-        }
-    }
-
-    @Override
-    public void log(String tag, String msg) {
-        log(tag + ": " + msg);
+    public double get() {
+        return Double.longBitsToDouble(mBits);
     }
 }
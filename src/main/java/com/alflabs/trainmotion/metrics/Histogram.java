@@ -0,0 +1,132 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.metrics;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe histogram of positive values, typically latencies.
+ * <p/>
+ * Buckets are log-linear, as in HdrHistogram: each power of 2 is split in 8 linear sub-buckets,
+ * so the error is at most 12.5% and values 0..7 are exact. Memory is fixed (values are capped
+ * at 2^40) and recording never allocates. Percentiles are the upper bound of their bucket.
+ */
+public class Histogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_BITS = 40;
+    private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+    private static final int BUCKET_COUNT = SUB_COUNT + (MAX_BITS - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /** Records one value. Negative values are ignored. */
+    public void record(long value) {
+        if (value < 0) return;
+        value = Math.min(value, MAX_VALUE);
+        mBuckets.incrementAndGet(getBucketIndex(value));
+        mSum.addAndGet(value);
+        mMax.accumulateAndGet(value, Math::max);
+        mCount.incrementAndGet();
+    }
+
+    static int getBucketIndex(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        int sub = (int) (value >>> shift) - SUB_COUNT;
+        return SUB_COUNT + shift * SUB_COUNT + sub;
+    }
+
+    /** Returns the largest value counted in the given bucket. */
+    static long getBucketMax(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_COUNT) / SUB_COUNT;
+        int sub = (index - SUB_COUNT) % SUB_COUNT;
+        return ((SUB_COUNT + sub + 1L) << shift) - 1;
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getSum() {
+        return mSum.get();
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    public long getAverage() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mSum.get() / count;
+    }
+
+    /**
+     * Returns the upper bound of the bucket containing the given percentile (0..100), capped
+     * by the maximum value recorded. Returns 0 if nothing was recorded.
+     */
+    public long getPercentile(double percentile) {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += mBuckets.get(i);
+        }
+        if (count == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mBuckets.get(i);
+            if (seen >= rank) {
+                return Math.min(getBucketMax(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mBuckets.set(i, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    /** Returns a one-line summary, e.g. "n=12 avg=40 p50=43 p95=87 max=87 ms". */
+    @Nonnull
+    public String getSummary(@Nonnull String unit) {
+        return String.format("n=%d avg=%d p50=%d p95=%d max=%d %s",
+                getCount(),
+                getAverage(),
+                getPercentile(50),
+                getPercentile(95),
+                getMax(),
+                unit);
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.metrics;
+
+import javax.annotation.Nonnull;
+
+/** A text value describing the current state, e.g. the video being played. */
+public class Info {
+    private volatile String mValue = "";
+
+    public void set(@Nonnull String value) {
+        mValue = value;
+    }
+
+    @Nonnull
+    public String get() {
+        return mValue;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events of the kiosk pipeline, recorded with the --jfr option.
+ * <p/>
+ * Callers check {@link Event#shouldCommit()} before filling the fields, so when no recording
+ * is running the cost is an allocation the JIT removes. Stack traces are not recorded.
+ */
+public final class JfrEvents {
+    private static final String PREFIX = "com.alflabs.trainmotion.";
+    private static final String CATEGORY = "Train Motion";
+
+    private JfrEvents() {}
+
+    @Name(PREFIX + "FrameAnalyzed")
+    @Label("Frame Analyzed")
+    @Category({ CATEGORY, "Camera" })
+    @Description("Motion analysis of one camera frame. The duration is the compute time.")
+    @StackTrace(false)
+    public static class FrameAnalyzed extends Event {
+        @Label("Camera")
+        public int camera;
+        @Label("Pixels")
+        public int pixels;
+        @Label("Noise %")
+        public double noise;
+        @Label("Average Noise %")
+        public double average;
+        @Label("Motion")
+        public boolean motion;
+    }
+
+    @Name(PREFIX + "HighlightChanged")
+    @Label("Highlight Changed")
+    @Category({ CATEGORY, "Camera" })
+    @Description("A camera view is highlighted or not anymore.")
+    @StackTrace(false)
+    public static class HighlightChanged extends Event {
+        @Label("Camera")
+        public int camera;
+        @Label("Highlighted")
+        public boolean highlighted;
+    }
+
+    @Name(PREFIX + "PlaylistTransition")
+    @Label("Playlist Transition")
+    @Category({ CATEGORY, "Playlist" })
+    @Description("The main player starts the next playlist video.")
+    @StackTrace(false)
+    public static class PlaylistTransition extends Event {
+        @Label("Video")
+        public String video;
+        @Label("Start Seconds")
+        public int startSec;
+        @Label("Cut Seconds")
+        @Description("Duration after which the video is cut, or -1 to play it to the end.")
+        public int cutSec;
+        @Label("Volume %")
+        public int volume;
+    }
+
+    @Name(PREFIX + "KVConnection")
+    @Label("KV Connection")
+    @Category({ CATEGORY, "Network" })
+    @Description("The KV client connects or disconnects from the Conductor KV server.")
+    @StackTrace(false)
+    public static class KVConnection extends Event {
+        @Label("Connected")
+        public boolean connected;
+        @Label("Attempts")
+        @Description("Total connection attempts so far.")
+        public int attempts;
+        @Label("Reconnect Latency")
+        @Timespan(Timespan.MILLISECONDS)
+        public long reconnectMs;
+    }
+
+    @Name(PREFIX + "AnalyticsSend")
+    @Label("Analytics Send")
+    @Category({ CATEGORY, "Network" })
+    @Description("One analytics payload sent. The duration is the HTTP request time.")
+    @StackTrace(false)
+    public static class AnalyticsSend extends Event {
+        @Label("Event")
+        public String event;
+        @Label("Queue Time")
+        @Timespan(Timespan.MILLISECONDS)
+        public long queueMs;
+        @Label("HTTP Code")
+        @Description("The HTTP response code, or -1 if the request failed.")
+        public int code;
+    }
+
+    @Name(PREFIX + "DisplayChanged")
+    @Label("Display Changed")
+    @Category({ CATEGORY, "Display" })
+    @Description("The display is turned on or off.")
+    @StackTrace(false)
+    public static class DisplayChanged extends Event {
+        @Label("On")
+        public boolean on;
+        @Label("Inverted")
+        @Description("Whether the state was inverted by the console key.")
+        public boolean inverted;
+    }
+}
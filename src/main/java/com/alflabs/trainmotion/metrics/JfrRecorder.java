@@ -0,0 +1,96 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.metrics;
+
+import com.alflabs.trainmotion.util.ILogger;
+import com.alflabs.trainmotion.util.IStartStop;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.File;
+import java.time.Duration;
+
+/**
+ * Continuous Java Flight Recorder recording, started by the --jfr command-line option.
+ * <p/>
+ * The recording uses the JDK "default" settings (GC, locks, I/O, ...) plus the
+ * {@link JfrEvents}, and is kept in a bounded on-disk ring. It is written to the destination
+ * file when stopped or when the JVM exits, to be opened with JDK Mission Control.
+ * A running kiosk can also be dumped with "jcmd (pid) JFR.dump name=train-motion".
+ */
+@Singleton
+public class JfrRecorder implements IStartStop {
+    private static final String TAG = JfrRecorder.class.getSimpleName();
+
+    public static final String RECORDING_NAME = "train-motion";
+    private static final long MAX_SIZE_BYTES = 64 * 1024 * 1024;
+    private static final Duration MAX_AGE = Duration.ofHours(1);
+
+    private final ILogger mLogger;
+    private File mDestination;
+    private Recording mRecording;
+
+    @Inject
+    public JfrRecorder(ILogger logger) {
+        mLogger = logger;
+    }
+
+    /** Enables the recording, written to this file. Must be called before {@link #start()}. */
+    public void setDestination(@Nonnull File destination) {
+        mDestination = destination;
+    }
+
+    @Override
+    public void start() throws Exception {
+        if (mDestination == null) {
+            return;
+        }
+
+        Recording recording = new Recording(Configuration.getConfiguration("default"));
+        recording.setName(RECORDING_NAME);
+        recording.setToDisk(true);
+        recording.setMaxSize(MAX_SIZE_BYTES);
+        recording.setMaxAge(MAX_AGE);
+        recording.setDestination(mDestination.toPath());
+        recording.setDumpOnExit(true);
+        recording.enable(JfrEvents.FrameAnalyzed.class);
+        recording.enable(JfrEvents.HighlightChanged.class);
+        recording.enable(JfrEvents.PlaylistTransition.class);
+        recording.enable(JfrEvents.KVConnection.class);
+        recording.enable(JfrEvents.AnalyticsSend.class);
+        recording.enable(JfrEvents.DisplayChanged.class);
+        recording.start();
+        mRecording = recording;
+        mLogger.log(TAG, "Recording to " + mDestination.getAbsolutePath());
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (mRecording != null) {
+            // Stopping writes the recording to its destination.
+            mRecording.stop();
+            mRecording.close();
+            mRecording = null;
+            mLogger.log(TAG, "Recording written to " + mDestination.getAbsolutePath());
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.metrics;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Registry of the in-process metrics, provided as a singleton by the MetricsModule.
+ * <p/>
+ * Metrics are looked up by name once, typically when a component starts, and the caller keeps
+ * the returned instance so that recording on hot paths is lock-free and does not allocate.
+ * Names are dot-separated, e.g. "cam1.analyzer.fps". Histogram names end with their unit.
+ * <p/>
+ * Readers, such as the StatusServer, only see these lock-free values and never need to
+ * reach into the components being measured.
+ */
+public class Metrics {
+    private final ConcurrentSkipListMap<String, Counter> mCounters = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<String, Gauge> mGauges = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<String, Histogram> mHistograms = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<String, Info> mInfos = new ConcurrentSkipListMap<>();
+
+    /** Returns the counter with the given name, creating it if needed. */
+    @Nonnull
+    public Counter counter(@Nonnull String name) {
+        return mCounters.computeIfAbsent(name, n -> new Counter());
+    }
+
+    /** Returns the gauge with the given name, creating it if needed. */
+    @Nonnull
+    public Gauge gauge(@Nonnull String name) {
+        return mGauges.computeIfAbsent(name, n -> new Gauge());
+    }
+
+    /** Returns the histogram with the given name, creating it if needed. */
+    @Nonnull
+    public Histogram histogram(@Nonnull String name) {
+        return mHistograms.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    /** Returns the info with the given name, creating it if needed. */
+    @Nonnull
+    public Info info(@Nonnull String name) {
+        return mInfos.computeIfAbsent(name, n -> new Info());
+    }
+
+    /** Counters sorted by name. */
+    @Nonnull
+    public SortedMap<String, Counter> getCounters() {
+        return Collections.unmodifiableSortedMap(mCounters);
+    }
+
+    /** Gauges sorted by name. */
+    @Nonnull
+    public SortedMap<String, Gauge> getGauges() {
+        return Collections.unmodifiableSortedMap(mGauges);
+    }
+
+    /** Histograms sorted by name. */
+    @Nonnull
+    public SortedMap<String, Histogram> getHistograms() {
+        return Collections.unmodifiableSortedMap(mHistograms);
+    }
+
+    /** Infos sorted by name. */
+    @Nonnull
+    public SortedMap<String, Info> getInfos() {
+        return Collections.unmodifiableSortedMap(mInfos);
+    }
+
+    /** Returns a multi-line summary of all metrics, one per line. */
+    @Nonnull
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Counter> entry : mCounters.entrySet()) {
+            sb.append(String.format("\n  %s = %d", entry.getKey(), entry.getValue().get()));
+        }
+        for (Map.Entry<String, Gauge> entry : mGauges.entrySet()) {
+            sb.append(String.format("\n  %s = %.2f", entry.getKey(), entry.getValue().get()));
+        }
+        for (Map.Entry<String, Histogram> entry : mHistograms.entrySet()) {
+            sb.append(String.format("\n  %s: %s", entry.getKey(), entry.getValue().getSummary("").trim()));
+        }
+        for (Map.Entry<String, Info> entry : mInfos.entrySet()) {
+            sb.append(String.format("\n  %s = %s", entry.getKey(), entry.getValue().get()));
+        }
+        return sb.toString();
+    }
+}
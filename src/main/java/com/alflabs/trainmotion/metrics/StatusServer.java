@@ -0,0 +1,233 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.metrics;
+
+import com.alflabs.trainmotion.ConfigIni;
+import com.alflabs.trainmotion.util.ILogger;
+import com.alflabs.trainmotion.util.IStartStop;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Optional HTTP server exposing the {@link Metrics}, enabled by the config.ini "status_port".
+ * <p/>
+ * "/status" returns the metrics as JSON and "/metrics" in the Prometheus text format.
+ * Requests are served by a single low-priority daemon thread which only reads the lock-free
+ * metrics values, so scraping never touches the analyzers nor the Swing components.
+ */
+@Singleton
+public class StatusServer implements IStartStop {
+    private static final String TAG = StatusServer.class.getSimpleName();
+
+    private static final String PATH_STATUS = "/status";
+    private static final String PATH_METRICS = "/metrics";
+    private static final String PROMETHEUS_PREFIX = "trainmotion_";
+    private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final String[] QUANTILES = { "0.5", "0.95", "0.99" };
+    private static final int[] PERCENTILES = { 50, 95, 99 };
+
+    private final ILogger mLogger;
+    private final ConfigIni mConfigIni;
+    private final Metrics mMetrics;
+    private final ObjectMapper mJsonMapper;
+    private HttpServer mServer;
+    private ExecutorService mServerExecutor;
+
+    @Inject
+    public StatusServer(
+            ILogger logger,
+            ConfigIni configIni,
+            Metrics metrics,
+            ObjectMapper jsonMapper) {
+        mLogger = logger;
+        mConfigIni = configIni;
+        mMetrics = metrics;
+        mJsonMapper = jsonMapper;
+    }
+
+    @Override
+    public void start() throws Exception {
+        int port = mConfigIni.getStatusPort();
+        if (port < 0) {
+            mLogger.log(TAG, "Status server disabled");
+            return;
+        }
+
+        String host = mConfigIni.getStatusHost();
+        try {
+            mServer = HttpServer.create(new InetSocketAddress(host, port), 0 /* default backlog */);
+        } catch (IOException e) {
+            // The status is only a monitoring aid and must not prevent the kiosk from running.
+            mLogger.log(TAG, "Status server failed to start on " + host + ":" + port + ": " + e);
+            return;
+        }
+        mServer.createContext(PATH_STATUS, exchange ->
+                handle(exchange, PATH_STATUS, "application/json; charset=utf-8", this::getJson));
+        mServer.createContext(PATH_METRICS, exchange ->
+                handle(exchange, PATH_METRICS, PROMETHEUS_CONTENT_TYPE, this::getPrometheus));
+        mServerExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Thread-StatusServer");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        mServer.setExecutor(mServerExecutor);
+        mServer.start();
+        mLogger.log(TAG, "Serving http://" + host + ":" + getPort() + PATH_STATUS + " and " + PATH_METRICS);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (mServer != null) {
+            mServer.stop(0 /* delay */);
+            mServerExecutor.shutdownNow();
+            mServer = null;
+            mServerExecutor = null;
+        }
+    }
+
+    /** Returns the port the server listens on, or -1 if not started. */
+    public int getPort() {
+        HttpServer server = mServer;
+        return server == null ? -1 : server.getAddress().getPort();
+    }
+
+    private interface BodySupplier {
+        String get() throws IOException;
+    }
+
+    private void handle(
+            @Nonnull HttpExchange exchange,
+            @Nonnull String path,
+            @Nonnull String contentType,
+            @Nonnull BodySupplier body) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            if (!path.equals(exchange.getRequestURI().getPath())) {
+                exchange.sendResponseHeaders(404, -1 /* no body */);
+            } else if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                exchange.sendResponseHeaders(405, -1 /* no body */);
+            } else {
+                byte[] bytes = body.get().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", contentType);
+                if ("HEAD".equals(method)) {
+                    exchange.sendResponseHeaders(200, -1 /* no body */);
+                } else {
+                    exchange.sendResponseHeaders(200, bytes.length);
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        os.write(bytes);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            mLogger.log(TAG, "Request failed: " + e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    @VisibleForTesting
+    @Nonnull
+    String getJson() throws JsonProcessingException {
+        Map<String, Object> counters = new TreeMap<>();
+        mMetrics.getCounters().forEach((name, counter) -> counters.put(name, counter.get()));
+
+        Map<String, Object> gauges = new TreeMap<>();
+        mMetrics.getGauges().forEach((name, gauge) -> gauges.put(name, gauge.get()));
+
+        Map<String, Object> histograms = new TreeMap<>();
+        mMetrics.getHistograms().forEach((name, histogram) -> {
+            Map<String, Object> values = new TreeMap<>();
+            values.put("count", histogram.getCount());
+            values.put("avg", histogram.getAverage());
+            values.put("p50", histogram.getPercentile(50));
+            values.put("p95", histogram.getPercentile(95));
+            values.put("p99", histogram.getPercentile(99));
+            values.put("max", histogram.getMax());
+            histograms.put(name, values);
+        });
+
+        Map<String, Object> infos = new TreeMap<>();
+        mMetrics.getInfos().forEach((name, info) -> infos.put(name, info.get()));
+
+        Map<String, Object> root = new TreeMap<>();
+        root.put("counters", counters);
+        root.put("gauges", gauges);
+        root.put("histograms", histograms);
+        root.put("infos", infos);
+        return mJsonMapper.writeValueAsString(root);
+    }
+
+    @VisibleForTesting
+    @Nonnull
+    String getPrometheus() {
+        StringBuilder sb = new StringBuilder();
+        mMetrics.getCounters().forEach((name, counter) -> {
+            String metric = toPrometheusName(name) + "_total";
+            sb.append("# TYPE ").append(metric).append(" counter\n");
+            sb.append(metric).append(' ').append(counter.get()).append('\n');
+        });
+        mMetrics.getGauges().forEach((name, gauge) -> {
+            String metric = toPrometheusName(name);
+            sb.append("# TYPE ").append(metric).append(" gauge\n");
+            sb.append(metric).append(' ').append(gauge.get()).append('\n');
+        });
+        mMetrics.getHistograms().forEach((name, histogram) -> {
+            String metric = toPrometheusName(name);
+            sb.append("# TYPE ").append(metric).append(" summary\n");
+            for (int i = 0; i < QUANTILES.length; i++) {
+                sb.append(metric).append("{quantile=\"").append(QUANTILES[i]).append("\"} ")
+                        .append(histogram.getPercentile(PERCENTILES[i])).append('\n');
+            }
+            sb.append(metric).append("_sum ").append(histogram.getSum()).append('\n');
+            sb.append(metric).append("_count ").append(histogram.getCount()).append('\n');
+        });
+        mMetrics.getInfos().forEach((name, info) -> {
+            String metric = toPrometheusName(name) + "_info";
+            sb.append("# TYPE ").append(metric).append(" gauge\n");
+            sb.append(metric).append("{value=\"").append(escapeLabel(info.get())).append("\"} 1\n");
+        });
+        return sb.toString();
+    }
+
+    @Nonnull
+    private static String toPrometheusName(@Nonnull String name) {
+        return PROMETHEUS_PREFIX + name.replaceAll("[^a-zA-Z0-9_]", "_");
+    }
+
+    @Nonnull
+    private static String escapeLabel(@Nonnull String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
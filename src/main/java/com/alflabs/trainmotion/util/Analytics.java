@@ -18,6 +18,11 @@
 
 package com.alflabs.trainmotion.util;
 
+import com.alflabs.trainmotion.metrics.Counter;
+import com.alflabs.trainmotion.metrics.Gauge;
+import com.alflabs.trainmotion.metrics.Histogram;
+import com.alflabs.trainmotion.metrics.JfrEvents;
+import com.alflabs.trainmotion.metrics.Metrics;
 import com.alflabs.utils.IClock;
 import com.google.common.base.Strings;
 import okhttp3.MediaType;
@@ -83,6 +88,9 @@ public class Analytics extends ThreadLoop {
     private final ILocalDateTimeNowProvider mLocalDateTimeNow;
     // Note: The executor is a dagger singleton, shared with the JsonSender.
     private final ScheduledExecutorService mExecutor;
+    private final Histogram mSendMsHistogram;
+    private final Counter mSendErrors;
+    private final Gauge mQueueDepth;
 
     @Nullable
     private String mAnalyticsId = null;
@@ -96,13 +104,19 @@ public class Analytics extends ThreadLoop {
                      Random random,
                      OkHttpClient okHttpClient,
                      ILocalDateTimeNowProvider localDateTimeNow,
-                     @Named("SingleThreadExecutor") ScheduledExecutorService executor) {
+                     Metrics metrics,
+                     @Named("SingleThreadExecutor") ScheduledExecutorService executor,
+                     ThreadLoopRuntime runtime) {
+        super(runtime);
         mLogger = logger;
         mClock = clock;
         mRandom = random;
         mOkHttpClient = okHttpClient;
         mLocalDateTimeNow = localDateTimeNow;
         mExecutor = executor;
+        mSendMsHistogram = metrics.histogram("analytics.send_ms");
+        mSendErrors = metrics.counter("analytics.send_errors");
+        mQueueDepth = metrics.gauge("analytics.queue_depth");
     }
 
     /** Must be called before {@link #start()}. All events are ignored till this is set. */
@@ -153,6 +167,8 @@ public class Analytics extends ThreadLoop {
     @Override
     public void stop() throws Exception {
         mLogger.log(TAG, "Stop");
+        // A parked loop must run to flush its queue before it ends.
+        unpark();
         mStopLoopOnceEmpty.set(true);
         mLatchEndLoop.await(10, TimeUnit.SECONDS);
         super.stop();
@@ -189,6 +205,7 @@ public class Analytics extends ThreadLoop {
                     }
                 }
             }
+            updateQueueDepth();
         }
 
         try {
@@ -308,6 +325,7 @@ public class Analytics extends ThreadLoop {
                     payload,
                     String.format("Event [c:%s a:%s l:%s v:%s u:%s]", category, action, label, value, user)
             ));
+            updateQueueDepth();
         } catch (Exception e) {
             mLogger.log(TAG, "Event Encoding ERROR: " + e);
         }
@@ -365,11 +383,16 @@ public class Analytics extends ThreadLoop {
                     payload,
                     String.format("PageView [d:%s u:%s]", d_url, user)
             ));
+            updateQueueDepth();
         } catch (Exception e) {
             mLogger.log(TAG, "Page Encoding ERROR: " + e);
         }
     }
 
+    private void updateQueueDepth() {
+        // The queue is short, so its O(n) size is cheap enough here.
+        mQueueDepth.set(mPayloads.size());
+    }
 
     private class Payload {
         private final long mCreatedTS;
@@ -399,10 +422,15 @@ public class Analytics extends ThreadLoop {
                 payload = String.format("%s&qt=%d" /* queue_time */, mPayload, deltaTS);
             }
 
+            JfrEvents.AnalyticsSend event = new JfrEvents.AnalyticsSend();
+            event.begin();
+            int code = -1;
             try {
+                long startMs = mClock.elapsedRealtime();
                 Response response = mIsGA4 ? sendPayloadGA4(payload) : sendPayloadV1(payload);
+                mSendMsHistogram.record(mClock.elapsedRealtime() - startMs);
 
-                int code = response.code();
+                code = response.code();
                 mLogger.log(TAG, String.format("%s delta: %d ms, code: %d",
                         mDebugLog, deltaTS, code));
 
@@ -411,12 +439,23 @@ public class Analytics extends ThreadLoop {
                 }
 
                 response.close();
-                return code < 400;
+                if (code < 400) {
+                    return true;
+                }
 
             } catch (Exception e) {
                 mLogger.log(TAG, "Send ERROR: " + e);
+            } finally {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.event = mDebugLog;
+                    event.queueMs = deltaTS;
+                    event.code = code;
+                    event.commit();
+                }
             }
 
+            mSendErrors.increment();
             return false;
         }
 
@@ -0,0 +1,323 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.util;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * An {@link ILogger} that never blocks the caller.
+ * <p/>
+ * Messages are queued in a bounded lock-free ring buffer and written by a background daemon
+ * thread to stdout and/or a rotating log file. When the buffer is full, messages are dropped and
+ * counted, and the writer reports the number of dropped messages once it catches up.
+ * Messages logged via {@link #log(Level, String, Supplier)} are only formatted on the writer
+ * thread, and only when their level is loggable.
+ */
+public class AsyncLogger implements ILogger {
+    private static final String TAG = AsyncLogger.class.getSimpleName();
+
+    private static final int CAPACITY = 4096;
+    private static final long FILE_MAX_BYTES = 10 * 1024 * 1024;
+    private static final int FILE_MAX_COUNT = 5;
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private final int mMask;
+    private final AtomicReferenceArray<Entry> mSlots;
+    /** Sequence of the next slot to be claimed by a producer. */
+    private final AtomicLong mHead = new AtomicLong();
+    /** Sequence of the next slot to be read by the writer. Only written by the writer thread. */
+    private volatile long mTail;
+    /** Last sequence written and flushed by the writer. */
+    private volatile long mFlushed;
+    private final AtomicLong mDropped = new AtomicLong();
+    private final PrintStream mStdout;
+    private final Thread mWriter;
+    private volatile boolean mWriterWaiting;
+
+    private volatile Level mLevel = Level.INFO;
+    private volatile boolean mUseStdout = true;
+    private volatile File mLogFile;
+
+    // Only accessed on the writer thread.
+    private long mReportedDropped;
+    private File mOpenFile;
+    private Writer mFileWriter;
+    private long mFileSize;
+
+    public AsyncLogger() {
+        this(CAPACITY, System.out);
+    }
+
+    @VisibleForTesting
+    AsyncLogger(int capacity, @Nonnull PrintStream stdout) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of 2: " + capacity);
+        }
+        mMask = capacity - 1;
+        mSlots = new AtomicReferenceArray<>(capacity);
+        mStdout = stdout;
+        mWriter = new Thread(this::runWriter, "Thread-Logger");
+        mWriter.setDaemon(true);
+        mWriter.start();
+    }
+
+    /** Sets the minimum level logged. The default is {@link Level#INFO}. */
+    public void setLevel(@Nonnull Level level) {
+        mLevel = level;
+    }
+
+    /**
+     * Sets where the messages are written.
+     *
+     * @param useStdout True to write to stdout, which is the default.
+     * @param logFile A log file, rotated when it gets too large, or null for none.
+     */
+    public void setOutputs(boolean useStdout, @Nullable File logFile) {
+        mUseStdout = useStdout;
+        mLogFile = logFile;
+    }
+
+    /** Returns the number of messages dropped because the buffer was full. */
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    @Override
+    public boolean isLoggable(Level level) {
+        return level.compareTo(mLevel) >= 0;
+    }
+
+    @Override
+    public void log(String msg) {
+        offer(new Entry(null, msg, null));
+    }
+
+    @Override
+    public void log(String tag, String msg) {
+        offer(new Entry(tag, msg, null));
+    }
+
+    @Override
+    public void log(Level level, String tag, Supplier<String> msg) {
+        if (isLoggable(level)) {
+            offer(new Entry(tag, null, msg));
+        }
+    }
+
+    /**
+     * Waits till all messages logged so far have been written, for at most the given time.
+     * Called before exiting since the writer thread is a daemon.
+     */
+    public void flush(long timeoutMs) {
+        long target = mHead.get();
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (mFlushed < target && System.currentTimeMillis() < deadline) {
+            LockSupport.unpark(mWriter);
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void offer(@Nonnull Entry entry) {
+        while (true) {
+            long head = mHead.get();
+            if (head - mTail > mMask) {
+                mDropped.incrementAndGet();
+                return;
+            }
+            if (mHead.compareAndSet(head, head + 1)) {
+                mSlots.set((int) (head & mMask), entry);
+                break;
+            }
+        }
+        if (mWriterWaiting) {
+            LockSupport.unpark(mWriter);
+        }
+    }
+
+    /** Returns the next entry, or null if there is none yet. Only called by the writer thread. */
+    @Nullable
+    private Entry poll() {
+        long tail = mTail;
+        int index = (int) (tail & mMask);
+        Entry entry = mSlots.get(index);
+        if (entry != null) {
+            // Clear the slot before releasing it to the producers.
+            mSlots.set(index, null);
+            mTail = tail + 1;
+        }
+        return entry;
+    }
+
+    private void runWriter() {
+        while (true) {
+            Entry entry = poll();
+            if (entry != null) {
+                reportDropped();
+                write(entry.mTag, entry.getMsg(), entry.mTimeMs);
+                continue;
+            }
+
+            long tail = mTail;
+            if (tail != mHead.get()) {
+                // A producer claimed a slot but has not filled it yet.
+                Thread.onSpinWait();
+                continue;
+            }
+
+            reportDropped();
+            flushOutputs();
+            mFlushed = tail;
+            mWriterWaiting = true;
+            if (mHead.get() == tail) {
+                LockSupport.park(this);
+            }
+            mWriterWaiting = false;
+        }
+    }
+
+    private void reportDropped() {
+        long dropped = mDropped.get();
+        if (dropped != mReportedDropped) {
+            write(TAG, (dropped - mReportedDropped) + " messages dropped", System.currentTimeMillis());
+            mReportedDropped = dropped;
+        }
+    }
+
+    private void write(@Nullable String tag, @Nonnull String msg, long timeMs) {
+        String line = tag == null ? msg : tag + ": " + msg;
+        int n = line.length();
+        boolean hasEol = n > 0 && (line.charAt(n - 1) == '\r' || line.charAt(n - 1) == '\n');
+
+        if (mUseStdout) {
+            if (hasEol) {
+                mStdout.print(line);
+            } else {
+                mStdout.println(line);
+            }
+        }
+
+        File logFile = mLogFile;
+        if (logFile != mOpenFile) {
+            closeFile();
+            mOpenFile = logFile;
+        }
+        if (logFile != null) {
+            try {
+                if (mFileWriter == null || mFileSize >= FILE_MAX_BYTES) {
+                    openFile(logFile);
+                }
+                String out = TIME_FORMAT.format(Instant.ofEpochMilli(timeMs)) + " " + line + (hasEol ? "" : "\n");
+                mFileWriter.write(out);
+                mFileSize += out.length();
+            } catch (IOException e) {
+                // Stop writing to the file; there is no point in logging this error in it.
+                closeFile();
+                mLogFile = null;
+                mOpenFile = null;
+                mStdout.println(TAG + ": Failed to write " + logFile + ": " + e);
+            }
+        }
+    }
+
+    /** Opens the log file, rotating it first when it is too large. */
+    private void openFile(@Nonnull File logFile) throws IOException {
+        closeFile();
+        if (logFile.length() >= FILE_MAX_BYTES) {
+            for (int i = FILE_MAX_COUNT - 1; i > 0; i--) {
+                File src = i == 1 ? logFile : new File(logFile.getPath() + "." + (i - 1));
+                File dst = new File(logFile.getPath() + "." + i);
+                if (src.exists()) {
+                    //noinspection ResultOfMethodCallIgnored
+                    dst.delete();
+                    //noinspection ResultOfMethodCallIgnored
+                    src.renameTo(dst);
+                }
+            }
+        }
+        mFileWriter = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(logFile, true /* append */), StandardCharsets.UTF_8));
+        mFileSize = logFile.length();
+    }
+
+    private void closeFile() {
+        if (mFileWriter != null) {
+            try {
+                mFileWriter.close();
+            } catch (IOException ignore) {}
+            mFileWriter = null;
+        }
+    }
+
+    private void flushOutputs() {
+        mStdout.flush();
+        if (mFileWriter != null) {
+            try {
+                mFileWriter.flush();
+            } catch (IOException ignore) {}
+        }
+    }
+
+    private static class Entry {
+        final long mTimeMs = System.currentTimeMillis();
+        final String mTag;
+        final String mMsg;
+        final Supplier<String> mSupplier;
+
+        Entry(@Nullable String tag, @Nullable String msg, @Nullable Supplier<String> supplier) {
+            mTag = tag;
+            mMsg = msg;
+            mSupplier = supplier;
+        }
+
+        @Nonnull
+        String getMsg() {
+            if (mSupplier != null) {
+                try {
+                    return String.valueOf(mSupplier.get());
+                } catch (Throwable t) {
+                    return "Failed to format message: " + t;
+                }
+            }
+            return String.valueOf(mMsg);
+        }
+    }
+}
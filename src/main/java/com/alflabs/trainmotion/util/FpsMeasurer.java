@@ -18,30 +18,91 @@
 
 package com.alflabs.trainmotion.util;
 
+import com.alflabs.trainmotion.metrics.Counter;
+import com.alflabs.trainmotion.metrics.Gauge;
+import com.alflabs.trainmotion.metrics.Histogram;
+import com.alflabs.trainmotion.metrics.Metrics;
 import com.alflabs.utils.IClock;
 import com.google.auto.factory.AutoFactory;
 import com.google.auto.factory.Provided;
 
+import javax.annotation.Nonnull;
+
 /**
  * Utility class that can be dropped in an FPS-controlled loop.
  * <p/>
- * Given a specific target framerate, this waits at the end of the loop to reach the desired
- * frame rate (if there's any time left). It also computes the actual FPS achieved.
+ * Given a specific target framerate, this waits at the end of the loop till the next frame
+ * deadline. Deadlines are absolute, i.e. each one is exactly one period after the previous one,
+ * so the loop does not drift when iterations wake up late. When an iteration overruns its
+ * deadline, the {@link OverrunPolicy} decides whether the loop catches up or skips frames.
+ * <p/>
+ * It also computes the actual FPS achieved, both instantaneous and smoothed, and how late each
+ * iteration starts compared to its deadline (the jitter).
+ * <p/>
+ * Loops which are paced externally (e.g. a render callback) only call {@link #startTick()} to
+ * measure their FPS.
  */
 @AutoFactory
 public class FpsMeasurer {
+    /** Weight of the last iteration in the smoothed FPS. */
+    private static final double EWMA_ALPHA = 0.1;
+    /** With {@link OverrunPolicy#CATCH_UP}, how many periods late before giving up catching up. */
+    private static final int MAX_CATCH_UP_PERIODS = 5;
+
+    public enum OverrunPolicy {
+        /** Run the next iterations without waiting till the loop is back on schedule. */
+        CATCH_UP,
+        /** Drop the missed frames and restart the schedule from the end of the late iteration. */
+        SKIP,
+    }
+
     private final IClock mClock;
+    private final Metrics mMetrics;
+    private OverrunPolicy mOverrunPolicy = OverrunPolicy.SKIP;
     private long mLastMs;
     private double mFps;
+    private double mAverageLoopMs;
     private long mLoopMs;
+    private double mPeriodMs;
+    /** The deadline of the current iteration, or 0 if not known yet. */
+    private double mDeadlineMs;
+    /** Whether the current iteration was scheduled by {@link #endWait()}. */
+    private boolean mScheduled;
+    private long mOverrunCount;
+    private long mSkippedCount;
+    private Gauge mFpsGauge;
+    private Histogram mLoopHistogram;
+    private Histogram mJitterHistogram;
+    private Counter mOverrunCounter;
+    private Counter mSkippedCounter;
 
-    FpsMeasurer(@Provided IClock clock) {
+    FpsMeasurer(@Provided IClock clock, @Provided Metrics metrics) {
         mClock = clock;
+        mMetrics = metrics;
+    }
+
+    /**
+     * Publishes the smoothed FPS as the "name.fps" gauge, the actual loop duration as the
+     * "name.loop_ms" histogram, the iteration start delays as the "name.jitter_ms" histogram,
+     * and the "name.overruns" and "name.skipped" counters of the {@link Metrics}.
+     */
+    public void setMetricsName(@Nonnull String name) {
+        mFpsGauge = mMetrics.gauge(name + ".fps");
+        mLoopHistogram = mMetrics.histogram(name + ".loop_ms");
+        mJitterHistogram = mMetrics.histogram(name + ".jitter_ms");
+        mOverrunCounter = mMetrics.counter(name + ".overruns");
+        mSkippedCounter = mMetrics.counter(name + ".skipped");
     }
 
     /** Sets the desired framerate, to determine how much to wait in {@link #endWait()}. */
     public void setFrameRate(double frameRate) {
-        mLoopMs = frameRate <= 0 ? 0 : (long)(1000.0 / frameRate);
+        mPeriodMs = frameRate <= 0 ? 0 : 1000.0 / frameRate;
+        mLoopMs = (long) mPeriodMs;
+    }
+
+    /** Sets what {@link #endWait()} does when an iteration overruns its deadline. Default is SKIP. */
+    public void setOverrunPolicy(@Nonnull OverrunPolicy overrunPolicy) {
+        mOverrunPolicy = overrunPolicy;
     }
 
     /** Returns the loop duration in milliseconds needed to achieve the target framerate. */
@@ -49,11 +110,40 @@ public class FpsMeasurer {
         return mLoopMs;
     }
 
+    /**
+     * Returns the milliseconds left till the deadline of the next iteration, e.g. to bound
+     * a blocking wait in the loop. Returns the loop duration if not known yet.
+     */
+    public long getRemainingMs() {
+        if (mLastMs <= 0 || mPeriodMs <= 0) {
+            return mLoopMs;
+        }
+        return Math.max(0, Math.round(mDeadlineMs + mPeriodMs - mClock.elapsedRealtime()));
+    }
+
     /** Returns the actual FPS achieved. Updated by the {@link #startTick()} call. */
     public double getFps() {
         return mFps;
     }
 
+    /**
+     * Returns the actual FPS achieved, smoothed with an exponentially weighted moving average
+     * of the loop durations. Updated by the {@link #startTick()} call.
+     */
+    public double getAverageFps() {
+        return mAverageLoopMs <= 0 ? mFps : 1000.0 / mAverageLoopMs;
+    }
+
+    /** Returns the number of iterations which ended after the next deadline. */
+    public long getOverrunCount() {
+        return mOverrunCount;
+    }
+
+    /** Returns the number of frames dropped by the {@link OverrunPolicy#SKIP} policy. */
+    public long getSkippedCount() {
+        return mSkippedCount;
+    }
+
     /**
      * Called at the very beginning of a loop iteration.
      * <p/>
@@ -65,33 +155,74 @@ public class FpsMeasurer {
 
         if (mLastMs > 0) {
             long deltaMs = now - mLastMs;
-            mFps = 1000.0 / deltaMs;
+            if (deltaMs > 0) {
+                mFps = 1000.0 / deltaMs;
+                mAverageLoopMs = mAverageLoopMs <= 0
+                        ? deltaMs
+                        : EWMA_ALPHA * deltaMs + (1 - EWMA_ALPHA) * mAverageLoopMs;
+            }
+            if (mFpsGauge != null) {
+                mFpsGauge.set(getAverageFps());
+                mLoopHistogram.record(deltaMs);
+            }
         }
 
+        if (mScheduled) {
+            if (mJitterHistogram != null) {
+                mJitterHistogram.record(Math.max(0, now - Math.round(mDeadlineMs)));
+            }
+        } else {
+            mDeadlineMs = now;
+        }
+        mScheduled = false;
         mLastMs = now;
     }
 
     /**
      * Called at the very end of a loop iteration.
      * <p/>
-     * If there's any time left, pauses to achieve the desired frame rate.
+     * If there's any time left, pauses till the deadline of the next iteration to achieve
+     * the desired frame rate.
      *
-     * @return The number of milliseconds paused waiting. Can be negative.
+     * @return The number of milliseconds paused waiting. Negative when the iteration overran
+     *   the next deadline.
      */
     public long endWait() {
-        if (mLastMs <= 0) {
+        if (mLastMs <= 0 || mPeriodMs <= 0) {
             return 0;
         }
-        long deltaMs = mClock.elapsedRealtime() - mLastMs;
-        deltaMs = mLoopMs - deltaMs;
-        if (deltaMs > 0) {
-            mClock.sleep(deltaMs);
+        long now = mClock.elapsedRealtime();
+        double deadlineMs = mDeadlineMs + mPeriodMs;
+        long waitMs = Math.round(deadlineMs - now);
+
+        if (waitMs < 0) {
+            mOverrunCount++;
+            if (mOverrunCounter != null) {
+                mOverrunCounter.increment();
+            }
+            long latePeriods = (long) ((now - deadlineMs) / mPeriodMs);
+            if (mOverrunPolicy == OverrunPolicy.SKIP || latePeriods >= MAX_CATCH_UP_PERIODS) {
+                // Restart the schedule now, dropping the frames whose deadline fully passed.
+                mSkippedCount += latePeriods;
+                if (mSkippedCounter != null) {
+                    mSkippedCounter.add(latePeriods);
+                }
+                deadlineMs = now;
+            }
+        } else if (waitMs > 0) {
+            mClock.sleep(waitMs);
         }
-        return deltaMs;
+
+        mDeadlineMs = deadlineMs;
+        mScheduled = true;
+        return waitMs;
     }
 
     /** Reset the internal state used to compute actual FPS, if this object is reused. */
     public void reset() {
         mLastMs = 0;
+        mDeadlineMs = 0;
+        mScheduled = false;
+        mAverageLoopMs = 0;
     }
 }
@@ -18,8 +18,33 @@
 
 package com.alflabs.trainmotion.util;
 
+import java.util.function.Supplier;
+
 public interface ILogger {
+    enum Level {
+        DEBUG,
+        INFO,
+    }
+
     void log(String msg);
 
+    /** Logs an {@link Level#INFO} message. */
     void log(String tag, String msg);
+
+    /** Indicates whether messages at this level are logged. */
+    default boolean isLoggable(Level level) {
+        return level.compareTo(Level.INFO) >= 0;
+    }
+
+    /**
+     * Logs a message which is only formatted when its level is loggable.
+     * <p/>
+     * The supplier may be invoked later on another thread, so it should only capture values
+     * that do not change afterwards.
+     */
+    default void log(Level level, String tag, Supplier<String> msg) {
+        if (isLoggable(level)) {
+            log(tag, msg.get());
+        }
+    }
 }
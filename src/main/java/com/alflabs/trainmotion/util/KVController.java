@@ -27,32 +27,68 @@ import com.alflabs.rx.IStream;
 import com.alflabs.rx.Publishers;
 import com.alflabs.rx.Streams;
 import com.alflabs.trainmotion.ConfigIni;
+import com.alflabs.trainmotion.metrics.Counter;
+import com.alflabs.trainmotion.metrics.Gauge;
+import com.alflabs.trainmotion.metrics.Histogram;
+import com.alflabs.trainmotion.metrics.JfrEvents;
+import com.alflabs.trainmotion.metrics.Metrics;
 import com.alflabs.utils.IClock;
+import com.google.common.annotations.VisibleForTesting;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Controls the connection to a KeyValueClient if enabled in settings.
+ * <p/>
+ * After a disconnect or a failed connection, the controller retries with an exponential backoff:
+ * the first retry happens after about {@link #FIRST_RETRY_MS}, and the delay doubles with each
+ * consecutive failure up to {@link #MAX_RETRY_MS}. Each delay is randomized between half and the
+ * full value, so that several kiosks do not all hammer the server at the same time.
+ * {@link #reconnectNow()}, e.g. from the "k" console key, skips the current wait.
  */
 @Singleton
 public class KVController extends ThreadLoop {
     private static final String TAG = KVController.class.getSimpleName();
-    private static final long IDLE_SLEEP_MS = 60 * 1000L;  // 1 minute
+    private static final long FIRST_RETRY_MS = 500;
+    private static final long MAX_RETRY_MS = 60 * 1000L;  // 1 minute
+    /** A connection must stay up this long to reset the retry backoff. */
+    private static final long MIN_CONNECTED_MS = 10 * 1000L;
     private static final int KV_SERVER_PORT = 20006; // Default port for KV Server.
 
     private final IClock mClock;
     private final ILogger mLogger;
     private final ConfigIni mConfigIni;
+    private final Random mRandom;
+    private final Counter mConnectAttemptsCounter;
+    private final Histogram mReconnectMsHistogram;
+    private final Gauge mConnectedGauge;
     private Optional<InetSocketAddress> mSocketAddress = Optional.empty();
     private final AtomicReference<KeyValueClient> mKVClient = new AtomicReference<>();
     private final AtomicBoolean mKVConnected = new AtomicBoolean(false);
     private final AtomicBoolean mKVEnabled = new AtomicBoolean(false);
+    /** Total number of connection attempts, including the first one. */
+    private final AtomicInteger mConnectAttempts = new AtomicInteger();
+    /** Time from the last disconnect (or start) to the last successful connection. */
+    private final AtomicLong mLastReconnectLatencyMs = new AtomicLong(-1);
+    private final ReentrantLock mRetryLock = new ReentrantLock();
+    private final Condition mRetryNowCondition = mRetryLock.newCondition();
+    /** Set by reconnectNow(). Guarded by mRetryLock. */
+    private boolean mRetryNow;
+    /** Number of consecutive connection failures, reset when a connection stays up long enough. */
+    private volatile int mFailures;
+    private long mDisconnectTS;
 
     /** Stream that broadcasts whether the client is connected. */
     private final IStream<Boolean> mConnectedStream = Streams.stream();
@@ -65,10 +101,18 @@ public class KVController extends ThreadLoop {
     public KVController(
             IClock clock,
             ILogger logger,
-            ConfigIni configIni) {
+            ConfigIni configIni,
+            Random random,
+            Metrics metrics,
+            ThreadLoopRuntime runtime) {
+        super(runtime);
         mClock = clock;
         mLogger = logger;
         mConfigIni = configIni;
+        mRandom = random;
+        mConnectAttemptsCounter = metrics.counter("kv.connect_attempts");
+        mReconnectMsHistogram = metrics.histogram("kv.reconnect_ms");
+        mConnectedGauge = metrics.gauge("kv.connected");
         mConnectedStream.publishWith(mConnectedPublisher);
         mKeyChangedStream.publishWith(mKeyChangedPublisher);
     }
@@ -86,6 +130,33 @@ public class KVController extends ThreadLoop {
         return mKVConnected.get();
     }
 
+    /** Total number of connection attempts since start. */
+    public int getConnectAttempts() {
+        return mConnectAttempts.get();
+    }
+
+    /** Time it took to (re)connect the last time, in ms, or -1 if never connected. */
+    public long getLastReconnectLatencyMs() {
+        return mLastReconnectLatencyMs.get();
+    }
+
+    /** Skips the current retry delay, if any, and reconnects immediately. */
+    public void reconnectNow() {
+        mRetryLock.lock();
+        try {
+            mRetryNow = true;
+            mRetryNowCondition.signalAll();
+        } finally {
+            mRetryLock.unlock();
+        }
+    }
+
+    /** Number of consecutive connection failures, which drives the retry delay. */
+    @VisibleForTesting
+    int getFailures() {
+        return mFailures;
+    }
+
     /** Stream that broadcasts whether the client is connected. */
     @NonNull
     public IStream<Boolean> getConnectedStream() {
@@ -133,6 +204,8 @@ public class KVController extends ThreadLoop {
             return;
         }
 
+        mFailures = 0;
+        mDisconnectTS = mClock.elapsedRealtime();
         super.start("Thread-KVClient");
     }
 
@@ -151,6 +224,12 @@ public class KVController extends ThreadLoop {
         mLogger.log(TAG, "Stopped");
     }
 
+    @Override
+    protected long getStuckTimeoutMs() {
+        // Each iteration stays in join() for as long as the client is connected.
+        return 0;
+    }
+
     @Override
     protected void _runInThreadLoop() throws EndLoopException {
 
@@ -169,27 +248,81 @@ public class KVController extends ThreadLoop {
             kvClient.getChangedStream().subscribe((stream, key) -> mKeyChangedPublisher.publish(key));
 
             // Try to connect and stay connected.
+            mConnectAttempts.incrementAndGet();
+            mConnectAttemptsCounter.increment();
             if (kvClient.startSync()) {
-                mLogger.log(TAG, "KVClient: Connected.");
+                long latencyMs = mClock.elapsedRealtime() - mDisconnectTS;
+                mLastReconnectLatencyMs.set(latencyMs);
+                mReconnectMsHistogram.record(latencyMs);
+                mConnectedGauge.set(1);
+                commitConnectionEvent(true, latencyMs);
+                long connectedTS = mClock.elapsedRealtime();
+                mLogger.log(TAG, "KVClient: Connected after " + latencyMs + " ms, "
+                        + mConnectAttempts.get() + " attempts total.");
                 mKVConnected.set(true);
                 mConnectedPublisher.publish(true);
                 kvClient.requestAllKeys();
                 kvClient.join();
+                // A server which accepts then drops right away must not defeat the backoff.
+                if (mClock.elapsedRealtime() - connectedTS >= MIN_CONNECTED_MS) {
+                    mFailures = 0;
+                }
             }
 
         } catch (Throwable t) {
             mLogger.log(TAG, "KVClient: Connection failed: "+ t);
         }
         // Not connected anymore.
-        mLogger.log(TAG, "KVClient: Disconnected.");
-        mKVConnected.set(false);
-        mConnectedPublisher.publish(false);
+        if (mKVConnected.getAndSet(false)) {
+            mLogger.log(TAG, "KVClient: Disconnected.");
+            mConnectedGauge.set(0);
+            commitConnectionEvent(false, -1);
+            mDisconnectTS = mClock.elapsedRealtime();
+            mConnectedPublisher.publish(false);
+        }
         mKVClient.set(null);
 
+        if (mQuit) {
+            throw new EndLoopException();
+        }
+
+        long delayMs = computeRetryDelayMs(mFailures++);
+        mLogger.log(TAG, "KVClient: Retry in " + delayMs + " ms.");
+        // Block for the whole delay: reconnectNow() signals and stop() interrupts the wait.
+        mRetryLock.lock();
         try {
-            Thread.sleep(IDLE_SLEEP_MS);
-        } catch (Exception e) {
-            mLogger.log(TAG, "Idle loop interrupted: " + e);
+            long waitNs = TimeUnit.MILLISECONDS.toNanos(delayMs);
+            while (!mRetryNow && !mQuit && waitNs > 0) {
+                waitNs = mRetryNowCondition.awaitNanos(waitNs);
+            }
+            mRetryNow = false;
+        } catch (InterruptedException e) {
+            // stop() interrupts the thread; mQuit ends the loop on the next iteration.
+        } finally {
+            mRetryLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the delay before the next connection attempt: the base delay doubles with each
+     * consecutive failure up to the max, and the result is randomized between half and the
+     * full base delay.
+     */
+    @VisibleForTesting
+    long computeRetryDelayMs(int failures) {
+        long base = Math.min(MAX_RETRY_MS, FIRST_RETRY_MS << Math.min(failures, 16));
+        long half = base / 2;
+        return half + mRandom.nextInt((int) half + 1);
+    }
+
+    /** Records a connection or disconnection in the JFR recording, if enabled. */
+    private void commitConnectionEvent(boolean connected, long reconnectMs) {
+        JfrEvents.KVConnection event = new JfrEvents.KVConnection();
+        if (event.shouldCommit()) {
+            event.connected = connected;
+            event.attempts = mConnectAttempts.get();
+            event.reconnectMs = reconnectMs;
+            event.commit();
         }
     }
 
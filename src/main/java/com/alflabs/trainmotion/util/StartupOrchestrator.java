@@ -0,0 +1,293 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.util;
+
+import com.alflabs.trainmotion.metrics.Metrics;
+import com.alflabs.utils.IClock;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Starts the application components as a dependency graph.
+ * <p/>
+ * Each step names the steps it depends on. Steps run as soon as their dependencies are done:
+ * background steps run in parallel on a small pool, whereas main steps run one at a time on
+ * the thread calling {@link #run()}, e.g. for the components which must be created on the main
+ * thread. If a step fails, no new step is started, the steps already running are awaited, and
+ * {@link #run()} throws the first error.
+ * <p/>
+ * Once done, the startup timeline is logged. Milestones reached later, e.g. the first video
+ * playing, are logged with {@link #milestone(String)}. The metrics are the "startup.STEP_ms"
+ * durations and the "startup.MILESTONE_ms" times since the JVM started.
+ */
+@Singleton
+public class StartupOrchestrator {
+    private static final String TAG = StartupOrchestrator.class.getSimpleName();
+
+    private static final int MAX_THREADS = 4;
+
+    /** A startup step, typically an {@link IStartStop#start()} method reference. */
+    public interface Step {
+        void run() throws Exception;
+    }
+
+    private final IClock mClock;
+    private final ILogger mLogger;
+    private final Metrics mMetrics;
+    private final LongSupplier mUptimeMs;
+    private final Map<String, Node> mNodes = new LinkedHashMap<>();
+    private final Set<String> mMilestones = ConcurrentHashMap.newKeySet();
+
+    @Inject
+    public StartupOrchestrator(IClock clock, ILogger logger, Metrics metrics) {
+        this(clock, logger, metrics, () -> ManagementFactory.getRuntimeMXBean().getUptime());
+    }
+
+    @VisibleForTesting
+    StartupOrchestrator(IClock clock, ILogger logger, Metrics metrics, LongSupplier uptimeMs) {
+        mClock = clock;
+        mLogger = logger;
+        mMetrics = metrics;
+        mUptimeMs = uptimeMs;
+    }
+
+    /** Adds a step which runs on a background thread once its dependencies are done. */
+    @Nonnull
+    public StartupOrchestrator add(@Nonnull String name, @Nonnull Step step, @Nonnull String... dependsOn) {
+        return addNode(new Node(name, step, false /* onMain */, dependsOn));
+    }
+
+    /** Adds a step which runs on the thread calling {@link #run()} once its dependencies are done. */
+    @Nonnull
+    public StartupOrchestrator addOnMain(@Nonnull String name, @Nonnull Step step, @Nonnull String... dependsOn) {
+        return addNode(new Node(name, step, true /* onMain */, dependsOn));
+    }
+
+    @Nonnull
+    private StartupOrchestrator addNode(@Nonnull Node node) {
+        Preconditions.checkState(!mNodes.containsKey(node.mName), "Duplicate startup step " + node.mName);
+        mNodes.put(node.mName, node);
+        return this;
+    }
+
+    /** Runs all the steps added so far and waits for them. Throws the error of the first failed step. */
+    public void run() throws Exception {
+        List<Node> nodes = new ArrayList<>(mNodes.values());
+        mNodes.clear();
+        for (Node node : nodes) {
+            node.mWaitingFor = node.mDependsOn.size();
+            for (String dep : node.mDependsOn) {
+                Node parent = nodes.stream().filter(n -> n.mName.equals(dep)).findFirst().orElse(null);
+                Preconditions.checkState(parent != null, "Startup step " + node.mName + " depends on unknown " + dep);
+                parent.mDependents.add(node);
+            }
+        }
+        checkNoCycle(nodes);
+
+        long startTS = mClock.elapsedRealtime();
+        long startUptimeMs = mUptimeMs.getAsLong();
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(MAX_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "Thread-Startup-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        BlockingQueue<Node> completed = new LinkedBlockingQueue<>();
+        Deque<Node> mainReady = new ArrayDeque<>();
+        Exception failure = null;
+        int running = 0;
+
+        try {
+            List<Node> ready = new ArrayList<>();
+            for (Node node : nodes) {
+                if (node.mWaitingFor == 0) {
+                    ready.add(node);
+                }
+            }
+            // Only this thread updates the graph; the pool threads just run the steps.
+            while (true) {
+                if (failure == null) {
+                    for (Node node : ready) {
+                        if (node.mOnMain) {
+                            mainReady.addLast(node);
+                        } else {
+                            running++;
+                            pool.execute(() -> {
+                                runStep(node);
+                                completed.add(node);
+                            });
+                        }
+                    }
+                }
+                ready.clear();
+
+                Node done;
+                if (failure == null && !mainReady.isEmpty()) {
+                    done = mainReady.pollFirst();
+                    runStep(done);
+                } else if (running > 0) {
+                    done = completed.take();
+                    running--;
+                } else {
+                    break;
+                }
+
+                if (done.mError != null) {
+                    if (failure == null) {
+                        failure = done.mError instanceof Exception
+                                ? (Exception) done.mError
+                                : new RuntimeException(done.mError);
+                    }
+                } else {
+                    for (Node dependent : done.mDependents) {
+                        if (--dependent.mWaitingFor == 0) {
+                            ready.add(dependent);
+                        }
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        long totalMs = mClock.elapsedRealtime() - startTS;
+        mMetrics.gauge("startup.total_ms").set(totalMs);
+        logTimeline(nodes, startTS, startUptimeMs, totalMs);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void runStep(@Nonnull Node node) {
+        node.mThreadName = Thread.currentThread().getName();
+        node.mStartTS = mClock.elapsedRealtime();
+        try {
+            node.mStep.run();
+        } catch (Throwable t) {
+            node.mError = t;
+            mLogger.log(TAG, "Startup step " + node.mName + " failed: " + t);
+        } finally {
+            node.mEndTS = mClock.elapsedRealtime();
+        }
+    }
+
+    private void logTimeline(@Nonnull List<Node> nodes, long startTS, long startUptimeMs, long totalMs) {
+        List<Node> sorted = new ArrayList<>(nodes);
+        sorted.sort((a, b) -> Long.compare(
+                a.hasRun() ? a.mStartTS : Long.MAX_VALUE,
+                b.hasRun() ? b.mStartTS : Long.MAX_VALUE));
+        StringBuilder sb = new StringBuilder();
+        for (Node node : sorted) {
+            if (!node.hasRun()) {
+                sb.append(String.format("\n  %-16s skipped", node.mName));
+                continue;
+            }
+            long durationMs = node.mEndTS - node.mStartTS;
+            mMetrics.gauge("startup." + node.mName + "_ms").set(durationMs);
+            sb.append(String.format("\n  %-16s +%5d ms %5d ms  %s%s",
+                    node.mName,
+                    node.mStartTS - startTS,
+                    durationMs,
+                    node.mThreadName,
+                    node.mError == null ? "" : "  FAILED"));
+        }
+        mLogger.log(TAG, String.format("Startup done in %d ms, %d ms since JVM start:%s",
+                totalMs, startUptimeMs + totalMs, sb));
+    }
+
+    /** Logs the first time the named milestone is reached, with the time since the JVM started. */
+    public void milestone(@Nonnull String name) {
+        if (mMilestones.add(name)) {
+            long uptimeMs = mUptimeMs.getAsLong();
+            mMetrics.gauge("startup." + name + "_ms").set(uptimeMs);
+            mLogger.log(TAG, "Milestone " + name + " at " + uptimeMs + " ms since JVM start");
+        }
+    }
+
+    private static void checkNoCycle(@Nonnull List<Node> nodes) {
+        // Kahn's algorithm: the graph has a cycle if some nodes never get all their dependencies.
+        Map<Node, Integer> waiting = new LinkedHashMap<>();
+        Deque<Node> ready = new ArrayDeque<>();
+        for (Node node : nodes) {
+            waiting.put(node, node.mWaitingFor);
+            if (node.mWaitingFor == 0) {
+                ready.add(node);
+            }
+        }
+        int visited = 0;
+        while (!ready.isEmpty()) {
+            Node node = ready.poll();
+            visited++;
+            for (Node dependent : node.mDependents) {
+                int left = waiting.merge(dependent, -1, Integer::sum);
+                if (left == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        Preconditions.checkState(visited == nodes.size(), "Startup steps have a dependency cycle");
+    }
+
+    private static class Node {
+        private final String mName;
+        private final Step mStep;
+        private final boolean mOnMain;
+        private final List<String> mDependsOn;
+        private final List<Node> mDependents = new ArrayList<>();
+        /** Number of dependencies not done yet. Only used by the thread calling run(). */
+        private int mWaitingFor;
+        private volatile String mThreadName;
+        private volatile long mStartTS;
+        private volatile long mEndTS;
+        @Nullable private volatile Throwable mError;
+
+        Node(@Nonnull String name, @Nonnull Step step, boolean onMain, @Nonnull String... dependsOn) {
+            mName = name;
+            mStep = step;
+            mOnMain = onMain;
+            mDependsOn = Collections.unmodifiableList(Arrays.asList(dependsOn));
+        }
+
+        boolean hasRun() {
+            return mThreadName != null;
+        }
+    }
+}
@@ -79,7 +79,9 @@ public class StatsCollector extends ThreadLoop {
     public StatsCollector(IClock clock,
                           ILogger logger,
                           Cameras cameras,
-                          CommandLineArgs commandLineArgs) {
+                          CommandLineArgs commandLineArgs,
+                          ThreadLoopRuntime runtime) {
+        super(runtime);
         mClock = clock;
         mLogger = logger;
         mCameras = cameras;
@@ -106,6 +108,8 @@ public class StatsCollector extends ThreadLoop {
     @Override
     public void stop() throws Exception {
         mLogger.log(TAG, "Stop");
+        // A parked loop must run to flush its queue before it ends.
+        unpark();
         mStopCollect.set(true);
         mCameras.forEachCamera(camInfo -> collect(camInfo.getIndex(), 0, 0, false));
         mStopLoopOnceEmpty.set(true);
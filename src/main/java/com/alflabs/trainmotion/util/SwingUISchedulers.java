@@ -23,6 +23,10 @@ import com.alflabs.func.RConsumer;
 import com.alflabs.rx.IScheduler;
 
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import java.util.AbstractMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class SwingUISchedulers {
 
@@ -37,6 +41,18 @@ public class SwingUISchedulers {
         return sImpl;
     }
 
+    /**
+     * Scheduler that executes operations on the Swing UI thread *asynchronously*, batched at most
+     * once every delayMs. Operations with the same consumer and value that are scheduled before
+     * the batch runs are only executed once, in the order they were first scheduled.
+     * <p/>
+     * This is meant for bursty streams (e.g. all the KV keys received on connection) where only
+     * the latest state matters: the UI thread gets one runnable per batch instead of one per event.
+     */
+    public static IScheduler swingCoalescing(int delayMs) {
+        return new SwingCoalescingImpl(delayMs);
+    }
+
     static class SwingInvokeLaterImpl implements IScheduler {
         @Override
         public void invoke(@NonNull Runnable runnable) {
@@ -48,4 +64,45 @@ public class SwingUISchedulers {
             SwingUtilities.invokeLater(() -> consumer.accept(value));
         }
     }
+
+    static class SwingCoalescingImpl implements IScheduler {
+        private final Timer mTimer;
+        private Map<Object, Runnable> mPending = new LinkedHashMap<>();
+
+        SwingCoalescingImpl(int delayMs) {
+            mTimer = new Timer(delayMs, event -> runPending());
+            mTimer.setRepeats(false);
+        }
+
+        @Override
+        public void invoke(@NonNull Runnable runnable) {
+            add(runnable, runnable);
+        }
+
+        @Override
+        public <T> void invoke(@NonNull RConsumer<? super T> consumer, T value) {
+            add(new AbstractMap.SimpleImmutableEntry<>(consumer, value), () -> consumer.accept(value));
+        }
+
+        private void add(Object key, Runnable runnable) {
+            boolean start;
+            synchronized (this) {
+                start = mPending.isEmpty();
+                mPending.putIfAbsent(key, runnable);
+            }
+            if (start) {
+                mTimer.restart();
+            }
+        }
+
+        private void runPending() {
+            // This executes on the AWT UI Thread.
+            Map<Object, Runnable> pending;
+            synchronized (this) {
+                pending = mPending;
+                mPending = new LinkedHashMap<>();
+            }
+            pending.values().forEach(Runnable::run);
+        }
+    }
 }
@@ -18,11 +18,28 @@
 
 package com.alflabs.trainmotion.util;
 
-import com.google.common.base.Strings;
+import javax.annotation.Nonnull;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 public abstract class ThreadLoop implements IStartStop {
     protected Thread mThread;
     protected volatile boolean mQuit;
+    private volatile boolean mParked;
+    private final ThreadLoopRuntime mRuntime;
+    // Parking uses a lock rather than a monitor, as a virtual thread waiting on a
+    // monitor keeps its carrier thread busy.
+    private final ReentrantLock mParkLock = new ReentrantLock();
+    private final Condition mUnparked = mParkLock.newCondition();
+    private ThreadLoopRuntime.LoopState mState;
+    // These are only accessed by the thread running the loop.
+    private boolean mEntered;
+    private boolean mEnded;
+    private boolean mInPark;
+
+    protected ThreadLoop(@Nonnull ThreadLoopRuntime runtime) {
+        mRuntime = runtime;
+    }
 
     @Override
     public void start() throws Exception {
@@ -31,12 +48,12 @@ public abstract class ThreadLoop implements IStartStop {
 
     public void start(String name) throws Exception {
         if (mThread == null) {
-            if (Strings.isNullOrEmpty(name)) {
-                mThread = new Thread(this::_runInThread);
-            } else {
-                mThread = new Thread(this::_runInThread, name);
-            }
             mQuit = false;
+            mEntered = false;
+            mEnded = false;
+            mInPark = false;
+            mState = mRuntime.register(this, name, this::_runInThread);
+            mThread = mState.getThread();
             mThread.start();
         }
     }
@@ -52,21 +69,108 @@ public abstract class ThreadLoop implements IStartStop {
         }
     }
 
+    /**
+     * Parks the loop: once the current {@code _runInThreadLoop} call returns, the thread calls
+     * {@code _onParked} then sleeps without waking up till {@link #unpark()} or {@link #stop()}.
+     */
+    public void park() {
+        mParked = true;
+    }
+
+    /** Resumes a parked loop. The thread calls {@code _onUnparked} before the next loop. */
+    public void unpark() {
+        mParkLock.lock();
+        try {
+            mParked = false;
+            mUnparked.signalAll();
+        } finally {
+            mParkLock.unlock();
+        }
+    }
+
+    public boolean isParked() {
+        return mParked;
+    }
+
+    /**
+     * Time after which an iteration of {@code _runInThreadLoop} is reported as stuck by the
+     * {@link ThreadLoopRuntime}. Loops which legitimately block in one iteration, e.g. to wait
+     * for a socket or a file event, return 0 to not be checked.
+     */
+    protected long getStuckTimeoutMs() {
+        return ThreadLoopRuntime.DEFAULT_STUCK_TIMEOUT_MS;
+    }
+
+    private void _waitWhileParked() {
+        mParkLock.lock();
+        try {
+            while (mParked && !mQuit) {
+                try {
+                    mUnparked.await();
+                } catch (InterruptedException ignore) {
+                    // stop() interrupts the thread after setting mQuit.
+                }
+            }
+        } finally {
+            mParkLock.unlock();
+        }
+    }
+
     private void _runInThread() {
-        _beforeThreadLoop();
+        //noinspection StatementWithEmptyBody
+        while (_runStep(true /* waitWhileParked */)) {}
+    }
+
+    /**
+     * Runs one iteration of the loop on the calling thread, which is either the loop thread or
+     * a test driving the loop. A parked loop either waits till unparked, or returns right away
+     * when waitWhileParked is false. Returns false once the loop has ended.
+     */
+    boolean _runStep(boolean waitWhileParked) {
+        if (mEnded) {
+            return false;
+        }
+        if (!mEntered) {
+            mEntered = true;
+            _beforeThreadLoop();
+        }
         try {
-            while (!mQuit) {
+            if (mParked && !mQuit) {
+                if (!mInPark) {
+                    mInPark = true;
+                    mState.setParked(true);
+                    _onParked();
+                }
+                if (waitWhileParked) {
+                    _waitWhileParked();
+                }
+                if (mParked && !mQuit) {
+                    return true;
+                }
+            }
+            if (mInPark) {
+                mInPark = false;
+                mState.setParked(false);
+                _onUnparked();
+            }
+            if (!mQuit) {
+                mState.onIterationStart();
                 _runInThreadLoop();
+                mState.onIterationEnd();
+                return true;
             }
         } catch (EndLoopException ignored) {
             // No-logging, just end the loop.
         } catch (Throwable t) {
-            System.out.println(
-                    "ThreadLoop._runInThread [" + Thread.currentThread().getName() +
-                            "] unhanlded exception: " + t);
-        } finally {
+            mState.onError(t);
+        }
+        mEnded = true;
+        try {
             _afterThreadLoop();
+        } finally {
+            mRuntime.unregister(mState);
         }
+        return false;
     }
 
     protected class EndLoopException extends Exception {}
@@ -80,4 +184,10 @@ public abstract class ThreadLoop implements IStartStop {
     /** Called once after the last {@code _runInThreadLoop} call. */
     protected void _afterThreadLoop() {}
 
+    /** Called on the loop thread when the loop gets parked. */
+    protected void _onParked() {}
+
+    /** Called on the loop thread when the loop resumes, or ends, after being parked. */
+    protected void _onUnparked() {}
+
 }
@@ -0,0 +1,294 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.util;
+
+import com.alflabs.trainmotion.metrics.Counter;
+import com.alflabs.trainmotion.metrics.Gauge;
+import com.alflabs.trainmotion.metrics.Info;
+import com.alflabs.trainmotion.metrics.Metrics;
+import com.alflabs.utils.IClock;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.lang.reflect.Method;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the {@link ThreadLoop}s, provided as a singleton by the ExecutorModule.
+ * <p/>
+ * Each loop gets its own thread: a virtual thread when the JDK has them and they are enabled
+ * by the config.ini "virtual_threads", otherwise a platform thread. Virtual threads are
+ * created through reflection so that the build can keep targeting Java 11.
+ * <p/>
+ * Once started, a watchdog on the shared scheduled executor checks the loops every few
+ * seconds and reports the ones stuck in the same iteration for longer than their
+ * {@link ThreadLoop#getStuckTimeoutMs()}. The metrics are "loops.running", "loops.parked",
+ * "loops.stuck" and, per loop, "loop.NAME.iterations", "loop.NAME.errors" and "loop.NAME.stuck".
+ */
+public class ThreadLoopRuntime implements IStartStop {
+    private static final String TAG = ThreadLoopRuntime.class.getSimpleName();
+
+    /** Default time after which a loop iteration is reported as stuck. */
+    public static final long DEFAULT_STUCK_TIMEOUT_MS = 30 * 1000;
+    private static final long WATCHDOG_PERIOD_MS = 5 * 1000;
+    private static final int STUCK_STACK_DEPTH = 5;
+
+    private final IClock mClock;
+    private final ILogger mLogger;
+    private final Metrics mMetrics;
+    private final ScheduledExecutorService mExecutor;
+    private final Set<LoopState> mLoops = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger mUnnamedCount = new AtomicInteger();
+    private final Gauge mRunningGauge;
+    private final Gauge mParkedGauge;
+    private final Gauge mStuckGauge;
+    private final Info mThreadsInfo;
+    @Nullable private volatile VirtualThreadFactory mVirtualThreadFactory;
+    private ScheduledFuture<?> mWatchdog;
+
+    public ThreadLoopRuntime(
+            IClock clock,
+            ILogger logger,
+            Metrics metrics,
+            ScheduledExecutorService executor) {
+        mClock = clock;
+        mLogger = logger;
+        mMetrics = metrics;
+        mExecutor = executor;
+        mRunningGauge = metrics.gauge("loops.running");
+        mParkedGauge = metrics.gauge("loops.parked");
+        mStuckGauge = metrics.gauge("loops.stuck");
+        mThreadsInfo = metrics.info("loops.threads");
+        mThreadsInfo.set("platform");
+    }
+
+    /**
+     * Selects whether loops started from now on run on virtual threads. This falls back to
+     * platform threads when the JDK does not support them.
+     */
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        VirtualThreadFactory factory = useVirtualThreads ? createVirtualThreadFactory() : null;
+        if (useVirtualThreads && factory == null) {
+            mLogger.log(TAG, "Virtual threads are not available in Java "
+                    + System.getProperty("java.version") + ", using platform threads");
+        }
+        mVirtualThreadFactory = factory;
+        mThreadsInfo.set(factory == null ? "platform" : "virtual");
+    }
+
+    public boolean isUsingVirtualThreads() {
+        return mVirtualThreadFactory != null;
+    }
+
+    /** Starts the stuck-loop watchdog. Loops can be started before or without it. */
+    @Override
+    public void start() throws Exception {
+        if (mWatchdog == null) {
+            mLogger.log(TAG, "Running loops on " + mThreadsInfo.get() + " threads");
+            mWatchdog = mExecutor.scheduleWithFixedDelay(
+                    this::runWatchdog, WATCHDOG_PERIOD_MS, WATCHDOG_PERIOD_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (mWatchdog != null) {
+            mWatchdog.cancel(false /* mayInterruptIfRunning */);
+            mWatchdog = null;
+        }
+    }
+
+    /** Called by {@link ThreadLoop#start(String)} to create the thread of a loop, not started yet. */
+    @Nonnull
+    LoopState register(@Nonnull ThreadLoop loop, @Nullable String name, @Nonnull Runnable body) {
+        if (Strings.isNullOrEmpty(name)) {
+            name = "Thread-Loop-" + mUnnamedCount.incrementAndGet();
+        }
+        LoopState state = new LoopState(loop, name, createThread(name, body));
+        mLoops.add(state);
+        return state;
+    }
+
+    /** Called on the loop thread once the loop has ended. */
+    void unregister(@Nonnull LoopState state) {
+        mLoops.remove(state);
+    }
+
+    /**
+     * Creates the thread for a loop. The test runtime overrides this to drive the loops
+     * itself on the test thread.
+     */
+    @Nonnull
+    protected Thread createThread(@Nonnull String name, @Nonnull Runnable body) {
+        VirtualThreadFactory factory = mVirtualThreadFactory;
+        if (factory != null) {
+            try {
+                return factory.newThread(name, body);
+            } catch (ReflectiveOperationException e) {
+                mLogger.log(TAG, "Failed to create virtual thread " + name + ": " + e);
+            }
+        }
+        return new Thread(body, name);
+    }
+
+    long now() {
+        return mClock.elapsedRealtime();
+    }
+
+    private void runWatchdog() {
+        try {
+            checkLoops();
+        } catch (Throwable t) {
+            // A periodic task which throws is never run again.
+            mLogger.log(TAG, "Watchdog failed: " + t);
+        }
+    }
+
+    /** Updates the loop gauges and reports the loops which are newly stuck. */
+    @VisibleForTesting
+    void checkLoops() {
+        long now = now();
+        int running = 0;
+        int parked = 0;
+        int stuck = 0;
+        for (LoopState state : mLoops) {
+            if (state.mParked) {
+                parked++;
+            } else {
+                running++;
+            }
+
+            long iterationTS = state.mIterationTS;
+            long timeoutMs = state.mLoop.getStuckTimeoutMs();
+            boolean isStuck = iterationTS > 0 && timeoutMs > 0 && now - iterationTS >= timeoutMs;
+            if (isStuck) {
+                stuck++;
+                if (!state.mStuckReported) {
+                    state.mStuck.increment();
+                    mLogger.log(TAG, "Loop " + state.mName + " stuck for " + (now - iterationTS)
+                            + " ms in " + getStack(state.mThread));
+                }
+            }
+            state.mStuckReported = isStuck;
+        }
+        mRunningGauge.set(running);
+        mParkedGauge.set(parked);
+        mStuckGauge.set(stuck);
+    }
+
+    @Nonnull
+    private static String getStack(@Nonnull Thread thread) {
+        StackTraceElement[] stack = thread.getStackTrace();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < stack.length && i < STUCK_STACK_DEPTH; i++) {
+            if (i > 0) {
+                sb.append(" < ");
+            }
+            sb.append(stack[i]);
+        }
+        return sb.length() == 0 ? "unknown" : sb.toString();
+    }
+
+    /** Converts a thread name such as "Thread-CamAn-1" into a metrics name such as "caman_1". */
+    @VisibleForTesting
+    @Nonnull
+    static String toMetricsName(@Nonnull String threadName) {
+        String name = threadName.replaceFirst("^Thread-", "").toLowerCase(Locale.US);
+        return name.replaceAll("[^a-z0-9]+", "_");
+    }
+
+    /** State of one running loop, shared by the loop thread and the watchdog. */
+    final class LoopState {
+        private final ThreadLoop mLoop;
+        private final String mName;
+        private final Thread mThread;
+        private final Counter mIterations;
+        private final Counter mErrors;
+        private final Counter mStuck;
+        /** Start of the current iteration, or 0 when not in an iteration. */
+        private volatile long mIterationTS;
+        private volatile boolean mParked;
+        /** Only used by the watchdog. */
+        private boolean mStuckReported;
+
+        private LoopState(@Nonnull ThreadLoop loop, @Nonnull String name, @Nonnull Thread thread) {
+            mLoop = loop;
+            mName = name;
+            mThread = thread;
+            String prefix = "loop." + toMetricsName(name);
+            mIterations = mMetrics.counter(prefix + ".iterations");
+            mErrors = mMetrics.counter(prefix + ".errors");
+            mStuck = mMetrics.counter(prefix + ".stuck");
+        }
+
+        @Nonnull
+        Thread getThread() {
+            return mThread;
+        }
+
+        void onIterationStart() {
+            mIterationTS = now();
+        }
+
+        void onIterationEnd() {
+            mIterationTS = 0;
+            mIterations.increment();
+        }
+
+        void onError(@Nonnull Throwable t) {
+            mIterationTS = 0;
+            mErrors.increment();
+            mLogger.log(TAG, "Loop " + mName + " unhandled exception: " + t);
+        }
+
+        void setParked(boolean parked) {
+            mParked = parked;
+        }
+    }
+
+    private interface VirtualThreadFactory {
+        @Nonnull
+        Thread newThread(@Nonnull String name, @Nonnull Runnable body) throws ReflectiveOperationException;
+    }
+
+    /** Returns a factory using Thread.ofVirtual() from Java 21, or null if not available. */
+    @Nullable
+    private static VirtualThreadFactory createVirtualThreadFactory() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Method name = builderClass.getMethod("name", String.class);
+            Method unstarted = builderClass.getMethod("unstarted", Runnable.class);
+            // This throws on JDKs where virtual threads are a disabled preview feature.
+            ofVirtual.invoke(null);
+            return (threadName, body) ->
+                    (Thread) unstarted.invoke(name.invoke(ofVirtual.invoke(null), threadName), body);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion;
+
+import com.alflabs.trainmotion.dagger.DaggerITrainMotionTestComponent;
+import com.alflabs.trainmotion.dagger.ITrainMotionTestComponent;
+import com.alflabs.trainmotion.util.ILogger;
+import com.alflabs.utils.FileOps;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FrameGrabber;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class MediaInfoCacheTest {
+    private static final File DIR = new File("/tmp/media_dir");
+    private static final File VIDEO = new File(DIR, "video.mp4");
+    private static final File CACHE = new File(DIR, MediaInfoCache.CACHE);
+
+    @Inject ILogger mLogger;
+    @Inject FileOps mFileOps;
+    @Inject ObjectMapper mJsonMapper;
+
+    private final List<File> mFiles = Collections.singletonList(VIDEO);
+
+    public interface _injector {
+        void inject(MediaInfoCacheTest test);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        ITrainMotionTestComponent component = DaggerITrainMotionTestComponent.factory().createComponent();
+        component.inject(this);
+
+        mFileOps.writeBytes("content".getBytes(StandardCharsets.UTF_8), VIDEO);
+    }
+
+    @Test
+    public void testFFmpegError_CachedAsNotDecodable() throws Exception {
+        TestCache cache = new TestCache(new FrameGrabber.Exception("Could not open input"));
+        cache.initialize(DIR, mFiles);
+        cache.start();
+        assertThat(cache.mProbes).isEqualTo(1);
+        Optional<MediaInfoCache.MediaInfo> info = cache.get(VIDEO);
+        assertThat(info.isPresent()).isTrue();
+        assertThat(info.get().isDecodable()).isFalse();
+        cache.stop();
+
+        // The entry is reused after a restart without probing again.
+        TestCache restarted = new TestCache(new AssertionError("Unexpected probe"));
+        restarted.initialize(DIR, mFiles);
+        restarted.start();
+        assertThat(restarted.mProbes).isEqualTo(0);
+        assertThat(restarted.get(VIDEO).isPresent()).isTrue();
+        assertThat(restarted.get(VIDEO).get().isDecodable()).isFalse();
+        assertThat(restarted.get(VIDEO).get().getSize()).isEqualTo(mFileOps.length(VIDEO));
+        restarted.stop();
+    }
+
+    @Test
+    public void testOtherError_NotCachedAndRetried() throws Exception {
+        TestCache cache = new TestCache(new UnsatisfiedLinkError("no jniavformat"));
+        cache.initialize(DIR, mFiles);
+        cache.start();
+        assertThat(cache.mProbes).isEqualTo(1);
+        assertThat(cache.get(VIDEO).isPresent()).isFalse();
+
+        // The next pass, e.g. after a playlist reload, probes it again.
+        cache.update(mFiles);
+        assertThat(cache.mProbes).isEqualTo(2);
+        assertThat(cache.get(VIDEO).isPresent()).isFalse();
+
+        cache.stop();
+        assertThat(mFileOps.isFile(CACHE)).isFalse();
+    }
+
+    @Test
+    public void testSizeChange_Invalidates() throws Exception {
+        TestCache cache = new TestCache(new FrameGrabber.Exception("Could not open input"));
+        cache.initialize(DIR, mFiles);
+        cache.start();
+        assertThat(cache.mProbes).isEqualTo(1);
+
+        mFileOps.writeBytes("longer content".getBytes(StandardCharsets.UTF_8), VIDEO);
+        cache.update(mFiles);
+        assertThat(cache.mProbes).isEqualTo(2);
+        assertThat(cache.get(VIDEO).get().getSize()).isEqualTo(mFileOps.length(VIDEO));
+        cache.stop();
+    }
+
+    @Test
+    public void testMtimeChange_Invalidates() throws Exception {
+        writeCache(new MediaInfoCache.MediaInfo(mFileOps.length(VIDEO), mFileOps.lastModified(VIDEO) + 1));
+
+        TestCache cache = new TestCache(new FrameGrabber.Exception("Could not open input"));
+        cache.initialize(DIR, mFiles);
+        cache.start();
+        assertThat(cache.mProbes).isEqualTo(1);
+        assertThat(cache.get(VIDEO).get().getMtime()).isEqualTo(mFileOps.lastModified(VIDEO));
+        cache.stop();
+    }
+
+    @Test
+    public void testValidEntry_NotProbed() throws Exception {
+        writeCache(new MediaInfoCache.MediaInfo(mFileOps.length(VIDEO), mFileOps.lastModified(VIDEO)));
+
+        TestCache cache = new TestCache(new AssertionError("Unexpected probe"));
+        cache.initialize(DIR, mFiles);
+        cache.start();
+        assertThat(cache.mProbes).isEqualTo(0);
+        assertThat(cache.get(VIDEO).isPresent()).isTrue();
+        cache.stop();
+    }
+
+    private void writeCache(@Nonnull MediaInfoCache.MediaInfo info) throws Exception {
+        TreeMap<String, MediaInfoCache.MediaInfo> map = new TreeMap<>();
+        map.put(VIDEO.getName(), info);
+        mFileOps.writeBytes(mJsonMapper.writeValueAsBytes(map), CACHE);
+    }
+
+    /** Probes synchronously, and fails each probe with the given error. */
+    private class TestCache extends MediaInfoCache {
+        private final Throwable mProbeError;
+        int mProbes;
+
+        TestCache(@Nonnull Throwable probeError) {
+            super(mLogger, mFileOps, mJsonMapper);
+            mProbeError = probeError;
+        }
+
+        @Nonnull
+        @Override
+        ExecutorService createProbeExecutor() {
+            return MoreExecutors.newDirectExecutorService();
+        }
+
+        @Nonnull
+        @Override
+        FFmpegFrameGrabber createGrabber(@Nonnull File file) throws FrameGrabber.Exception {
+            mProbes++;
+            if (mProbeError instanceof FrameGrabber.Exception) {
+                throw (FrameGrabber.Exception) mProbeError;
+            } else if (mProbeError instanceof Error) {
+                throw (Error) mProbeError;
+            }
+            throw new IllegalStateException(mProbeError);
+        }
+    }
+}
@@ -98,6 +98,88 @@ public class PlaylistTest {
         assertThat(mPlaylist.getNext().get()).isEqualTo(new File(dir, "file1"));
     }
 
+    @Test
+    public void testPlay_WithWeightsAndNoRepeat() throws IOException {
+        final String dir = "/tmp/media_dir";
+        File index = setupPlaylist3Files(dir);
+        mFileOps.writeBytes(
+                "{ \"file4\": { \"weight\": 2 } }".getBytes(StandardCharsets.UTF_8),
+                new File(dir, PROPS));
+
+        mPlaylist.initialize(index.getParent());
+        mPlaylist.setShuffle(true);
+        mPlaylist.setNoRepeatWindow(1);
+        assertThat(mPlaylist.getNext().get()).isEqualTo(new File(dir, "file2"));
+        assertThat(mPlaylist.getNext().get()).isEqualTo(new File(dir, "file4"));
+        // the random pick is file4 again, which is set aside as it just played
+        assertThat(mPlaylist.getNext().get()).isEqualTo(new File(dir, "file1"));
+        assertThat(mPlaylist.getNext().get()).isEqualTo(new File(dir, "file4"));
+        // next deck
+        assertThat(mPlaylist.getNext().get()).isEqualTo(new File(dir, "file2"));
+    }
+
+    @Test
+    public void testPlay_NoShuffle_WithWeights() throws IOException {
+        final String dir = "/tmp/media_dir";
+        File index = setupPlaylist3Files(dir);
+        mFileOps.writeBytes(
+                "{ \"file1\": { \"weight\": 3 } }".getBytes(StandardCharsets.UTF_8),
+                new File(dir, PROPS));
+
+        mPlaylist.initialize(index.getParent());
+        assertThat(mPlaylist.isShuffle()).isFalse();
+        // weights only apply to shuffle: the order is not changed and nothing plays twice in a row
+        assertThat(mPlaylist.getNext().get()).isEqualTo(new File(dir, "file1"));
+        assertThat(mPlaylist.getNext().get()).isEqualTo(new File(dir, "file2"));
+        assertThat(mPlaylist.getNext().get()).isEqualTo(new File(dir, "file4"));
+        assertThat(mPlaylist.getNext().get()).isEqualTo(new File(dir, "file1"));
+        assertThat(mPlaylist.getNext().get()).isEqualTo(new File(dir, "file2"));
+        assertThat(mPlaylist.getNext().get()).isEqualTo(new File(dir, "file4"));
+    }
+
+    @Test
+    public void testPlay_WithZeroWeight() throws IOException {
+        final String dir = "/tmp/media_dir";
+        File index = setupPlaylist3Files(dir);
+        mFileOps.writeBytes(
+                "{ \"file2\": { \"weight\": 0 } }".getBytes(StandardCharsets.UTF_8),
+                new File(dir, PROPS));
+
+        mPlaylist.initialize(index.getParent());
+        assertThat(mPlaylist.getNext().get()).isEqualTo(new File(dir, "file1"));
+        assertThat(mPlaylist.getNext().get()).isEqualTo(new File(dir, "file4"));
+        assertThat(mPlaylist.getNext().get()).isEqualTo(new File(dir, "file1"));
+    }
+
+    @Test
+    public void testReload() throws IOException {
+        final String dir = "/tmp/media_dir";
+        File index = setupPlaylist3Files(dir);
+
+        mPlaylist.initialize(index.getParent());
+        assertThat(mPlaylist.getNext().get()).isEqualTo(new File(dir, "file1"));
+
+        // Remove file2 and add file5. The pending videos keep their order.
+        mFileOps.writeBytes("content".getBytes(StandardCharsets.UTF_8), new File(dir, "file5"));
+        mFileOps.writeBytes(
+                "file1\nfile4\nfile5\n".getBytes(StandardCharsets.UTF_8),
+                index);
+        mFileOps.writeBytes(
+                "{ \"file5\": { \"seconds\": 42 } }".getBytes(StandardCharsets.UTF_8),
+                new File(dir, PROPS));
+        mPlaylist.reload();
+
+        assertThat(mPlaylist.contains(new File(dir, "file2"))).isFalse();
+        assertThat(mPlaylist.contains(new File(dir, "file5"))).isTrue();
+        assertThat(mPlaylist.getProperties(new File(dir, "file5")).get().getSeconds()).isEqualTo(42);
+        assertThat(mPlaylist.getNext().get()).isEqualTo(new File(dir, "file4"));
+        assertThat(mPlaylist.getNext().get()).isEqualTo(new File(dir, "file5"));
+        // loops back to beginning with the new index
+        assertThat(mPlaylist.getNext().get()).isEqualTo(new File(dir, "file1"));
+        assertThat(mPlaylist.getNext().get()).isEqualTo(new File(dir, "file4"));
+        assertThat(mPlaylist.getNext().get()).isEqualTo(new File(dir, "file5"));
+    }
+
     @Test
     public void testGetProperties() throws IOException {
         final String dir = "/tmp/media_dir";
@@ -162,6 +244,27 @@ public class PlaylistTest {
         assertThat(fp.isPresent()).isFalse();
     }
 
+    @Test
+    public void testGetProperties_start() throws IOException {
+        final String dir = "/tmp/media_dir";
+        File props = new File(dir, PROPS);
+        mFileOps.writeBytes(
+                ("{ \"FooBar.mp4\": { \"seconds\": 60, \"start\": 12 }," +
+                        "\"no-start\": { \"seconds\": 314 } } "
+                ).getBytes(StandardCharsets.UTF_8),
+                props);
+        mPlaylist.initialize(props.getParent());
+
+        Optional<Playlist.FileProperties> fp = mPlaylist.getProperties(new File(dir, "foobar"));
+        assertThat(fp.isPresent()).isTrue();
+        assertThat(fp.get().getSeconds()).isEqualTo(60);
+        assertThat(fp.get().getStart()).isEqualTo(12);
+
+        fp = mPlaylist.getProperties(new File(dir, "no-start"));
+        assertThat(fp.isPresent()).isTrue();
+        assertThat(fp.get().getStart()).isEqualTo(0);
+    }
+
     @Test
     public void testGenerateProperties() throws JsonProcessingException {
         Playlist.FileProperties fp = new Playlist.FileProperties(/* seconds */ 12, /* volume */ 25);
@@ -171,6 +274,11 @@ public class PlaylistTest {
         String json = mJsonMapper.writeValueAsString(map);
         assertThat(json.replaceAll("[\r\n ]+", " ")).isEqualTo(
                 "{ \"foobar\" : { \"seconds\" : 12, \"volume\" : 25 } }");
+
+        map.put("foobar", new Playlist.FileProperties(/* seconds */ 12, /* volume */ 25, /* start */ 5));
+        json = mJsonMapper.writeValueAsString(map);
+        assertThat(json.replaceAll("[\r\n ]+", " ")).isEqualTo(
+                "{ \"foobar\" : { \"seconds\" : 12, \"start\" : 5, \"volume\" : 25 } }");
     }
 
     private File setupPlaylist3Files(String dir) throws IOException {
@@ -0,0 +1,110 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.cam;
+
+import com.alflabs.trainmotion.metrics.Metrics;
+import com.alflabs.utils.FakeClock;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class AnalyzerRateTest {
+    private final FakeClock mClock = new FakeClock(1000);
+    private final Metrics mMetrics = new Metrics();
+    private double mProcessCpuLoad;
+    private AnalyzerLoad mLoad;
+    private AnalyzerRate mRate;
+
+    @Before
+    public void setUp() {
+        mLoad = new AnalyzerLoad(mClock, mMetrics, () -> mProcessCpuLoad);
+        mLoad.setBudgets(/* analyzerBudgetPct */ 50, /* cpuBudgetPct */ 80);
+        mRate = new AnalyzerRate(
+                mClock,
+                mLoad,
+                /* camIndex */ 1,
+                /* motionThreshold */ 0.3,
+                /* fpsNormal */ 5,
+                /* fpsIdle */ 1.5,
+                /* fpsActive */ 10,
+                /* idleSec */ 30);
+    }
+
+    @Test
+    public void testStates() {
+        assertThat(mRate.getState()).isEqualTo(AnalyzerRate.State.NORMAL);
+        assertThat(mRate.getFps()).isEqualTo(5);
+
+        // The noise rises above half the threshold: active right away.
+        assertThat(mRate.update(0.2, false, 10)).isEqualTo(10);
+        assertThat(mRate.getState()).isEqualTo(AnalyzerRate.State.ACTIVE);
+
+        // Back to normal as soon as the noise is low.
+        mClock.add(1000);
+        assertThat(mRate.update(0.01, false, 10)).isEqualTo(5);
+        assertThat(mRate.getState()).isEqualTo(AnalyzerRate.State.NORMAL);
+
+        // Idle once static for 30 seconds since the last activity.
+        mClock.add(28000);
+        assertThat(mRate.update(0.01, false, 10)).isEqualTo(5);
+        mClock.add(1000);
+        assertThat(mRate.update(0.01, false, 10)).isEqualTo(1.5);
+        assertThat(mRate.getState()).isEqualTo(AnalyzerRate.State.IDLE);
+
+        // Motion detected by the averaged noise is active even if the instant noise is low.
+        assertThat(mRate.update(0.01, true, 10)).isEqualTo(10);
+        assertThat(mRate.getState()).isEqualTo(AnalyzerRate.State.ACTIVE);
+    }
+
+    @Test
+    public void testBackoff_ComputeBudget() {
+        // 100 ms per frame at 10 fps uses a full core, over the 50% budget.
+        mRate.update(1, true, 100);
+        mClock.add(1000);
+        assertThat(mRate.update(1, true, 100)).isWithin(1e-9).of(10 * 0.8);
+        mClock.add(1000);
+        assertThat(mRate.update(1, true, 100)).isWithin(1e-9).of(10 * 0.8 * 0.8);
+        assertThat(mMetrics.gauge("analyzer.backoff").get()).isWithin(1e-9).of(0.64);
+
+        // Under budget, it slowly recovers.
+        mClock.add(1000);
+        assertThat(mRate.update(1, true, 10)).isWithin(1e-9).of(10 * 0.64 * 1.1);
+    }
+
+    @Test
+    public void testBackoff_CpuBudget_NeverBelowIdle() {
+        mProcessCpuLoad = 0.95;
+        for (int i = 0; i < 20; i++) {
+            mRate.update(0.01, false, 1);
+            mClock.add(1000);
+        }
+        assertThat(mLoad.getBackoff()).isEqualTo(0.2);
+        assertThat(mRate.getFps()).isEqualTo(1.5);
+        assertThat(mMetrics.gauge("process.cpu_pct").get()).isWithin(1e-9).of(95);
+    }
+
+    @Test
+    public void testReset() {
+        mRate.update(1, true, 10);
+        mRate.reset();
+        assertThat(mRate.getState()).isEqualTo(AnalyzerRate.State.NORMAL);
+        assertThat(mRate.getFps()).isEqualTo(5);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.cam;
+
+import com.alflabs.trainmotion.metrics.Metrics;
+import com.alflabs.utils.FakeClock;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class CamFeedTest {
+    private static final long STALL_MS = 10 * 1000;
+
+    private final FakeClock mClock = new FakeClock(1000);
+    private final Metrics mMetrics = new Metrics();
+    private final CamFeed mFeed = new CamFeed(mClock, mMetrics, /* camIndex */ 1);
+
+    @Before
+    public void setUp() {
+        mFeed.watch(STALL_MS);
+    }
+
+    @Test
+    public void testFramesNeverStall() {
+        for (int i = 0; i < 100; i++) {
+            mClock.add(1000);
+            mFeed.onFrame(mClock.elapsedRealtime());
+            assertThat(mFeed.checkStall()).isFalse();
+        }
+        assertThat(mFeed.isStalled()).isFalse();
+        assertThat(mFeed.getRestartCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testNoFrameAfterStart() {
+        mClock.add(STALL_MS - 1);
+        assertThat(mFeed.checkStall()).isFalse();
+        mClock.add(1);
+        assertThat(mFeed.checkStall()).isTrue();
+        assertThat(mFeed.isStalled()).isTrue();
+        assertThat(mMetrics.gauge("cam1.feed.stalled").get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRestartBackoff() {
+        mFeed.onFrame(mClock.elapsedRealtime());
+        mClock.add(STALL_MS);
+        assertThat(mFeed.checkStall()).isTrue();
+
+        // The restarted player gets the same delay, then each restart which does not bring
+        // the feed back doubles the delay.
+        assertThat(advanceTillRestart()).isEqualTo(STALL_MS);
+        assertThat(advanceTillRestart()).isEqualTo(2 * STALL_MS);
+        assertThat(advanceTillRestart()).isEqualTo(4 * STALL_MS);
+        assertThat(advanceTillRestart()).isEqualTo(8 * STALL_MS);
+        assertThat(advanceTillRestart()).isEqualTo(16 * STALL_MS);
+        assertThat(advanceTillRestart()).isEqualTo(CamFeed.RESTART_DELAY_MAX_MS);
+        assertThat(advanceTillRestart()).isEqualTo(CamFeed.RESTART_DELAY_MAX_MS);
+        assertThat(mFeed.getRestartCount()).isEqualTo(8);
+        assertThat(mMetrics.counter("cam1.feed.restarts").get()).isEqualTo(8);
+
+        // A new frame clears the stall and resets the backoff.
+        mClock.add(500);
+        mFeed.onFrame(mClock.elapsedRealtime());
+        assertThat(mFeed.checkStall()).isFalse();
+        assertThat(mFeed.isStalled()).isFalse();
+        assertThat(mMetrics.gauge("cam1.feed.stalled").get()).isEqualTo(0);
+
+        mClock.add(STALL_MS);
+        assertThat(mFeed.checkStall()).isTrue();
+        assertThat(advanceTillRestart()).isEqualTo(STALL_MS);
+        assertThat(advanceTillRestart()).isEqualTo(2 * STALL_MS);
+    }
+
+    @Test
+    public void testWatchClearsStall() {
+        mClock.add(STALL_MS);
+        assertThat(mFeed.checkStall()).isTrue();
+
+        // E.g. the display turned off then on again.
+        mClock.add(3600 * 1000);
+        mFeed.watch(STALL_MS);
+        assertThat(mFeed.isStalled()).isFalse();
+        assertThat(mFeed.checkStall()).isFalse();
+        mClock.add(STALL_MS);
+        assertThat(mFeed.checkStall()).isTrue();
+    }
+
+    /** Advances the clock by 1 second steps till a restart, and returns the time it took. */
+    private long advanceTillRestart() {
+        long startTS = mClock.elapsedRealtime();
+        do {
+            mClock.add(1000);
+        } while (!mFeed.checkStall());
+        return mClock.elapsedRealtime() - startTS;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.cam;
+
+import com.alflabs.trainmotion.metrics.Metrics;
+import com.alflabs.utils.FakeClock;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class MotionLatencyTest {
+    private final FakeClock mClock = new FakeClock(1000);
+    private final Metrics mMetrics = new Metrics();
+    private final MotionLatency mLatency = new MotionLatency(mClock, mMetrics, /* camIndex */ 1);
+
+    @Test
+    public void testMotionToZoom() {
+        long frameTS = mClock.elapsedRealtime();
+        mClock.add(30);
+        mLatency.record(MotionLatency.Stage.QUEUE, 10);
+        mLatency.record(MotionLatency.Stage.ANALYZE, 20);
+        mLatency.onMotionStart(frameTS);
+
+        mClock.add(40);
+        mLatency.onHighlightStart();
+        mClock.add(25);
+        mLatency.onZoomOut();
+        // Only the first zoom out after a highlight is recorded.
+        mLatency.onZoomOut();
+
+        assertThat(mLatency.getHistogram(MotionLatency.Stage.DETECT).getMax()).isEqualTo(30);
+        assertThat(mLatency.getHistogram(MotionLatency.Stage.HIGHLIGHT).getMax()).isEqualTo(70);
+        assertThat(mLatency.getHistogram(MotionLatency.Stage.ZOOM).getMax()).isEqualTo(95);
+        assertThat(mLatency.getHistogram(MotionLatency.Stage.ZOOM).getCount()).isEqualTo(1);
+        // The histograms are the ones registered in the metrics.
+        assertThat(mMetrics.histogram("cam1.latency.zoom_ms").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testHighlightEndsBeforeZoom() {
+        mLatency.onMotionStart(mClock.elapsedRealtime());
+        mLatency.onHighlightStart();
+        mLatency.onHighlightEnd();
+        mLatency.onZoomOut();
+
+        // A highlight without a detected motion is not traced.
+        mLatency.onHighlightStart();
+
+        assertThat(mLatency.getHistogram(MotionLatency.Stage.HIGHLIGHT).getCount()).isEqualTo(1);
+        assertThat(mLatency.getHistogram(MotionLatency.Stage.ZOOM).getCount()).isEqualTo(0);
+    }
+}
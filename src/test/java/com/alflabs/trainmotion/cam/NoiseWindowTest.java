@@ -0,0 +1,92 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.cam;
+
+import com.alflabs.trainmotion.metrics.Metrics;
+import com.alflabs.utils.FakeClock;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class NoiseWindowTest {
+    private static final double MOTION_THRESHOLD = 0.3;
+
+    private final FakeClock mClock = new FakeClock(1000);
+    private final NoiseWindow mWindow = new NoiseWindow(/* windowMs */ 2000, /* maxSamples */ 64);
+
+    @Test
+    public void testAdd_AveragesLastWindow() {
+        assertThat(mWindow.add(1000, 1)).isWithin(1e-9).of(1);
+        assertThat(mWindow.add(2000, 0)).isWithin(1e-9).of(0.5);
+        // The sample at 1000 is now out of the 2-second window.
+        assertThat(mWindow.add(3000, 0)).isWithin(1e-9).of(0);
+
+        mWindow.clear();
+        assertThat(mWindow.add(3100, 0.4)).isWithin(1e-9).of(0.4);
+    }
+
+    @Test
+    public void testAdd_DropsOldestWhenFull() {
+        NoiseWindow window = new NoiseWindow(/* windowMs */ 2000, /* maxSamples */ 2);
+        window.add(1000, 1);
+        window.add(1001, 0);
+        assertThat(window.add(1002, 0)).isWithin(1e-9).of(0);
+    }
+
+    @Test
+    public void testMotionAtIdleRate() {
+        AnalyzerRate rate = new AnalyzerRate(
+                mClock,
+                new AnalyzerLoad(mClock, new Metrics(), () -> 0),
+                /* camIndex */ 1,
+                MOTION_THRESHOLD,
+                /* fpsNormal */ 5,
+                /* fpsIdle */ 1.5,
+                /* fpsActive */ 10,
+                /* idleSec */ 30);
+
+        // A static scene, analyzed at the idle rate.
+        while (rate.getState() != AnalyzerRate.State.IDLE) {
+            analyze(rate, 0.01);
+        }
+        analyze(rate, 0.01);
+        analyze(rate, 0.01);
+
+        // A motion with a noise a bit above the threshold starts.
+        long startMs = mClock.elapsedRealtime();
+        while (!analyze(rate, 0.5)) {
+            assertThat(mClock.elapsedRealtime() - startMs).isLessThan(1000);
+        }
+        // The window still holds the idle samples of the last 2 seconds, which only take a few
+        // frames at the active rate to outweigh. With the former window of 10 frames, the
+        // motion would only be detected on its 6th frame, 500 ms after it started.
+        assertThat(rate.getState()).isEqualTo(AnalyzerRate.State.ACTIVE);
+        assertThat(mClock.elapsedRealtime() - startMs).isEqualTo(200);
+    }
+
+    /** Analyzes one frame like the CamAnalyzer does, then waits for the next one. */
+    private boolean analyze(AnalyzerRate rate, double noisePercent) {
+        boolean hasMotion = mWindow.add(mClock.elapsedRealtime(), noisePercent) >= MOTION_THRESHOLD;
+        double fps = rate.update(noisePercent, hasMotion, /* computeMs */ 10);
+        if (!hasMotion) {
+            mClock.add((long) (1000 / fps));
+        }
+        return hasMotion;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.cam;
+
+import com.alflabs.trainmotion.ConfigIni;
+import com.alflabs.trainmotion.dagger.DaggerITrainMotionTestComponent;
+import com.alflabs.trainmotion.dagger.ITrainMotionTestComponent;
+import com.alflabs.trainmotion.metrics.Metrics;
+import com.alflabs.trainmotion.util.ILogger;
+import com.alflabs.trainmotion.util.ThreadLoopRuntime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import javax.imageio.ImageIO;
+import javax.inject.Inject;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.when;
+
+public class PreviewServerTest {
+    public @Rule MockitoRule mRule = MockitoJUnit.rule();
+
+    @Inject ILogger mLogger;
+    @Inject Metrics mMetrics;
+    @Inject ThreadLoopRuntime mRuntime;
+    @Mock private ConfigIni mConfigIni;
+
+    private PreviewServer mPreviewServer;
+    private PreviewStream mStream;
+
+    public interface _injector {
+        void inject(PreviewServerTest test);
+    }
+
+    @Before
+    public void setUp() {
+        ITrainMotionTestComponent component = DaggerITrainMotionTestComponent.factory().createComponent();
+        component.inject(this);
+
+        when(mConfigIni.getStatusHost()).thenReturn("127.0.0.1");
+        mPreviewServer = new PreviewServer(mLogger, mConfigIni, mMetrics, mRuntime);
+        mStream = mPreviewServer.getStream("cam1/mask");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mPreviewServer.stop();
+    }
+
+    @Test
+    public void testNotEnabled() throws Exception {
+        when(mConfigIni.getPreviewPort()).thenReturn(-1);
+        mPreviewServer.start();
+        assertThat(mPreviewServer.getPort()).isEqualTo(-1);
+        assertThat(mStream.hasClients()).isFalse();
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        when(mConfigIni.getPreviewPort()).thenReturn(0);
+        mPreviewServer.start();
+
+        try (Socket socket = connect("/cam1/mask.mjpeg")) {
+            InputStream in = socket.getInputStream();
+            String response = readHeaders(in);
+            assertThat(response).startsWith("HTTP/1.0 200 OK\r\n");
+            assertThat(response).contains("Content-Type: multipart/x-mixed-replace; boundary=frame\r\n");
+
+            waitForClients(true);
+            mStream.publish(new BufferedImage(32, 16, BufferedImage.TYPE_BYTE_GRAY));
+
+            String part = readHeaders(in);
+            assertThat(part).startsWith("--frame\r\nContent-Type: image/jpeg\r\n");
+            int length = Integer.parseInt(part.replaceAll("(?s).*Content-Length: (\\d+).*", "$1"));
+            byte[] jpeg = in.readNBytes(length);
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+            assertThat(image.getWidth()).isEqualTo(32);
+            assertThat(image.getHeight()).isEqualTo(16);
+        }
+
+        waitForClients(false);
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+        when(mConfigIni.getPreviewPort()).thenReturn(0);
+        mPreviewServer.start();
+
+        try (Socket socket = connect("/")) {
+            String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            assertThat(response).startsWith("HTTP/1.0 200 OK\r\n");
+            assertThat(response).contains("<img src=\"/cam1/mask.mjpeg\">");
+        }
+        assertThat(mStream.hasClients()).isFalse();
+    }
+
+    @Test
+    public void testUnknownStream() throws Exception {
+        when(mConfigIni.getPreviewPort()).thenReturn(0);
+        mPreviewServer.start();
+
+        try (Socket socket = connect("/cam2/mask.mjpeg")) {
+            String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.US_ASCII);
+            assertThat(response).startsWith("HTTP/1.0 404 Not Found\r\n");
+        }
+    }
+
+    private Socket connect(String path) throws IOException {
+        Socket socket = new Socket("127.0.0.1", mPreviewServer.getPort());
+        socket.setSoTimeout(5000);
+        socket.getOutputStream().write(
+                ("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        return socket;
+    }
+
+    /** Reads till the end of the HTTP or multipart headers. */
+    private static String readHeaders(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        while (!out.toString(StandardCharsets.US_ASCII).endsWith("\r\n\r\n")) {
+            int c = in.read();
+            assertThat(c).isAtLeast(0);
+            out.write(c);
+        }
+        return out.toString(StandardCharsets.US_ASCII);
+    }
+
+    private void waitForClients(boolean hasClients) throws InterruptedException {
+        for (int i = 0; i < 100 && mStream.hasClients() != hasClients; i++) {
+            Thread.sleep(50);
+        }
+        assertThat(mStream.hasClients()).isEqualTo(hasClients);
+    }
+}
@@ -18,6 +18,10 @@
 
 package com.alflabs.trainmotion.dagger;
 
+import com.alflabs.trainmotion.metrics.Metrics;
+import com.alflabs.trainmotion.util.ILogger;
+import com.alflabs.trainmotion.util.ThreadLoopRuntime;
+import com.alflabs.utils.IClock;
 import dagger.Module;
 import dagger.Provides;
 
@@ -35,4 +39,14 @@ public abstract class FakeExecutorModule {
     public static ScheduledExecutorService provideScheduledExecutorService() {
         return Executors.newSingleThreadScheduledExecutor();
     }
+
+    @Singleton
+    @Provides
+    public static ThreadLoopRuntime provideThreadLoopRuntime(
+            IClock clock,
+            ILogger logger,
+            Metrics metrics,
+            @Named("SingleThreadExecutor") ScheduledExecutorService executor) {
+        return new ThreadLoopRuntime(clock, logger, metrics, executor);
+    }
 }
@@ -18,10 +18,15 @@
 
 package com.alflabs.trainmotion.dagger;
 
+import com.alflabs.trainmotion.MediaInfoCacheTest;
 import com.alflabs.trainmotion.PlaylistTest;
+import com.alflabs.trainmotion.cam.PreviewServerTest;
 import com.alflabs.trainmotion.display.HighlighterTest;
+import com.alflabs.trainmotion.metrics.StatusServerTest;
 import com.alflabs.trainmotion.util.AnalyticsTest;
 import com.alflabs.trainmotion.util.FpsMeasurerTest;
+import com.alflabs.trainmotion.util.KVControllerTest;
+import com.alflabs.trainmotion.util.ThreadLoopTest;
 import dagger.Component;
 
 import javax.inject.Singleton;
@@ -34,13 +39,19 @@ import javax.inject.Singleton;
         MockHttpClientModule.class,
         JsonModule.class,
         LoggerModule.class,
+        MetricsModule.class,
         MockRandomModule.class,
         })
 public interface ITrainMotionTestComponent extends
         AnalyticsTest._injector,
         FpsMeasurerTest._injector,
+        KVControllerTest._injector,
+        MediaInfoCacheTest._injector,
         PlaylistTest._injector,
-        HighlighterTest._injector
+        PreviewServerTest._injector,
+        HighlighterTest._injector,
+        StatusServerTest._injector,
+        ThreadLoopTest._injector
     {
 
     @Component.Factory
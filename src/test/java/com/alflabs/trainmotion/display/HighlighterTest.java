@@ -18,6 +18,7 @@
 
 package com.alflabs.trainmotion.display;
 
+import com.alflabs.trainmotion.cam.IMotionDetector;
 import com.alflabs.trainmotion.dagger.DaggerITrainMotionTestComponent;
 import com.alflabs.trainmotion.dagger.ITrainMotionTestComponent;
 import com.alflabs.utils.FakeClock;
@@ -25,6 +26,8 @@ import org.junit.Before;
 import org.junit.Test;
 
 import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.google.common.truth.Truth.assertThat;
@@ -184,4 +187,35 @@ public class HighlighterTest {
         mHighlighter.update();
         assertThat(mHighlighter.isHighlighted()).isFalse();
     }
+
+    @Test
+    public void testDetector_NotifiedOfHighlight() {
+        List<Boolean> changes = new ArrayList<>();
+        mHighlighter = mHighlighterFactory.create(/* index */ 1, new IMotionDetector() {
+            @Override
+            public boolean isMotionDetected() {
+                return mIsMotion.get();
+            }
+
+            @Override
+            public void onHighlightChanged(boolean highlighted) {
+                changes.add(highlighted);
+            }
+        });
+
+        mClock.setNow(1000);
+        mIsMotion.set(true);
+        mHighlighter.update();
+        mClock.add(1000);
+        mHighlighter.update();
+        assertThat(changes).containsExactly(true);
+
+        mIsMotion.set(false);
+        mClock.add(2000);
+        mHighlighter.update();
+        mClock.add(2000);
+        mHighlighter.update();
+        assertThat(mHighlighter.isHighlighted()).isFalse();
+        assertThat(changes).containsExactly(true, false).inOrder();
+    }
 }
@@ -0,0 +1,163 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.display;
+
+import com.alflabs.trainmotion.util.ILogger;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.Color;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class PsaTextTest {
+    private static final Color BG = new Color(8, 8, 8);
+
+    /** The typical PSA strings documented in RtacPsaPanel, as well as a few edge cases. */
+    private static final String[] SAMPLES = {
+            "{bg:black}{b:red}{c:white}Automation Not Working",
+            "Automation Started",
+            "{c:red}Automation Stopped",
+            "{b:red}{c:white}Automation ERROR",
+            "{c:red}Automation Turned Off\\nat 4:50 PM",
+            "{c:red}Saturday Trains Running",
+            "{c:blue}Next Train:\\nPassenger",
+            "{c:blue}Next Train:\\nPassenger\\nLeaving in 1 minute",
+            "{c:#FF008800}Next Train:\\nFreight",
+            "{c:#FF008800}Next Train:\\nFreight\\nLeaving in 1 minute",
+            "{c:blue}Currently Running:\\nPassenger",
+            "{c:#FF008800}Currently Running:\\nFreight",
+            "{b:blue}{c:white}Automation Warning\\nCheck Track $names",
+            "  {c:orange}  {b:#123456} Spaces  ",
+            "{c:nope}Invalid color",
+            "{xyz:red}Invalid key",
+            "{c:}Empty value",
+            "{c:red",
+            "",
+            "\\n",
+            "Line\\n\\n",
+            "One\\nTwo\\nThree\\nFour",
+    };
+
+    private ILogger mLogger;
+    private PsaText.Compiler mCompiler;
+
+    @Before
+    public void setUp() {
+        mLogger = mock(ILogger.class);
+        mCompiler = new PsaText.Compiler(mLogger, Color.WHITE, BG);
+    }
+
+    @Test
+    public void testCompile() {
+        PsaText psa = mCompiler.compile("{bg:black}{b:red}{c:white}Automation Not Working");
+        assertThat(psa.mTextColor).isEqualTo(Color.WHITE);
+        assertThat(psa.mBgColor).isEqualTo(Color.RED);
+        assertThat(psa.mLine1).isEqualTo("Automation Not Working");
+        assertThat(psa.mLine2).isEqualTo("");
+
+        psa = mCompiler.compile("{c:#FF008800}Next Train:\\nFreight\\nLeaving in 1 minute");
+        assertThat(psa.mTextColor).isEqualTo(new Color(0x008800));
+        assertThat(psa.mBgColor).isEqualTo(BG);
+        assertThat(psa.mLine1).isEqualTo("Next Train: Freight");
+        assertThat(psa.mLine2).isEqualTo("Leaving in 1 minute");
+    }
+
+    @Test
+    public void testCompile_invalidColorIsLoggedEachTime() {
+        mCompiler.compile("{c:nope}Invalid color");
+        mCompiler.compile("{c:nope}Invalid color");
+        verify(mLogger, times(2)).log(anyString(), anyString());
+    }
+
+    @Test
+    public void testCompile_sameAsLegacyParser() {
+        for (String sample : SAMPLES) {
+            PsaText psa = mCompiler.compile(sample);
+            PsaText legacy = legacyParse(sample);
+            assertThat(psa.mTextColor).isEqualTo(legacy.mTextColor);
+            assertThat(psa.mBgColor).isEqualTo(legacy.mBgColor);
+            assertThat(psa.mLine1).isEqualTo(legacy.mLine1);
+            assertThat(psa.mLine2).isEqualTo(legacy.mLine2);
+        }
+    }
+
+    // --- The former regex-based RtacPsaPanel parser, kept as a reference.
+
+    private static final Pattern sAttribRe = Pattern.compile("^\\{([a-z]{1,2}):([^}]+)\\}(.*)");
+
+    private static PsaText legacyParse(String text) {
+        Color txColor = Color.WHITE;
+        Color bgColor = BG;
+
+        while (!text.isEmpty()) {
+            text = text.trim();
+            Matcher m = sAttribRe.matcher(text);
+            if (!m.matches()) {
+                break;
+            }
+            String key = m.group(1);
+            String val = m.group(2);
+            text = m.group(3);
+
+            try {
+                Color col = legacyParseColor(val);
+                switch (key) {
+                case "c":
+                    txColor = col;
+                    break;
+                case "b":
+                    bgColor = col;
+                    break;
+                }
+            } catch (IllegalArgumentException ignore) {}
+        }
+
+        String[] lines = text.split("\\\\n");
+        if (lines.length > 1) {
+            lines[0] += " " + lines[1];
+        }
+        return new PsaText(txColor, bgColor,
+                lines.length > 0 ? lines[0] : " ",
+                lines.length > 2 ? lines[2] : "");
+    }
+
+    private static Color legacyParseColor(String val) {
+        try {
+            if (val.startsWith("#")) {
+                String hex = val.substring(1);
+                if (hex.length() == 8) {
+                    hex = hex.substring(2);
+                }
+                if (hex.length() == 6) {
+                    return Color.decode("0x" + hex);
+                }
+            }
+            return (Color) Color.class.getField(val.toUpperCase()).get(null);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Failed to parse color: " + val, e);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.metrics;
+
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class HistogramTest {
+
+    @Test
+    public void testBuckets() {
+        // Small values are exact.
+        for (int i = 0; i < 8; i++) {
+            assertThat(Histogram.getBucketIndex(i)).isEqualTo(i);
+            assertThat(Histogram.getBucketMax(i)).isEqualTo(i);
+        }
+        // Then each power of 2 is split in 8 buckets.
+        assertThat(Histogram.getBucketIndex(8)).isEqualTo(8);
+        assertThat(Histogram.getBucketIndex(15)).isEqualTo(15);
+        assertThat(Histogram.getBucketIndex(16)).isEqualTo(16);
+        assertThat(Histogram.getBucketIndex(17)).isEqualTo(16);
+        assertThat(Histogram.getBucketMax(16)).isEqualTo(17);
+        assertThat(Histogram.getBucketIndex(50)).isEqualTo(28);
+        assertThat(Histogram.getBucketMax(28)).isEqualTo(51);
+
+        // Each value is in the bucket it maps to, with at most 12.5% of error.
+        for (long value = 1; value < (1L << 40); value = value * 3 + 1) {
+            int index = Histogram.getBucketIndex(value);
+            long max = Histogram.getBucketMax(index);
+            assertThat(max).isAtLeast(value);
+            assertThat(max - value).isAtMost(value / 8);
+            assertThat(Histogram.getBucketMax(index - 1)).isLessThan(value);
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        Histogram histogram = new Histogram();
+        assertThat(histogram.getCount()).isEqualTo(0);
+        assertThat(histogram.getAverage()).isEqualTo(0);
+        assertThat(histogram.getPercentile(50)).isEqualTo(0);
+        assertThat(histogram.getSummary("ms")).isEqualTo("n=0 avg=0 p50=0 p95=0 max=0 ms");
+    }
+
+    @Test
+    public void testRecord() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        histogram.record(-1);
+
+        assertThat(histogram.getCount()).isEqualTo(100);
+        assertThat(histogram.getSum()).isEqualTo(5050);
+        assertThat(histogram.getAverage()).isEqualTo(50);
+        assertThat(histogram.getMax()).isEqualTo(100);
+        // Percentiles are rounded up to their bucket upper bound.
+        assertThat(histogram.getPercentile(50)).isEqualTo(51);
+        assertThat(histogram.getPercentile(95)).isEqualTo(95);
+        assertThat(histogram.getPercentile(100)).isEqualTo(100);
+        assertThat(histogram.getSummary("ms")).isEqualTo("n=100 avg=50 p50=51 p95=95 max=100 ms");
+
+        histogram.record(30000);
+        assertThat(histogram.getPercentile(100)).isEqualTo(30000);
+
+        histogram.reset();
+        assertThat(histogram.getCount()).isEqualTo(0);
+        assertThat(histogram.getMax()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.metrics;
+
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class MetricsTest {
+
+    @Test
+    public void testRegistry() {
+        Metrics metrics = new Metrics();
+
+        Counter counter = metrics.counter("b.count");
+        counter.increment();
+        counter.add(2);
+        assertThat(metrics.counter("b.count")).isSameInstanceAs(counter);
+        assertThat(counter.get()).isEqualTo(3);
+
+        metrics.counter("a.count").increment();
+        metrics.gauge("c.fps").set(12.5);
+        metrics.histogram("d.loop_ms").record(42);
+
+        assertThat(metrics.getCounters().keySet()).containsExactly("a.count", "b.count").inOrder();
+        assertThat(metrics.getGauges().get("c.fps").get()).isEqualTo(12.5);
+        assertThat(metrics.getSummary()).isEqualTo(
+                "\n  a.count = 1" +
+                "\n  b.count = 3" +
+                "\n  c.fps = 12.50" +
+                "\n  d.loop_ms: n=1 avg=42 p50=42 p95=42 max=42");
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.metrics;
+
+import com.alflabs.trainmotion.ConfigIni;
+import com.alflabs.trainmotion.dagger.DaggerITrainMotionTestComponent;
+import com.alflabs.trainmotion.dagger.ITrainMotionTestComponent;
+import com.alflabs.trainmotion.util.ILogger;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.when;
+
+public class StatusServerTest {
+    public @Rule MockitoRule mRule = MockitoJUnit.rule();
+
+    @Inject ILogger mLogger;
+    @Inject Metrics mMetrics;
+    @Inject ObjectMapper mJsonMapper;
+    @Mock private ConfigIni mConfigIni;
+
+    private StatusServer mStatusServer;
+
+    public interface _injector {
+        void inject(StatusServerTest test);
+    }
+
+    @Before
+    public void setUp() {
+        ITrainMotionTestComponent component = DaggerITrainMotionTestComponent.factory().createComponent();
+        component.inject(this);
+
+        when(mConfigIni.getStatusHost()).thenReturn("127.0.0.1");
+        mStatusServer = new StatusServer(mLogger, mConfigIni, mMetrics, mJsonMapper);
+
+        mMetrics.counter("cam1.analyzer.frames_offered").add(42);
+        mMetrics.gauge("display.on").set(1);
+        Histogram histogram = mMetrics.histogram("cam1.latency.detect_ms");
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        mMetrics.info("main.video").set("some \"video\".mp4");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mStatusServer.stop();
+    }
+
+    @Test
+    public void testNotEnabled() throws Exception {
+        when(mConfigIni.getStatusPort()).thenReturn(-1);
+        mStatusServer.start();
+        assertThat(mStatusServer.getPort()).isEqualTo(-1);
+    }
+
+    @Test
+    public void testPrometheus() throws Exception {
+        when(mConfigIni.getStatusPort()).thenReturn(0);
+        mStatusServer.start();
+        assertThat(mStatusServer.getPort()).isGreaterThan(0);
+
+        String body = fetch("/metrics", 200);
+        assertThat(body).contains(
+                "# TYPE trainmotion_cam1_analyzer_frames_offered_total counter\n" +
+                "trainmotion_cam1_analyzer_frames_offered_total 42\n");
+        assertThat(body).contains(
+                "# TYPE trainmotion_display_on gauge\n" +
+                "trainmotion_display_on 1.0\n");
+        assertThat(body).contains(
+                "# TYPE trainmotion_cam1_latency_detect_ms summary\n" +
+                "trainmotion_cam1_latency_detect_ms{quantile=\"0.5\"} 51\n" +
+                "trainmotion_cam1_latency_detect_ms{quantile=\"0.95\"} 95\n");
+        assertThat(body).contains(
+                "trainmotion_cam1_latency_detect_ms_sum 5050\n" +
+                "trainmotion_cam1_latency_detect_ms_count 100\n");
+        assertThat(body).contains(
+                "trainmotion_main_video_info{value=\"some \\\"video\\\".mp4\"} 1\n");
+    }
+
+    @Test
+    public void testStatusJson() throws Exception {
+        when(mConfigIni.getStatusPort()).thenReturn(0);
+        mStatusServer.start();
+
+        JsonNode root = mJsonMapper.readTree(fetch("/status", 200));
+        assertThat(root.get("counters").get("cam1.analyzer.frames_offered").asLong()).isEqualTo(42);
+        assertThat(root.get("gauges").get("display.on").asDouble()).isEqualTo(1.0);
+        JsonNode histogram = root.get("histograms").get("cam1.latency.detect_ms");
+        assertThat(histogram.get("count").asLong()).isEqualTo(100);
+        assertThat(histogram.get("p50").asLong()).isEqualTo(51);
+        assertThat(histogram.get("max").asLong()).isEqualTo(100);
+        assertThat(root.get("infos").get("main.video").asText()).isEqualTo("some \"video\".mp4");
+    }
+
+    @Test
+    public void testUnknownPath() throws Exception {
+        when(mConfigIni.getStatusPort()).thenReturn(0);
+        mStatusServer.start();
+
+        fetch("/status/foo", 404);
+    }
+
+    private String fetch(String path, int expectedCode) throws IOException {
+        URL url = new URL("http://127.0.0.1:" + mStatusServer.getPort() + path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            assertThat(connection.getResponseCode()).isEqualTo(expectedCode);
+            if (expectedCode != 200) {
+                return "";
+            }
+            try (InputStream is = connection.getInputStream()) {
+                return new String(is.readAllBytes(), StandardCharsets.UTF_8);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
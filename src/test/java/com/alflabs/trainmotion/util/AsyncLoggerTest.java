@@ -0,0 +1,125 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.util;
+
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class AsyncLoggerTest {
+    public @Rule TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    private final ByteArrayOutputStream mOutput = new ByteArrayOutputStream();
+
+    @Test
+    public void testLog() {
+        AsyncLogger logger = new AsyncLogger(16, new PrintStream(mOutput, true));
+        logger.log("Message 1");
+        logger.log("Tag", "Message 2");
+        logger.log("Message 3\n");
+        logger.flush(1000);
+
+        assertThat(getOutput()).isEqualTo("Message 1\nTag: Message 2\nMessage 3\n");
+    }
+
+    @Test
+    public void testLevel() {
+        AsyncLogger logger = new AsyncLogger(16, new PrintStream(mOutput, true));
+        AtomicBoolean formatted = new AtomicBoolean();
+
+        assertThat(logger.isLoggable(ILogger.Level.DEBUG)).isFalse();
+        logger.log(ILogger.Level.DEBUG, "Tag", () -> {
+            formatted.set(true);
+            return "Debug 1";
+        });
+        logger.log(ILogger.Level.INFO, "Tag", () -> "Info 1");
+
+        logger.setLevel(ILogger.Level.DEBUG);
+        assertThat(logger.isLoggable(ILogger.Level.DEBUG)).isTrue();
+        logger.log(ILogger.Level.DEBUG, "Tag", () -> "Debug 2");
+        logger.flush(1000);
+
+        assertThat(formatted.get()).isFalse();
+        assertThat(getOutput()).isEqualTo("Tag: Info 1\nTag: Debug 2\n");
+    }
+
+    @Test
+    public void testDropped() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        OutputStream blockingOutput = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                mOutput.write(b);
+            }
+        };
+        AsyncLogger logger = new AsyncLogger(4, new PrintStream(blockingOutput, true));
+
+        // The writer takes the first message and blocks on it.
+        logger.log("Message 0");
+        assertThat(blocked.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // The next 4 messages fill the buffer, the other ones get dropped without blocking.
+        for (int i = 1; i <= 10; i++) {
+            logger.log("Message " + i);
+        }
+        assertThat(logger.getDroppedCount()).isEqualTo(6);
+
+        release.countDown();
+        logger.flush(1000);
+        assertThat(getOutput()).isEqualTo(
+                "Message 0\nAsyncLogger: 6 messages dropped\nMessage 1\nMessage 2\nMessage 3\nMessage 4\n");
+    }
+
+    @Test
+    public void testLogFile() throws Exception {
+        File logFile = new File(mTempFolder.getRoot(), "train-motion.log");
+        AsyncLogger logger = new AsyncLogger(16, new PrintStream(mOutput, true));
+        logger.setOutputs(false /* useStdout */, logFile);
+        logger.log("Tag", "Message 1");
+        logger.flush(1000);
+
+        assertThat(getOutput()).isEmpty();
+        String content = Files.asCharSource(logFile, StandardCharsets.UTF_8).read();
+        assertThat(content).matches("\\d{4}-\\d\\d-\\d\\d \\d\\d:\\d\\d:\\d\\d\\.\\d{3} Tag: Message 1\n");
+    }
+
+    private String getOutput() {
+        return new String(mOutput.toByteArray(), StandardCharsets.UTF_8).replace(System.lineSeparator(), "\n");
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.util;
+
+import com.alflabs.trainmotion.metrics.Metrics;
+import com.alflabs.utils.IClock;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * A {@link ThreadLoopRuntime} which does not run the loops by itself. Tests drive the loops
+ * deterministically, one iteration at a time, using {@link #runStep(ThreadLoop)}.
+ */
+public class FakeThreadLoopRuntime extends ThreadLoopRuntime {
+
+    public FakeThreadLoopRuntime(
+            IClock clock,
+            ILogger logger,
+            Metrics metrics,
+            ScheduledExecutorService executor) {
+        super(clock, logger, metrics, executor);
+    }
+
+    @Nonnull
+    @Override
+    protected Thread createThread(@Nonnull String name, @Nonnull Runnable body) {
+        // The loop still gets a thread to start and join, but the thread does nothing.
+        return new Thread(() -> {}, name);
+    }
+
+    /**
+     * Runs one iteration of the loop on the calling thread. A parked loop does not wait.
+     * Returns false once the loop has ended, after calling its {@code _afterThreadLoop}.
+     */
+    public boolean runStep(@Nonnull ThreadLoop loop) {
+        return loop._runStep(false /* waitWhileParked */);
+    }
+}
@@ -20,6 +20,7 @@ package com.alflabs.trainmotion.util;
 
 import com.alflabs.trainmotion.dagger.DaggerITrainMotionTestComponent;
 import com.alflabs.trainmotion.dagger.ITrainMotionTestComponent;
+import com.alflabs.trainmotion.metrics.Metrics;
 import com.alflabs.utils.FakeClock;
 import org.junit.Before;
 import org.junit.Test;
@@ -31,6 +32,7 @@ import static com.google.common.truth.Truth.assertThat;
 public class FpsMeasurerTest {
     @Inject FakeClock mClock;
     @Inject FpsMeasurerFactory mFpsMeasurerFactory;
+    @Inject Metrics mMetrics;
 
     public interface _injector {
         void inject(FpsMeasurerTest test);
@@ -79,4 +81,102 @@ public class FpsMeasurerTest {
         // 2nd iteration was too slow so we didn't reach the desired FPS, our actual FPS was 1/4th
         assertThat(measurer.getFps()).isEqualTo(10.0 / 4);
     }
+
+    @Test
+    public void testDeadlinesDoNotDrift() {
+        FpsMeasurer measurer = mFpsMeasurerFactory.create();
+        // A 66.67 ms period would drift by 0.67 ms per frame with integer sleeps.
+        measurer.setFrameRate(15.0);
+
+        for (int i = 0; i < 15; i++) {
+            measurer.startTick();
+            // The work duration varies, and iterations wake up late.
+            mClock.add(i % 4 == 0 ? 50 : 10);
+            measurer.endWait();
+        }
+        // 15 frames at 15 fps take exactly one second.
+        assertThat(mClock.elapsedRealtime()).isEqualTo(1000 + 1000);
+        assertThat(measurer.getOverrunCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testRemainingMs() {
+        FpsMeasurer measurer = mFpsMeasurerFactory.create();
+        measurer.setFrameRate(10.0);
+        assertThat(measurer.getRemainingMs()).isEqualTo(100);
+
+        measurer.startTick();
+        mClock.add(30);
+        assertThat(measurer.getRemainingMs()).isEqualTo(70);
+        mClock.add(100);
+        assertThat(measurer.getRemainingMs()).isEqualTo(0);
+    }
+
+    @Test
+    public void testOverrun_Skip() {
+        FpsMeasurer measurer = mFpsMeasurerFactory.create();
+        measurer.setFrameRate(10.0);
+        measurer.setMetricsName("test");
+
+        measurer.startTick();
+        mClock.add(350);
+        assertThat(measurer.endWait()).isEqualTo(-250);
+        // Late for the 1100 frame, which runs now. The 1200 and 1300 frames are dropped
+        // and the schedule restarts at 1350.
+        assertThat(measurer.getOverrunCount()).isEqualTo(1);
+        assertThat(measurer.getSkippedCount()).isEqualTo(2);
+        assertThat(mMetrics.counter("test.overruns").get()).isEqualTo(1);
+        assertThat(mMetrics.counter("test.skipped").get()).isEqualTo(2);
+
+        measurer.startTick();
+        mClock.add(10);
+        measurer.endWait();
+        assertThat(mClock.elapsedRealtime()).isEqualTo(1350 + 100);
+    }
+
+    @Test
+    public void testOverrun_CatchUp() {
+        FpsMeasurer measurer = mFpsMeasurerFactory.create();
+        measurer.setFrameRate(10.0);
+        measurer.setOverrunPolicy(FpsMeasurer.OverrunPolicy.CATCH_UP);
+        measurer.setMetricsName("test");
+
+        measurer.startTick();
+        mClock.add(250);
+        measurer.endWait();
+        // Late by 150 ms: the next iterations don't wait till the schedule is caught up.
+        measurer.startTick();
+        mClock.add(10);
+        assertThat(measurer.endWait()).isEqualTo(-60);
+        measurer.startTick();
+        mClock.add(10);
+        assertThat(measurer.endWait()).isEqualTo(30);
+        assertThat(mClock.elapsedRealtime()).isEqualTo(1000 + 300);
+        assertThat(measurer.getOverrunCount()).isEqualTo(2);
+        assertThat(measurer.getSkippedCount()).isEqualTo(0);
+        // The 2nd and 3rd iterations started 150 and 60 ms after their deadline.
+        assertThat(mMetrics.histogram("test.jitter_ms").getMax()).isEqualTo(150);
+    }
+
+    @Test
+    public void testAverageFps() {
+        FpsMeasurer measurer = mFpsMeasurerFactory.create();
+        measurer.setFrameRate(10.0);
+        measurer.setMetricsName("test");
+
+        for (int i = 0; i < 50; i++) {
+            measurer.startTick();
+            mClock.add(10);
+            measurer.endWait();
+        }
+        // One slow iteration makes the instant fps drop, but barely moves the average.
+        measurer.startTick();
+        mClock.add(200);
+        measurer.endWait();
+        measurer.startTick();
+
+        assertThat(measurer.getFps()).isEqualTo(5.0);
+        assertThat(measurer.getAverageFps()).isWithin(0.1).of(1000.0 / 110);
+        assertThat(mMetrics.gauge("test.fps").get()).isEqualTo(measurer.getAverageFps());
+    }
 }
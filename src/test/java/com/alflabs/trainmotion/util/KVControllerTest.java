@@ -0,0 +1,151 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.util;
+
+import com.alflabs.trainmotion.ConfigIni;
+import com.alflabs.trainmotion.dagger.DaggerITrainMotionTestComponent;
+import com.alflabs.trainmotion.dagger.ITrainMotionTestComponent;
+import com.alflabs.trainmotion.metrics.Metrics;
+import com.alflabs.utils.IClock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.when;
+
+public class KVControllerTest {
+    public @Rule MockitoRule mRule = MockitoJUnit.rule();
+
+    @Inject IClock mClock;
+    @Inject ILogger mLogger;
+    @Inject Random mRandom;
+    @Inject Metrics mMetrics;
+    @Inject ThreadLoopRuntime mRuntime;
+    @Mock private ConfigIni mConfigIni;
+
+    private KVController mKVController;
+    private ServerSocket mServer;
+
+    public interface _injector {
+        void inject(KVControllerTest test);
+    }
+
+    @Before
+    public void setUp() {
+        ITrainMotionTestComponent component = DaggerITrainMotionTestComponent.factory().createComponent();
+        component.inject(this);
+
+        mKVController = new KVController(mClock, mLogger, mConfigIni, mRandom, mMetrics, mRuntime);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mKVController.stop();
+        if (mServer != null) {
+            mServer.close();
+        }
+    }
+
+    @Test
+    public void testComputeRetryDelayMs() {
+        // The mock random returns 17 % n.
+        assertThat(mKVController.computeRetryDelayMs(0)).isEqualTo(250 + 17);
+        assertThat(mKVController.computeRetryDelayMs(1)).isEqualTo(500 + 17);
+        assertThat(mKVController.computeRetryDelayMs(2)).isEqualTo(1000 + 17);
+        // Capped at 1 minute
+        assertThat(mKVController.computeRetryDelayMs(10)).isEqualTo(30000 + 17);
+        assertThat(mKVController.computeRetryDelayMs(100)).isEqualTo(30000 + 17);
+    }
+
+    @Test
+    public void testNotEnabled() throws Exception {
+        when(mConfigIni.getKvHostPort()).thenReturn("");
+        mKVController.start();
+
+        assertThat(mKVController.isEnabled()).isFalse();
+        assertThat(mKVController.getConnectAttempts()).isEqualTo(0);
+    }
+
+    @Test
+    public void testReconnect_loopback() throws Exception {
+        // A stand-in server that drops every connection right away.
+        mServer = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        CountDownLatch accepted = new CountDownLatch(3);
+        Thread serverThread = new Thread(() -> {
+            while (!mServer.isClosed()) {
+                try (Socket socket = mServer.accept()) {
+                    accepted.countDown();
+                } catch (IOException ignore) {}
+            }
+        }, "Thread-KVServer-Test");
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        when(mConfigIni.getKvHostPort()).thenReturn("127.0.0.1:" + mServer.getLocalPort());
+        mKVController.start();
+        assertThat(mKVController.isEnabled()).isTrue();
+
+        // The first retries are fast: 267 + 517 ms with the mock random.
+        assertThat(accepted.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(mKVController.getConnectAttempts()).isAtLeast(3);
+        assertThat(mMetrics.counter("kv.connect_attempts").get()).isAtLeast(3);
+        assertThat(mKVController.isConnected()).isFalse();
+        // Connections dropped right away do not reset the backoff: the retry delays grow.
+        assertThat(mKVController.getFailures()).isAtLeast(2);
+    }
+
+    @Test
+    public void testReconnectNow() throws Exception {
+        // Nothing listens on this port once the socket is closed.
+        int port;
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            port = server.getLocalPort();
+        }
+        when(mConfigIni.getKvHostPort()).thenReturn("127.0.0.1:" + port);
+        mKVController.start();
+
+        waitForAttempts(1);
+        mKVController.reconnectNow();
+        waitForAttempts(2);
+        mKVController.reconnectNow();
+        waitForAttempts(3);
+        assertThat(mKVController.getLastReconnectLatencyMs()).isEqualTo(-1);
+    }
+
+    private void waitForAttempts(int attempts) throws InterruptedException {
+        for (int i = 0; i < 500 && mKVController.getConnectAttempts() < attempts; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(mKVController.getConnectAttempts()).isAtLeast(attempts);
+    }
+}
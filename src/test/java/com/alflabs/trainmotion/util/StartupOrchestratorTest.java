@@ -0,0 +1,138 @@
+/*
+ * Project: Train-Motion
+ * Copyright (C) 2025 alf.labs gmail com,
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.alflabs.trainmotion.util;
+
+import com.alflabs.trainmotion.metrics.Metrics;
+import com.alflabs.utils.FakeClock;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class StartupOrchestratorTest {
+    private final FakeClock mClock = new FakeClock(1000);
+    private final Metrics mMetrics = new Metrics();
+    private final List<String> mLogs = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> mSteps = Collections.synchronizedList(new ArrayList<>());
+    private final StartupOrchestrator mStartup = new StartupOrchestrator(
+            mClock,
+            new ILogger() {
+                @Override
+                public void log(String msg) {
+                    mLogs.add(msg);
+                }
+
+                @Override
+                public void log(String tag, String msg) {
+                    mLogs.add(msg);
+                }
+            },
+            mMetrics,
+            () -> 500 /* uptime ms */);
+
+    private StartupOrchestrator.Step step(String name) {
+        return () -> mSteps.add(name);
+    }
+
+    @Test
+    public void testDependencyOrder() throws Exception {
+        mStartup.add("c", step("c"), "a", "b")
+                .add("b", step("b"), "a")
+                .add("a", step("a"))
+                .run();
+        assertThat(mSteps.toString()).isEqualTo("[a, b, c]");
+        assertThat(mMetrics.gauge("startup.total_ms").get()).isEqualTo(0);
+        assertThat(mLogs.get(0).startsWith("Startup done in 0 ms, 500 ms since JVM start")).isTrue();
+    }
+
+    @Test
+    public void testBackgroundStepsRunInParallel() throws Exception {
+        // Each step waits for the other one, which only works if they run at the same time.
+        CountDownLatch latch = new CountDownLatch(2);
+        StartupOrchestrator.Step meet = () -> {
+            latch.countDown();
+            if (!latch.await(5, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Steps did not run in parallel");
+            }
+        };
+        mStartup.add("a", meet).add("b", meet).run();
+        assertThat(latch.getCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testMainStepsRunOnCallerThread() throws Exception {
+        String mainThread = Thread.currentThread().getName();
+        List<String> threads = Collections.synchronizedList(new ArrayList<>());
+        mStartup.add("background", () -> threads.add(Thread.currentThread().getName()))
+                .addOnMain("main", () -> threads.add(Thread.currentThread().getName()), "background")
+                .run();
+        assertThat(threads.size()).isEqualTo(2);
+        assertThat(threads.get(0).startsWith("Thread-Startup-")).isTrue();
+        assertThat(threads.get(1)).isEqualTo(mainThread);
+    }
+
+    @Test
+    public void testFailureSkipsDependents() throws Exception {
+        Exception error = new Exception("boom");
+        mStartup.add("a", () -> { throw error; })
+                .add("b", step("b"), "a")
+                .addOnMain("c", step("c"), "b")
+                .add("d", step("d"));
+        Exception thrown = null;
+        try {
+            mStartup.run();
+        } catch (Exception e) {
+            thrown = e;
+        }
+        assertThat(thrown == error).isTrue();
+        assertThat(mSteps.contains("b")).isFalse();
+        assertThat(mSteps.contains("c")).isFalse();
+        String timeline = mLogs.get(mLogs.size() - 1);
+        assertThat(timeline.contains("FAILED")).isTrue();
+        assertThat(timeline.contains("skipped")).isTrue();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnknownDependency() throws Exception {
+        mStartup.add("a", step("a"), "missing").run();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDependencyCycle() throws Exception {
+        mStartup.add("a", step("a"), "c")
+                .add("b", step("b"), "a")
+                .add("c", step("c"), "b")
+                .add("d", step("d"))
+                .run();
+    }
+
+    @Test
+    public void testMilestoneLoggedOnce() {
+        mStartup.milestone("first_video");
+        mStartup.milestone("first_video");
+        assertThat(mLogs.size()).isEqualTo(1);
+        assertThat(mLogs.get(0)).isEqualTo("Milestone first_video at 500 ms since JVM start");
+        assertThat(mMetrics.gauge("startup.first_video_ms").get()).isEqualTo(500);
+    }
+}
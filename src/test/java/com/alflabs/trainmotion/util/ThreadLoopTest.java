@@ -18,10 +18,17 @@
 
 package com.alflabs.trainmotion.util;
 
+import com.alflabs.trainmotion.dagger.DaggerITrainMotionTestComponent;
+import com.alflabs.trainmotion.dagger.ITrainMotionTestComponent;
+import com.alflabs.trainmotion.metrics.Metrics;
+import com.alflabs.utils.FakeClock;
 import org.junit.Before;
 import org.junit.Test;
 
+import javax.inject.Inject;
+import javax.inject.Named;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -29,8 +36,20 @@ import static com.google.common.truth.Truth.assertThat;
 
 public class ThreadLoopTest {
 
+    @Inject FakeClock mClock;
+    @Inject ILogger mLogger;
+    @Inject Metrics mMetrics;
+    @Inject ThreadLoopRuntime mRuntime;
+    @Inject @Named("SingleThreadExecutor") ScheduledExecutorService mExecutor;
+
+    public interface _injector {
+        void inject(ThreadLoopTest test);
+    }
+
     @Before
     public void setUp() {
+        ITrainMotionTestComponent component = DaggerITrainMotionTestComponent.factory().createComponent();
+        component.inject(this);
     }
 
     @Test
@@ -39,7 +58,7 @@ public class ThreadLoopTest {
         AtomicBoolean stopped = new AtomicBoolean();
         AtomicInteger iterations = new AtomicInteger(0);
         CountDownLatch latch = new CountDownLatch(42);
-        ThreadLoop threadLoop = new ThreadLoop() {
+        ThreadLoop threadLoop = new ThreadLoop(mRuntime) {
             @Override
             public void start(String name) throws Exception {
                 super.start(name);
@@ -76,7 +95,7 @@ public class ThreadLoopTest {
         AtomicBoolean stopped = new AtomicBoolean();
         AtomicInteger iterations = new AtomicInteger(0);
         CountDownLatch latch = new CountDownLatch(1);
-        ThreadLoop threadLoop = new ThreadLoop() {
+        ThreadLoop threadLoop = new ThreadLoop(mRuntime) {
             @Override
             public void start(String name) throws Exception {
                 super.start(name);
@@ -105,4 +124,176 @@ public class ThreadLoopTest {
         assertThat(started.get()).isTrue();
         assertThat(stopped.get()).isTrue();
     }
+
+    @Test
+    public void testParkUnpark() throws Exception {
+        AtomicInteger iterations = new AtomicInteger(0);
+        CountDownLatch parked = new CountDownLatch(1);
+        CountDownLatch unparked = new CountDownLatch(1);
+        CountDownLatch latch = new CountDownLatch(1);
+        ThreadLoop threadLoop = new ThreadLoop(mRuntime) {
+            @Override
+            protected void _runInThreadLoop() {
+                int n = iterations.incrementAndGet();
+                if (n == 10) {
+                    park();
+                } else if (n == 20) {
+                    latch.countDown();
+                    park();
+                }
+            }
+
+            @Override
+            protected void _onParked() {
+                parked.countDown();
+            }
+
+            @Override
+            protected void _onUnparked() {
+                unparked.countDown();
+            }
+        };
+
+        threadLoop.start("test-thread-name");
+        parked.await();
+        assertThat(threadLoop.isParked()).isTrue();
+        Thread.sleep(20 /*ms*/);
+        assertThat(iterations.get()).isEqualTo(10);
+
+        threadLoop.unpark();
+        unparked.await();
+        latch.await();
+        assertThat(iterations.get()).isEqualTo(20);
+
+        // Stopping a parked loop does not wait for an unpark.
+        threadLoop.stop();
+        assertThat(iterations.get()).isEqualTo(20);
+    }
+
+    @Test
+    public void testRunStep_Deterministic() throws Exception {
+        FakeThreadLoopRuntime runtime = new FakeThreadLoopRuntime(mClock, mLogger, mMetrics, mExecutor);
+        AtomicInteger iterations = new AtomicInteger(0);
+        AtomicInteger parked = new AtomicInteger(0);
+        AtomicInteger unparked = new AtomicInteger(0);
+        AtomicBoolean ended = new AtomicBoolean();
+        ThreadLoop threadLoop = new ThreadLoop(runtime) {
+            @Override
+            protected void _runInThreadLoop() {
+                iterations.incrementAndGet();
+            }
+
+            @Override
+            protected void _afterThreadLoop() {
+                ended.set(true);
+            }
+
+            @Override
+            protected void _onParked() {
+                parked.incrementAndGet();
+            }
+
+            @Override
+            protected void _onUnparked() {
+                unparked.incrementAndGet();
+            }
+        };
+
+        threadLoop.start("Thread-Test");
+        assertThat(runtime.runStep(threadLoop)).isTrue();
+        assertThat(runtime.runStep(threadLoop)).isTrue();
+        assertThat(iterations.get()).isEqualTo(2);
+        assertThat(mMetrics.counter("loop.test.iterations").get()).isEqualTo(2);
+
+        // A parked loop does not iterate and does not block the test.
+        threadLoop.park();
+        assertThat(runtime.runStep(threadLoop)).isTrue();
+        assertThat(runtime.runStep(threadLoop)).isTrue();
+        assertThat(iterations.get()).isEqualTo(2);
+        assertThat(parked.get()).isEqualTo(1);
+        runtime.checkLoops();
+        assertThat(mMetrics.gauge("loops.parked").get()).isEqualTo(1);
+        assertThat(mMetrics.gauge("loops.running").get()).isEqualTo(0);
+
+        threadLoop.unpark();
+        assertThat(runtime.runStep(threadLoop)).isTrue();
+        assertThat(unparked.get()).isEqualTo(1);
+        assertThat(iterations.get()).isEqualTo(3);
+
+        threadLoop.stop();
+        assertThat(ended.get()).isFalse();
+        assertThat(runtime.runStep(threadLoop)).isFalse();
+        assertThat(ended.get()).isTrue();
+        assertThat(iterations.get()).isEqualTo(3);
+        assertThat(runtime.runStep(threadLoop)).isFalse();
+        runtime.checkLoops();
+        assertThat(mMetrics.gauge("loops.parked").get()).isEqualTo(0);
+        assertThat(mMetrics.gauge("loops.running").get()).isEqualTo(0);
+    }
+
+    @Test
+    public void testCheckLoops_Stuck() throws Exception {
+        FakeThreadLoopRuntime runtime = new FakeThreadLoopRuntime(mClock, mLogger, mMetrics, mExecutor);
+        AtomicInteger iterations = new AtomicInteger(0);
+        ThreadLoop threadLoop = new ThreadLoop(runtime) {
+            @Override
+            protected void _runInThreadLoop() {
+                // The first iteration takes too long, the watchdog checks while it runs.
+                if (iterations.incrementAndGet() == 1) {
+                    mClock.add(ThreadLoopRuntime.DEFAULT_STUCK_TIMEOUT_MS);
+                    runtime.checkLoops();
+                    mClock.add(1000);
+                    runtime.checkLoops();
+                } else {
+                    runtime.checkLoops();
+                }
+            }
+        };
+
+        threadLoop.start("Thread-Stuck-1");
+        runtime.runStep(threadLoop);
+        // Reported only once for the same iteration.
+        assertThat(mMetrics.counter("loop.stuck_1.stuck").get()).isEqualTo(1);
+        assertThat(mMetrics.gauge("loops.stuck").get()).isEqualTo(1);
+
+        runtime.runStep(threadLoop);
+        assertThat(mMetrics.counter("loop.stuck_1.stuck").get()).isEqualTo(1);
+        assertThat(mMetrics.gauge("loops.stuck").get()).isEqualTo(0);
+        assertThat(mMetrics.gauge("loops.running").get()).isEqualTo(1);
+
+        threadLoop.stop();
+        runtime.runStep(threadLoop);
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        // This falls back to platform threads when the JDK does not have virtual threads.
+        mRuntime.setUseVirtualThreads(true);
+        AtomicInteger iterations = new AtomicInteger(0);
+        CountDownLatch latch = new CountDownLatch(10);
+        ThreadLoop threadLoop = new ThreadLoop(mRuntime) {
+            @Override
+            protected void _runInThreadLoop() {
+                iterations.incrementAndGet();
+                latch.countDown();
+                try {
+                    Thread.sleep(1 /*ms*/);
+                } catch (InterruptedException ignore) {}
+            }
+        };
+
+        threadLoop.start("Thread-Virtual");
+        latch.await();
+        threadLoop.stop();
+        assertThat(iterations.get()).isAtLeast(10);
+        assertThat(mMetrics.info("loops.threads").get())
+                .isEqualTo(mRuntime.isUsingVirtualThreads() ? "virtual" : "platform");
+    }
+
+    @Test
+    public void testToMetricsName() {
+        assertThat(ThreadLoopRuntime.toMetricsName("Thread-CamAn-1")).isEqualTo("caman_1");
+        assertThat(ThreadLoopRuntime.toMetricsName("Analytics")).isEqualTo("analytics");
+        assertThat(ThreadLoopRuntime.toMetricsName("Thread-KVClient")).isEqualTo("kvclient");
+    }
 }